@@ -1,19 +1,36 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Random;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * <h1>Creates log file</h1> 
+ * <h1>Creates log file</h1>
  * The LogGenerator class as previously mentioned
- * creates the Log file. It logs each CPU usage for 1000 servers every minute.
- * Therefore, writing 2000 logs every minute for 24 hrs i.e. 1440 minutes. All
- * the logs are written to a single text file.
+ * creates the Log file. By default it logs each CPU usage for 1000 servers
+ * every minute, that is 2000 logs every minute for 24 hrs i.e. 1440 minutes,
+ * but the number of servers, CPUs per server and days, the first minute and
+ * the seed of the usage values can be given. All the logs are written to a
+ * single text file.
+ * <p>
+ * The logs are cut into chunks of at most CHUNK_LINES lines, in the order of
+ * the file, which are formatted in parallel each into its own direct buffer
+ * and written to the file in order, so the file is written at the speed of
+ * the disk. Each chunk draws its usage values from its own random generator,
+ * split from the seed in the order of the chunks, so the same seed gives the
+ * same file whatever the number of threads. With --store the usage values are
+ * also written straight into a segment store for the file (see
+ * {@link SegmentWriter}), so the QUERY command opens the store without parsing
+ * the file.
  *
  * @author Aravind Vicinthangal Prathivaathi
  * @version 1.0
@@ -21,107 +38,259 @@ import java.util.Random;
  */
 
 public class LogGenerator {
-	//Starting Time stamp given in the question 
-	static String givenTimeStamp = "31/10/2014 00:00";
-	//The format of the given time stamp
-	static String dateFormat = "dd/MM/yyyy HH:mm";
+	//Starting Time stamp given in the question, in the local time zone
+	static String givenTimeStamp = "2014-10-31 00:00";
 	//The header of the log file to be created
 	static String header = "timestamp IP cpu_id usage";
-	
+
 	// Total number of minutes in a day
 	final static int MINUTES = 1440;
 
 	// Total Number of servers
 	final static int SERVERS = 1000;
-	
+
 	// IP Address is a 32 bit number meaning each part is 8 bit and the maximum
 	// value each 8 bit part can take is 255
 	final static int IP_OCTET_MAX = 255;
 
+	// Second octet of the IP Address of the first servers (192.168.1.1)
+	final static int IP_OCTET_SECOND = 168;
+
+	// Number of servers which can be given an IP Address: the second octet runs
+	// from 168 to 255 and the last two from 1 to 255
+	final static int MAX_SERVERS = (IP_OCTET_MAX - IP_OCTET_SECOND + 1) * IP_OCTET_MAX * IP_OCTET_MAX;
+
+	// Number of lines in a chunk (128 K lines, about 4 MB)
+	final static int CHUNK_LINES = 1 << 17;
+
+	// Longest line: a time stamp of 20 characters, an IP Address of 15, a CPU ID
+	// and a usage value of 2 digits, 3 spaces and the new line
+	final static int MAX_LINE_BYTES = 20 + 15 + 1 + 2 + 3 + 1;
+
+	// Decimal digits of each IP octet
+	final static byte OCTETS[][] = new byte[IP_OCTET_MAX + 1][];
+	static {
+		for (int i = 0; i <= IP_OCTET_MAX; i++) {
+			OCTETS[i] = Integer.toString(i).getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	// Number of servers logging
+	static int servers = SERVERS;
+
+	// Number of CPUs of each server
+	static int cpus = SegmentStore.CPUS;
+
+	// Number of days logged
+	static int days = 1;
+
+	// Unix time of the first minute logged
+	static long startTime = QueryParser.parseTime(givenTimeStamp);
+
+	// Seed of the usage values
+	static long seed = new SplittableRandom().nextLong();
+
+	// Number of threads formatting the logs
+	static int threads = Runtime.getRuntime().availableProcessors();
+
+	// Directory of the segment store written with the log file, or null to only
+	// write the log file
+	static File storeDir = null;
+
+	// Number of lines written by the last call to generateLog
+	static long linesGenerated = 0;
+
 	/**
 	 * Convert time stamp to Unix time
-	 * 
+	 *
 	 * @param timeCount timeCount to increment time stamp by minute
 	 * @return string Unix time stamp
 	 */
 	public static String convertToUnixTime(int timeCount) {
-		SimpleDateFormat dateF = new SimpleDateFormat(dateFormat);
-		String unixTime = null;
+		return Long.toString(startTime + timeCount * 60L);
 
-		try {
-			Date date = dateF.parse(givenTimeStamp);
-			Calendar cal = Calendar.getInstance();
-			cal.setTime(date);
-			cal.add(Calendar.MINUTE, timeCount);
-			long time = (long) cal.getTime().getTime();
-			long epochs = time / 1000L;
-			unixTime = Long.toString(epochs);
-
-		} catch (ParseException e) {
-			e.printStackTrace();
+	}
+
+	/**
+	 * Gives the IP Address of a server: 192.168.1.1 for the first server, the
+	 * last octet running from 1 to 255 before the one before it is incremented.
+	 *
+	 * @param server number of the server
+	 * @return int the packed IP Address
+	 */
+	static int ip(final int server) {
+		final int square = IP_OCTET_MAX * IP_OCTET_MAX;
+		return 192 << 24 | (IP_OCTET_SECOND + server / square) << 16 | (server / IP_OCTET_MAX % IP_OCTET_MAX + 1) << 8
+				| (server % IP_OCTET_MAX + 1);
+	}
+
+	/**
+	 * Logs of a range of server-minutes, that is of the servers of a minute in
+	 * their order and then of the next minutes, each with one line per CPU.
+	 */
+	static class Chunk implements Callable<Chunk> {
+		// First server-minute of the chunk, counted from the first server in the first
+		// minute
+		long from;
+
+		// Server-minute after the last one of the chunk
+		long to;
+
+		// Draws the usage values of the chunk
+		SplittableRandom random;
+
+		// The formatted lines
+		final ByteBuffer text;
+
+		// Usage values of the lines, kept for the segment store, or null
+		final byte usages[];
+
+		Chunk(final int serverMinutes, final boolean store) {
+			text = ByteBuffer.allocateDirect(serverMinutes * cpus * MAX_LINE_BYTES);
+			usages = store ? new byte[serverMinutes * cpus] : null;
 		}
-		return unixTime;
 
+		@Override
+		public Chunk call() {
+			text.clear();
+			long minute = from / servers;
+			int server = (int) (from % servers);
+			byte time[] = convertToUnixTime((int) minute).getBytes(StandardCharsets.US_ASCII);
+			int line = 0;
+			for (long i = from; i < to; i++) {
+				final int ip = ip(server);
+				for (int cpu = 0; cpu < cpus; cpu++) {
+					final int usage = random.nextInt(100);
+					if (usages != null) {
+						usages[line++] = (byte) usage;
+					}
+					text.put(time).put((byte) ' ');
+					text.put(OCTETS[ip >>> 24]).put((byte) '.').put(OCTETS[(ip >>> 16) & 0xFF]).put((byte) '.')
+							.put(OCTETS[(ip >>> 8) & 0xFF]).put((byte) '.').put(OCTETS[ip & 0xFF]);
+					text.put((byte) ' ').put((byte) ('0' + cpu)).put((byte) ' ');
+					if (usage >= 10) {
+						text.put((byte) ('0' + usage / 10));
+					}
+					text.put((byte) ('0' + usage % 10)).put((byte) '\n');
+				}
+				if (++server == servers) {
+					server = 0;
+					minute++;
+					time = convertToUnixTime((int) minute).getBytes(StandardCharsets.US_ASCII);
+				}
+			}
+			text.flip();
+			return this;
+		}
+
+		/**
+		 * Hands the usage values of the chunk to the segment writer, in the order of
+		 * the lines.
+		 *
+		 * @param writer the segment writer
+		 * @exception IOException
+		 */
+		void store(final SegmentWriter writer) throws IOException {
+			long time = startTime + from / servers * 60;
+			int server = (int) (from % servers);
+			int line = 0;
+			for (long i = from; i < to; i++) {
+				final int ip = ip(server);
+				for (int cpu = 0; cpu < cpus; cpu++) {
+					writer.accept(time, ip, cpu, usages[line++]);
+				}
+				if (++server == servers) {
+					server = 0;
+					time += 60;
+				}
+			}
+		}
 	}
 
 	/**
-	 * Generate data and write it to the created log file.
+	 * Generate data and write it to the created log file. The chunks are
+	 * formatted on a pool of threads while the chunks before them are written,
+	 * two chunks per thread being in flight, and their buffers are reused.
 	 *
 	 * @param file File object for the given file
 	 *
 	 */
 	static void generateLog(final File file) {
-		ServerDetails sd[] = new ServerDetails[SERVERS];
-		String logContent;
-
-		final Random rand = new Random();
-		try (BufferedWriter bWrite = new BufferedWriter(new FileWriter(file.getAbsoluteFile()))) {
-
-			bWrite.write(header);
-			bWrite.newLine();
-
-			for (int timeCount = 0; timeCount < MINUTES; timeCount++) {
-				int ip3 = 1;
-				int ip4 = 1;
-				for (int serverCount = 0; serverCount < SERVERS; serverCount++) {
-					sd[serverCount] = new ServerDetails();
-					final String unixTime = convertToUnixTime(timeCount);
-
-					sd[serverCount].cpuId1 = 0;
-					sd[serverCount].cpuId2 = 1;
-
-					sd[serverCount].cpuUsage1 = rand.nextInt(100);
-					sd[serverCount].cpuUsage2 = rand.nextInt(100);
-
-					if (ip4 <= IP_OCTET_MAX) {
-						sd[serverCount].ipAddr[2] = ip3;
-						sd[serverCount].ipAddr[3] = ip4++;
-					} else {
-						ip4 = 1;
-						ip3++;
-						sd[serverCount].ipAddr[2] = ip3;
-						sd[serverCount].ipAddr[3] = ip4++;
-					}
+		final long begin = System.nanoTime();
+		final long serverMinutes = (long) days * MINUTES * servers;
+		final int chunkServerMinutes = Math.max(1, CHUNK_LINES / cpus);
+		final SplittableRandom random = new SplittableRandom(seed);
+		final SegmentWriter writer = storeDir == null ? null : new SegmentWriter();
+		if (writer != null) {
+			Catalog.storeDir = storeDir;
+			Catalog.clear();
+			UsageKernels.warmUp();
+		}
 
-					String ip = "";
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final Chunk chunks[] = new Chunk[2 * threads];
+		long lines = 0;
+		try {
+			try (FileChannel channel = FileChannel.open(file.getAbsoluteFile().toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				channel.write(ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.US_ASCII)));
+
+				final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+				long from = 0;
+				int next = 0;
+				while (from < serverMinutes || !pending.isEmpty()) {
+					if (from < serverMinutes && pending.size() < chunks.length) {
+						// the buffer of a chunk is reused once the chunk is written
+						if (chunks[next] == null) {
+							chunks[next] = new Chunk(chunkServerMinutes, writer != null);
+						}
+						final Chunk chunk = chunks[next];
+						next = (next + 1) % chunks.length;
+						chunk.from = from;
+						chunk.to = Math.min(serverMinutes, from + chunkServerMinutes);
+						chunk.random = random.split();
+						from = chunk.to;
+						pending.add(pool.submit(chunk));
+						continue;
+					}
 
-					for (int i = 0; i < 3; i++) {
-						ip = ip + sd[serverCount].ipAddr[i] + ".";
+					final Chunk chunk = pending.poll().get();
+					while (chunk.text.hasRemaining()) {
+						channel.write(chunk.text);
+					}
+					if (writer != null) {
+						chunk.store(writer);
 					}
-					ip += sd[serverCount].ipAddr[3];
-					logContent = unixTime + " " + ip + " " + sd[serverCount].cpuId1 + " " + sd[serverCount].cpuUsage1;
-					bWrite.write(logContent);
-					bWrite.newLine();
-					logContent = unixTime + " " + ip + " " + sd[serverCount].cpuId2 + " " + sd[serverCount].cpuUsage2;
-					bWrite.write(logContent);
-					bWrite.newLine();
+					lines += (chunk.to - chunk.from) * cpus;
 				}
+			}
 
+			if (writer != null) {
+				writer.flush();
+				Catalog.rollUp();
+				Catalog.write(file.getAbsoluteFile(), file.length());
 			}
 
-		} catch (IOException e) {
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			new InterruptedIOException("Interrupted while writing " + file).printStackTrace();
+			System.exit(1);
+		} catch (ExecutionException | IOException e) {
 			e.printStackTrace();
 			System.exit(1);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		linesGenerated = lines;
+		final double seconds = (System.nanoTime() - begin) / 1e9;
+		System.out.println(String.format(
+				"Generated %,d lines (%,d bytes) in %.0f ms (%,.0f lines/s, %,.0f MB/s) using %d threads, seed %d",
+				lines, file.length(), seconds * 1000, lines / seconds, file.length() / seconds / (1 << 20), threads,
+				seed));
+		if (writer != null) {
+			System.out.println(String.format("Store %s holds %d segments in %d partitions", Catalog.storeDir,
+					writer.segmentCount, Catalog.partitions.size()));
 		}
 	}
 
@@ -156,25 +325,79 @@ public class LogGenerator {
 		}
 	}
 
+	/**
+	 * Gives the value of a numeric option, exiting if it is not a number in the
+	 * given range.
+	 *
+	 * @param option name of the option
+	 * @param value  value of the option
+	 * @param min    lowest value allowed
+	 * @param max    highest value allowed
+	 * @return long the value
+	 */
+	static long option(final String option, final String value, final long min, final long max) {
+		try {
+			final long number = Long.parseLong(value);
+			if (number >= min && number <= max) {
+				return number;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		System.out.println(option + " should be a number from " + min + " to " + max + ": " + value);
+		System.exit(1);
+		return 0;
+	}
+
 	/**
 	 * Main method which controls the flow of the program
 	 *
 	 * @param args command line arguments specifying the name of the file and the
-	 *             path of the directory at which the file should be stored/
+	 *             path of the directory at which the file should be stored, and
+	 *             the options: --servers N, --cpus N (1 or 2), --days N, --start
+	 *             TIME for the first minute, --seed N, --threads N and --store DIR
+	 *             to also write the segment store of the file in DIR, packed with
+	 *             --compress
 	 */
 	public static void main(String[] args) {
 
-		String fileName;
-		File file;
-		if (args.length != 0) {
-			fileName = args[0];
-		} else {
-			fileName = "cpuLogs.txt";
+		String fileName = "cpuLogs.txt";
+		String dirName = null;
+		int positional = 0;
+		for (int i = 0; i < args.length; i++) {
+			final boolean value = i + 1 < args.length;
+			if (args[i].equals("--servers") && value) {
+				servers = (int) option(args[i], args[++i], 1, MAX_SERVERS);
+			} else if (args[i].equals("--cpus") && value) {
+				cpus = (int) option(args[i], args[++i], 1, SegmentStore.CPUS);
+			} else if (args[i].equals("--days") && value) {
+				days = (int) option(args[i], args[++i], 1, Integer.MAX_VALUE / MINUTES);
+			} else if (args[i].equals("--seed") && value) {
+				seed = option(args[i], args[++i], Long.MIN_VALUE, Long.MAX_VALUE);
+			} else if (args[i].equals("--threads") && value) {
+				threads = (int) option(args[i], args[++i], 1, 1024);
+			} else if (args[i].equals("--start") && value) {
+				startTime = QueryParser.parseTime(args[++i]);
+				if (startTime == Long.MIN_VALUE) {
+					System.out.println("--start should be YYYY-MM-DD HH:MM, YYYY-MM-DDTHH:MM[:SS][Z] or a unix time: "
+							+ args[i]);
+					System.exit(1);
+				}
+			} else if (args[i].equals("--store") && value) {
+				storeDir = new File(args[++i]);
+			} else if (args[i].equals("--compress")) {
+				QueryCommand.compress = true;
+			} else if (positional++ == 0) {
+				fileName = args[i];
+			} else {
+				dirName = args[i];
+			}
 		}
 
 		try {
-			if (args.length > 1) {
-				final File logDir = new File(args[1]);
+			File file;
+			if (dirName != null) {
+				final File logDir = new File(dirName);
 				createDirectory(logDir);
 
 				file = new File(logDir, fileName);
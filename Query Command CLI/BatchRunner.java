@@ -0,0 +1,146 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <h1>Batch mode</h1> Runs all the commands of a file or pipe at once. The
+ * commands are run grouped by the segments they touch, so that each segment is
+ * loaded only once even if the segment cache can't hold all of them. The output
+ * of each command is buffered and the outputs are streamed back in the order of
+ * the input as soon as all the earlier commands have finished.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class BatchRunner {
+	// Size of the buffer of the output stream
+	final static int OUTPUT_BUFFER_BYTES = 1 << 16;
+
+	// Number of bits of the first and of the last segment of a command in its
+	// sort key: the two segments and the index of the command fit in 62 bits
+	final static int SEGMENT_BITS = 15;
+
+	// Largest segment of a command in its sort key, later segments are sorted
+	// with it
+	final static int MAX_SEGMENT = (1 << SEGMENT_BITS) - 1;
+
+	/**
+	 * Runs the commands of the given file and prints their results to stdout.
+	 *
+	 * @param fileName file with one command per line, or "-" for stdin
+	 */
+	public static void run(final String fileName) {
+		final PrintStream out = new PrintStream(
+				new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_BYTES), false);
+		try (InputStream in = fileName.equals("-") ? System.in : new FileInputStream(fileName)) {
+			run(in, out);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Runs the commands read from the given stream.
+	 *
+	 * @param in  stream with one command per line
+	 * @param out stream to which the results are printed in the order of the
+	 *            commands
+	 * @exception IOException
+	 */
+	public static void run(final InputStream in, final PrintStream out) throws IOException {
+		final long begin = System.nanoTime();
+
+		final ArrayList<String> queries = new ArrayList<>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.isEmpty()) {
+				queries.add(line);
+			}
+		}
+
+		// Parse every command once into its plan. Then sort the commands by their
+		// first and last segment, keeping the input order of the commands on the same
+		// segments. The index of the command is in the low bits of the sort key. STATS
+		// is run after the other commands, so it shows the metrics of the batch.
+		final QueryPlan plans[] = new QueryPlan[queries.size()];
+		final long order[] = new long[queries.size()];
+		for (int i = 0; i < order.length; i++) {
+			final QueryPlan plan = new QueryPlan();
+			if (QueryParser.parse(queries.get(i), plan)) {
+				plans[i] = plan;
+				order[i] = (plan.command == QueryPlan.STATS ? Integer.MAX_VALUE : segmentsOf(plan)) << 32 | i;
+			} else {
+				order[i] = i;
+			}
+		}
+		Arrays.sort(order);
+
+		final byte outputs[][] = new byte[queries.size()][];
+		final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		final PrintStream bufOut = new PrintStream(buf, false);
+		int next = 0;
+		for (long key : order) {
+			final int i = (int) key;
+			buf.reset();
+			if (plans[i] != null) {
+				QueryCommand.execute(plans[i], bufOut);
+			} else {
+				QueryCommand.execute(queries.get(i), bufOut);
+			}
+			bufOut.flush();
+			outputs[i] = buf.toByteArray();
+
+			// stream every output whose earlier outputs are all printed
+			while (next < outputs.length && outputs[next] != null) {
+				out.write(outputs[next], 0, outputs[next].length);
+				outputs[next++] = null;
+			}
+		}
+		out.flush();
+
+		final double seconds = (System.nanoTime() - begin) / 1e9;
+		System.err.println(String.format("Ran %,d commands in %.0f ms (%,.0f commands/s)", queries.size(),
+				seconds * 1000, seconds > 0 ? queries.size() / seconds : 0));
+		System.err.println(QueryCommand.cache);
+		if (QueryCommand.results != null) {
+			System.err.println(QueryCommand.results);
+		}
+	}
+
+	/**
+	 * Gives the first and last segment touched by the given command.
+	 *
+	 * @param plan plan of the command
+	 * @return long the first segment in the high 15 bits and the last segment in
+	 *         the low 15 bits, so the sort key of the command is not negative
+	 */
+	static long segmentsOf(final QueryPlan plan) {
+		return (long) segmentOf(plan.unixStart) << SEGMENT_BITS | segmentOf(plan.unixEnd - 60);
+	}
+
+	/**
+	 * Gives the segment in which the given time is, counting from 1 at the first
+	 * segment of the store.
+	 *
+	 * @param unixTime unix time
+	 * @return int the segment, at most MAX_SEGMENT
+	 */
+	static int segmentOf(final long unixTime) {
+		final long segment = Math.floorDiv(unixTime, QueryCommand.MINUTES_PER_FILE * 60)
+				- Math.floorDiv(StoreSnapshot.current().firstTime, QueryCommand.MINUTES_PER_FILE * 60) + 1;
+		return (int) Math.max(0, Math.min(segment, MAX_SEGMENT));
+	}
+
+}
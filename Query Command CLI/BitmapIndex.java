@@ -0,0 +1,308 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>Bitmap index of the usage values</h1> For every hour of a day and every
+ * bucket of 10 usage values (0 - 9, 10 - 19, ..., 90 - 99 and 100), the index
+ * holds a bitmap of the minutes in which each server and CPU had a usage value
+ * in the bucket. An hour has 60 minutes, so the bitmap of a row in an hour is a
+ * single long whose bit m is set if the usage value of minute m is in the
+ * bucket. A search for the usage values in a range is then an OR of the
+ * bitmaps of the buckets in the range, and a search for the minutes in which a
+ * usage value lasted is a scan of the set bits of the ORed words (see
+ * {@link UsageSearch}); only the buckets cut by the ends of the range are
+ * checked against the usage values of their segment.
+ * <p>
+ * The bitmaps of an hour and bucket are compressed as a container: a dense
+ * container holds the word of every row, a sparse one only the rows whose word
+ * is not 0, as (row, word) pairs sorted by row, whichever is smaller. High
+ * usage values are rare, so the buckets which are searched during an incident
+ * are the sparse ones. The index of a partition is a single file, usage.bitmap:
+ *
+ * <pre>
+ * int  magic    "BITS"
+ * int  version
+ * int  day      (days since 1970-01-01)
+ * int  rows
+ * int  offsets[hours * buckets + 1] (offset of each container after the offsets)
+ * long words[rows]                  (dense container)
+ * (int row, long word)[]            (sparse container)
+ * </pre>
+ *
+ * The index is built with the rollups of the partition (see
+ * {@link Catalog#rollUp}), its checksum is recorded in the partition catalog
+ * and a partition whose segments change has no index until it is built again,
+ * so the searches read the segments of that day instead.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class BitmapIndex {
+	// Magic number at the start of every index file ("BITS" in ASCII)
+	final static int MAGIC = 0x42495453;
+
+	// Version of the index file format
+	final static int VERSION = 1;
+
+	// Number of usage values per bucket
+	final static int BUCKET_WIDTH = 10;
+
+	// Number of buckets, the last one holding only 100
+	final static int BUCKETS = 100 / BUCKET_WIDTH + 1;
+
+	// Number of hours, that is of bitmaps per bucket, in a day
+	final static int HOURS = Catalog.SEGMENTS_PER_PARTITION;
+
+	// Size of the header of an index file in bytes, without the offsets
+	final static int HEADER_BYTES = 4 + 4 + 4 + 4;
+
+	// Size of an entry of a sparse container: row (int) and word (long)
+	final static int ENTRY_BYTES = 4 + 8;
+
+	// Name of the index file of a partition
+	final static String FILE_NAME = "usage.bitmap";
+
+	// Number of indexes kept in the cache
+	final static int CACHED_INDEXES = 64;
+
+	// Cached indexes by day and checksum in least recently used order
+	static final LinkedHashMap<Long, BitmapIndex> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	// Day of the index, counted from 1970-01-01
+	final int day;
+
+	// Number of rows
+	final int rows;
+
+	// Offset of the container of each hour and bucket in containers, and the end
+	// of the last one
+	final int offsets[];
+
+	// The containers
+	final ByteBuffer containers;
+
+	// Checksum of the index file, or -1 if the index wasn't written
+	long crc = -1;
+
+	/**
+	 * Wraps the containers of a day.
+	 *
+	 * @param day        day of the index
+	 * @param rows       number of rows
+	 * @param offsets    offset of each container, and the end of the last one
+	 * @param containers the containers
+	 */
+	BitmapIndex(final int day, final int rows, final int offsets[], final ByteBuffer containers) {
+		this.day = day;
+		this.rows = rows;
+		this.offsets = offsets;
+		this.containers = containers;
+	}
+
+	/**
+	 * Gives the bucket of a usage value.
+	 *
+	 * @param usage usage value, 0 - 100
+	 * @return int the bucket
+	 */
+	static int bucket(final int usage) {
+		return usage / BUCKET_WIDTH;
+	}
+
+	/**
+	 * Gives the file of the index of a partition.
+	 *
+	 * @param day day of the partition
+	 * @return File the index file
+	 */
+	static File file(final int day) {
+		return new File(Catalog.partitionDir(day), FILE_NAME);
+	}
+
+	/**
+	 * ORs the bitmaps of an hour and bucket into the words of the rows.
+	 *
+	 * @param hour   hour of the day
+	 * @param bucket the bucket
+	 * @param words  the word of every row, bit m for minute m of the hour
+	 */
+	void or(final int hour, final int bucket, final long words[]) {
+		final int container = hour * BUCKETS + bucket;
+		final int from = offsets[container];
+		final int bytes = offsets[container + 1] - from;
+		if (bytes == rows * 8) {
+			final int count = Math.min(rows, words.length);
+			for (int row = 0; row < count; row++) {
+				words[row] |= containers.getLong(from + row * 8);
+			}
+			return;
+		}
+		for (int entry = from; entry < from + bytes; entry += ENTRY_BYTES) {
+			final int row = containers.getInt(entry);
+			if (row < words.length) {
+				words[row] |= containers.getLong(entry + 4);
+			}
+		}
+	}
+
+	/**
+	 * Builds the index of a day from its segments, reading the usage values of
+	 * all the rows of a minute at a time.
+	 *
+	 * @param day      day of the partition
+	 * @param segments the segment of every hour of the day, null for an hour in
+	 *                 which nothing was logged
+	 * @param rows     number of rows
+	 * @return BitmapIndex the index
+	 */
+	public static BitmapIndex build(final int day, final SegmentStore segments[], final int rows) {
+		final int offsets[] = new int[HOURS * BUCKETS + 1];
+		final ByteBuffer containers = ByteBuffer.allocateDirect(HOURS * BUCKETS * rows * 8);
+		final byte usages[] = new byte[rows];
+		final long words[][] = new long[BUCKETS][rows];
+		for (int hour = 0; hour < HOURS; hour++) {
+			for (long bucket[] : words) {
+				Arrays.fill(bucket, 0);
+			}
+			final SegmentStore segment = segments[hour];
+			for (int minute = 0; segment != null && minute < segment.minutes; minute++) {
+				final int count = segment.usages(minute, usages);
+				for (int row = 0; row < count; row++) {
+					final int usage = usages[row];
+					if (usage != SegmentStore.MISSING) {
+						words[bucket(usage)][row] |= 1L << minute;
+					}
+				}
+			}
+
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				final long bitmap[] = words[bucket];
+				int used = 0;
+				for (long word : bitmap) {
+					used += word != 0 ? 1 : 0;
+				}
+				if (used * ENTRY_BYTES < rows * 8) {
+					for (int row = 0; row < rows; row++) {
+						if (bitmap[row] != 0) {
+							containers.putInt(row).putLong(bitmap[row]);
+						}
+					}
+				} else {
+					for (long word : bitmap) {
+						containers.putLong(word);
+					}
+				}
+				offsets[hour * BUCKETS + bucket + 1] = containers.position();
+			}
+		}
+		return new BitmapIndex(day, rows, offsets, containers.flip());
+	}
+
+	/**
+	 * Writes the index to a temporary file which then replaces the given file,
+	 * so an index file which is read is never changed.
+	 *
+	 * @param file the index file
+	 * @return long checksum of the index file
+	 * @exception IOException
+	 */
+	long write(final File file) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + offsets.length * 4);
+		header.putInt(MAGIC).putInt(VERSION).putInt(day).putInt(rows);
+		for (int offset : offsets) {
+			header.putInt(offset);
+		}
+		header.flip();
+
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final CRC32 checksum = new CRC32();
+			final ByteBuffer body = containers.duplicate();
+			body.rewind();
+			for (ByteBuffer part : new ByteBuffer[] { header, body }) {
+				checksum.update(part.duplicate());
+				while (part.hasRemaining()) {
+					channel.write(part);
+				}
+			}
+			crc = checksum.getValue();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return crc;
+	}
+
+	/**
+	 * Reads an index from the given file. The containers are memory mapped read
+	 * only.
+	 *
+	 * @param file the index file
+	 * @param crc  expected checksum of the index file
+	 * @return BitmapIndex the index read from the file
+	 * @exception IOException if the file is not a valid index file or doesn't
+	 *                        have the checksum
+	 */
+	static BitmapIndex read(final File file, final long crc) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			final CRC32 actual = new CRC32();
+			actual.update(buf.duplicate());
+			if (actual.getValue() != crc) {
+				throw new IOException(file + " is not the bitmap index in the catalog");
+			}
+			final int offsets[] = new int[HOURS * BUCKETS + 1];
+			if (buf.remaining() < HEADER_BYTES + offsets.length * 4 || buf.getInt() != MAGIC
+					|| buf.getInt() != VERSION) {
+				throw new IOException(file + " is not a bitmap index file");
+			}
+			final int day = buf.getInt();
+			final int rows = buf.getInt();
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = buf.getInt();
+			}
+			if (buf.remaining() != offsets[offsets.length - 1]) {
+				throw new IOException(file + " is truncated");
+			}
+			final BitmapIndex index = new BitmapIndex(day, rows, offsets, buf.slice());
+			index.crc = crc;
+			return index;
+		}
+	}
+
+	/**
+	 * Gives the given version of the index of a day, reading it from its file if
+	 * it is not cached.
+	 *
+	 * @param day day of the partition
+	 * @param crc checksum of the index file
+	 * @return BitmapIndex the index
+	 * @exception IOException if the index file can't be read or isn't that
+	 *                        version of the index any more
+	 */
+	static synchronized BitmapIndex get(final int day, final long crc) throws IOException {
+		final long key = (long) day << 32 | (crc & 0xFFFFFFFFL);
+		BitmapIndex index = cache.get(key);
+		if (index == null) {
+			index = read(file(day), crc);
+			Metrics.bitmapLoaded(index.containers.capacity());
+			cache.put(key, index);
+			final Iterator<BitmapIndex> it = cache.values().iterator();
+			while (cache.size() > CACHED_INDEXES) {
+				it.next();
+				it.remove();
+			}
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,315 @@
+import java.nio.ByteBuffer;
+
+/**
+ * <h1>Compressed encoding of the usage values</h1> The time stamps and the
+ * servers of the samples are not stored at all: the minute of a sample is given
+ * by its position and the server by its row in the server dictionary (see
+ * {@link RowIndex}). The usage values are bit packed with a frame of
+ * reference, so a sample takes only as many bits as the spread of the values
+ * around it needs.
+ * <p>
+ * The samples of each row are cut into blocks of BLOCK_MINUTES minutes, which
+ * is an hour, so a row of a segment is a single block. Every block has a
+ * HEADER_BYTES header, laid out as [row][block] at the start of the encoded
+ * segment, which holds the sum, count, minimum and maximum of the logged
+ * samples of the block:
+ *
+ * <pre>
+ * char sum   (at most 60 * 100)
+ * byte count (at most 60)
+ * byte min
+ * byte max
+ * </pre>
+ *
+ * The headers are followed by the codes of every block, in the same order.
+ * The code of a sample is its usage value minus the minimum of the block, and
+ * the code max - min + 1 stands for a minute for which no log was recorded if
+ * the block has such minutes. The codes take ceil(log2(codes)) bits each, so
+ * the block of a server whose usage stays between 20 and 35 takes 4 bits per
+ * minute, and a block whose minutes all have the same value takes no bits at
+ * all. The width of the codes of a block is given by its header, so the size
+ * of every block is found from the headers when the segment is read (see
+ * {@link #offsets}) and is not stored.
+ * <p>
+ * An aggregate over a range of minutes only decodes the blocks at the edges of
+ * the range and takes the blocks in between from their headers, and a block
+ * without any logs is skipped without decoding it.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class BlockCodec {
+	// Number of minutes in a block
+	final static int BLOCK_MINUTES = 60;
+
+	// Size of the header of a block in bytes: sum (char), count, min and max
+	// (byte each)
+	final static int HEADER_BYTES = 5;
+
+	/**
+	 * Gives the number of blocks of a row.
+	 *
+	 * @param minutes number of minutes in the segment
+	 * @return int number of blocks per row
+	 */
+	public static int blocks(final int minutes) {
+		return (minutes + BLOCK_MINUTES - 1) / BLOCK_MINUTES;
+	}
+
+	/**
+	 * Gives the number of minutes of a block of a row.
+	 *
+	 * @param minutes number of minutes in the segment
+	 * @param block   block of the row
+	 * @return int number of minutes
+	 */
+	static int length(final int minutes, final int block) {
+		return Math.min(BLOCK_MINUTES, minutes - block * BLOCK_MINUTES);
+	}
+
+	/**
+	 * Gives the number of bits of the codes of a block.
+	 *
+	 * @param count  number of logged samples of the block
+	 * @param min    minimum of the logged samples
+	 * @param max    maximum of the logged samples
+	 * @param length number of minutes of the block
+	 * @return int number of bits per code, 0 if the block has no logs or all
+	 *         its minutes have the same usage value
+	 */
+	static int width(final int count, final int min, final int max, final int length) {
+		if (count == 0) {
+			return 0;
+		}
+		final int highest = max - min + (count < length ? 1 : 0);
+		return 32 - Integer.numberOfLeadingZeros(highest);
+	}
+
+	/**
+	 * Gives the offset of the codes of every block of an encoded segment, from
+	 * the headers of the blocks.
+	 *
+	 * @param data    the encoded segment
+	 * @param minutes number of minutes in the segment
+	 * @param rows    number of rows in the segment
+	 * @return int[] the offset of the codes of every block, laid out as
+	 *         [row][block], followed by the size of the encoded segment
+	 */
+	public static int[] offsets(final ByteBuffer data, final int minutes, final int rows) {
+		final int blocks = blocks(minutes);
+		final int offsets[] = new int[rows * blocks + 1];
+		int offset = rows * blocks * HEADER_BYTES;
+		for (int i = 0; i < rows * blocks; i++) {
+			offsets[i] = offset;
+			final int header = i * HEADER_BYTES;
+			final int length = length(minutes, i % blocks);
+			final int width = width(data.get(header + 2), data.get(header + 3), data.get(header + 4), length);
+			offset += (length * width + 7) / 8;
+		}
+		offsets[rows * blocks] = offset;
+		return offsets;
+	}
+
+	/**
+	 * Encodes the usage values of a segment into blocks.
+	 *
+	 * @param segment the segment, with its usage values in a [minute][row] matrix
+	 * @return ByteBuffer the headers and the codes of the blocks of all the rows
+	 */
+	public static ByteBuffer encode(final SegmentStore segment) {
+		final int blocks = blocks(segment.minutes);
+		final int count = segment.rows * blocks;
+
+		// the headers give the size of every block, so they are built first
+		final ByteBuffer headers = ByteBuffer.allocate(count * HEADER_BYTES);
+		for (int row = 0; row < segment.rows; row++) {
+			for (int block = 0; block < blocks; block++) {
+				int sum = 0;
+				int logged = 0;
+				int min = 0;
+				int max = 0;
+				for (int minute = block * BLOCK_MINUTES; minute < Math.min(segment.minutes,
+						(block + 1) * BLOCK_MINUTES); minute++) {
+					final int usage = segment.usage(minute, row);
+					if (usage != SegmentStore.MISSING) {
+						min = logged == 0 ? usage : Math.min(min, usage);
+						max = logged == 0 ? usage : Math.max(max, usage);
+						sum += usage;
+						logged++;
+					}
+				}
+				final int header = (row * blocks + block) * HEADER_BYTES;
+				headers.putChar(header, (char) sum).put(header + 2, (byte) logged).put(header + 3, (byte) min)
+						.put(header + 4, (byte) max);
+			}
+		}
+		final int offsets[] = offsets(headers, segment.minutes, segment.rows);
+
+		final ByteBuffer out = ByteBuffer.allocateDirect(offsets[count]);
+		out.put(0, headers, 0, headers.capacity());
+		for (int row = 0; row < segment.rows; row++) {
+			for (int block = 0; block < blocks; block++) {
+				final int i = row * blocks + block;
+				final int length = length(segment.minutes, block);
+				final int min = headers.get(i * HEADER_BYTES + 3);
+				final int width = width(headers.get(i * HEADER_BYTES + 2), min, headers.get(i * HEADER_BYTES + 4),
+						length);
+				if (width == 0) {
+					continue;
+				}
+				final int missing = headers.get(i * HEADER_BYTES + 4) - min + 1;
+				long bits = 0;
+				int pending = 0;
+				int pos = offsets[i];
+				for (int minute = block * BLOCK_MINUTES; minute < block * BLOCK_MINUTES + length; minute++) {
+					final int usage = segment.usage(minute, row);
+					bits |= (long) (usage == SegmentStore.MISSING ? missing : usage - min) << pending;
+					pending += width;
+					while (pending >= 8) {
+						out.put(pos++, (byte) bits);
+						bits >>>= 8;
+						pending -= 8;
+					}
+				}
+				if (pending > 0) {
+					out.put(pos, (byte) bits);
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Gives the usage value of a minute of a row.
+	 *
+	 * @param data    the encoded segment
+	 * @param offsets offset of the codes of every block (see {@link #offsets})
+	 * @param minutes number of minutes in the segment
+	 * @param row     row of the IP Address and CPU ID
+	 * @param minute  minute offset from the start of the segment
+	 * @return int cpu usage, or -1 if no log was recorded for that minute
+	 */
+	public static int usage(final ByteBuffer data, final int offsets[], final int minutes, final int row,
+			final int minute) {
+		final int block = minute / BLOCK_MINUTES;
+		final int i = row * blocks(minutes) + block;
+		return code(data, offsets[i], i * HEADER_BYTES, length(minutes, block), minute % BLOCK_MINUTES);
+	}
+
+	/**
+	 * Gives the usage value of the given minute of a block.
+	 *
+	 * @param data   the encoded segment
+	 * @param codes  offset of the codes of the block
+	 * @param header offset of the header of the block
+	 * @param length number of minutes of the block
+	 * @param i      minute offset from the start of the block
+	 * @return int cpu usage, or -1 if no log was recorded for that minute
+	 */
+	static int code(final ByteBuffer data, final int codes, final int header, final int length, final int i) {
+		final int count = data.get(header + 2);
+		final int min = data.get(header + 3);
+		final int max = data.get(header + 4);
+		final int width = width(count, min, max, length);
+		if (width == 0) {
+			return count == 0 ? SegmentStore.MISSING : min;
+		}
+		final int bit = i * width;
+		final int pos = codes + (bit >>> 3);
+		int bits = data.get(pos) & 0xFF;
+		if ((bit & 7) + width > 8) {
+			bits |= (data.get(pos + 1) & 0xFF) << 8;
+		}
+		final int code = (bits >>> (bit & 7)) & ((1 << width) - 1);
+		return code > max - min ? SegmentStore.MISSING : min + code;
+	}
+
+	/**
+	 * Decodes all the usage values of a block.
+	 *
+	 * @param data    the encoded segment
+	 * @param offsets offset of the codes of every block (see {@link #offsets})
+	 * @param minutes number of minutes in the segment
+	 * @param i       the block, counted over all the rows
+	 * @param out     receives the usage values of the minutes of the block, -1
+	 *                for the minutes for which no log was recorded
+	 * @return int number of logged usage values in the block
+	 */
+	public static int decode(final ByteBuffer data, final int offsets[], final int minutes, final int i,
+			final byte out[]) {
+		final int header = i * HEADER_BYTES;
+		final int length = length(minutes, i % blocks(minutes));
+		final int count = data.get(header + 2);
+		final int min = data.get(header + 3);
+		final int max = data.get(header + 4);
+		final int width = width(count, min, max, length);
+		if (width == 0) {
+			for (int minute = 0; minute < length; minute++) {
+				out[minute] = (byte) (count == 0 ? SegmentStore.MISSING : min);
+			}
+			return count;
+		}
+		final int mask = (1 << width) - 1;
+		long bits = 0;
+		int pending = 0;
+		int pos = offsets[i];
+		for (int minute = 0; minute < length; minute++) {
+			if (pending < width) {
+				bits |= (long) (data.get(pos++) & 0xFF) << pending;
+				pending += 8;
+			}
+			final int code = (int) bits & mask;
+			bits >>>= width;
+			pending -= width;
+			out[minute] = code > max - min ? SegmentStore.MISSING : (byte) (min + code);
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the usage values of the given row and range of minutes to the
+	 * aggregate. The blocks which are fully in the range are taken from their
+	 * headers and only the minutes of the blocks at the edges are decoded.
+	 *
+	 * @param data    the encoded segment
+	 * @param offsets offset of the codes of every block (see {@link #offsets})
+	 * @param minutes number of minutes in the segment
+	 * @param row     row of the IP Address and CPU ID
+	 * @param from    first minute of the range
+	 * @param to      minute after the last minute of the range
+	 * @param agg     the aggregate
+	 */
+	public static void aggregate(final ByteBuffer data, final int offsets[], final int minutes, final int row,
+			final int from, final int to, final RangeIndex.Aggregate agg) {
+		final int blocks = blocks(minutes);
+		for (int block = from / BLOCK_MINUTES; block * BLOCK_MINUTES < to; block++) {
+			final int i = row * blocks + block;
+			final int header = i * HEADER_BYTES;
+			final int count = data.get(header + 2);
+			if (count == 0) {
+				continue;
+			}
+
+			final int first = block * BLOCK_MINUTES;
+			final int length = length(minutes, block);
+			if (from <= first && first + length <= to) {
+				agg.sum += data.getChar(header);
+				agg.count += count;
+				agg.min = Math.min(agg.min, data.get(header + 3));
+				agg.max = Math.max(agg.max, data.get(header + 4));
+				continue;
+			}
+			for (int minute = Math.max(from, first); minute < Math.min(to, first + length); minute++) {
+				final int usage = code(data, offsets[i], header, length, minute - first);
+				if (usage != SegmentStore.MISSING) {
+					agg.sum += usage;
+					agg.count++;
+					agg.min = Math.min(agg.min, usage);
+					agg.max = Math.max(agg.max, usage);
+				}
+			}
+		}
+	}
+
+}
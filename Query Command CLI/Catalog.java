@@ -0,0 +1,559 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>Catalog of the segment store</h1> The store is partitioned by time: every
+ * UTC day is a partition directory in the store directory, named YYYY-MM-DD,
+ * which holds a segment file for every hour of the day in which logs were
+ * recorded, named HH.seg, the rollups of the day (see {@link Rollup}), the
+ * bitmap index of its usage values (see {@link BitmapIndex}) and a partition
+ * catalog with the size and checksum of these files.
+ * <p>
+ * The store catalog is written in the store directory once the log file is
+ * ingested. It records the fingerprint of the log file, the time of the first
+ * and last log, the days of the partitions and the server dictionary, that is
+ * the IP Address and CPU ID of every row and the time of its first and last
+ * log. When the program is started again on
+ * an unchanged log file, the store is opened from the store catalog and the log
+ * file is not ingested again. A partition catalog is only read when a command
+ * touches its day, so opening the store and running a command take the same
+ * time however many days the store holds.
+ * <p>
+ * The fingerprint covers the bytes of the log file which are in the store. If
+ * logs were only appended to the log file since, the store is opened as well
+ * and only the appended bytes are ingested (see {@link LogFollower}), which
+ * then writes the catalogs of the changed partitions and the store catalog
+ * again.
+ * <p>
+ * The checksum of a segment is checked when the segment is loaded into the
+ * segment cache.
+ * <p>
+ * The catalog is changed by the ingest only. A partition is never changed once
+ * it is in the catalog: a segment which is written again gives a new partition
+ * which replaces the old one, so the partitions can be shared with the
+ * {@link StoreSnapshot}s read by the commands.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class Catalog {
+	// Name of the store catalog file
+	final static String CATALOG_FILE_NAME = "store.catalog";
+
+	// Name of the catalog file of a partition
+	final static String PARTITION_CATALOG_FILE_NAME = "partition.catalog";
+
+	// Version of the catalog format
+	final static int VERSION = 8;
+
+	// Number of bytes at the start and at the end of the log file that are part
+	// of its fingerprint
+	final static int FINGERPRINT_BYTES = 1 << 16;
+
+	// Number of segments in a partition of one day
+	final static int SEGMENTS_PER_PARTITION = 24 * 60 / QueryCommand.MINUTES_PER_FILE;
+
+	// Index of the checksum of the first rollup tier in the checksums of a
+	// partition, which are followed by the checksums of the other tiers
+	final static int ROLLUPS = SEGMENTS_PER_PARTITION;
+
+	// Index of the checksum of the bitmap index in the checksums of a partition
+	final static int BITMAPS = ROLLUPS + Rollup.TIER_MINUTES.length;
+
+	// Number of checksums of a partition
+	final static int CHECKSUMS = BITMAPS + 1;
+
+	/**
+	 * A partition of the store: the checksums of the segments, rollups and bitmap
+	 * index of one day. The checksums are read from the partition catalog the first time they
+	 * are needed and are not changed afterwards.
+	 */
+	static class Partition {
+		// Day of the partition, counted from 1970-01-01
+		final int day;
+
+		// Checksum of each segment, of each rollup tier and of the bitmap index, or
+		// -1 if it was not written; null until the partition catalog is read
+		private long crcs[];
+
+		// Set when a segment changed since the partition catalog was written
+		boolean changed = false;
+
+		/**
+		 * Creates a partition.
+		 *
+		 * @param day  day of the partition
+		 * @param crcs checksum of each segment, rollup tier and bitmap index, or
+		 *             null to read them from the partition catalog when they are
+		 *             needed
+		 */
+		Partition(final int day, final long crcs[]) {
+			this.day = day;
+			this.crcs = crcs;
+		}
+
+		/**
+		 * Gives the checksum of each segment, of each rollup tier and of the bitmap
+		 * index, reading the partition catalog the first time.
+		 *
+		 * @return long[] the checksums, -1 for a file which was not written
+		 */
+		synchronized long[] crcs() {
+			if (crcs == null) {
+				crcs = read(day);
+			}
+			return crcs;
+		}
+	}
+
+	// Directory of the store
+	static File storeDir = new File("store");
+
+	// Partitions of the store by day
+	static final TreeMap<Integer, Partition> partitions = new TreeMap<>();
+
+	// Number of bytes of the log file which are in the store
+	static long sourceBytes = 0;
+
+	// Unix time of the first log in the store
+	static long firstTime = Long.MAX_VALUE;
+
+	// Unix time of the last log in the store
+	static long lastTime = Long.MIN_VALUE;
+
+	/**
+	 * Gives the fingerprint of the first bytes of the log file: their number and
+	 * the checksum of the first and last of them.
+	 *
+	 * @param logFile the log file
+	 * @param bytes   number of bytes
+	 * @return string the fingerprint
+	 * @exception IOException
+	 */
+	static String fingerprint(final File logFile, final long bytes) throws IOException {
+		final CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer buf = ByteBuffer.allocate(FINGERPRINT_BYTES);
+			buf.limit((int) Math.min(FINGERPRINT_BYTES, bytes));
+			channel.read(buf, 0);
+			buf.flip();
+			crc.update(buf);
+			buf.clear().limit((int) Math.min(FINGERPRINT_BYTES, bytes));
+			channel.read(buf, Math.max(0, bytes - FINGERPRINT_BYTES));
+			buf.flip();
+			crc.update(buf);
+			return bytes + ":" + Long.toHexString(crc.getValue());
+		}
+	}
+
+	/**
+	 * Gives the directory of the partition of the given day.
+	 *
+	 * @param day day of the partition, counted from 1970-01-01
+	 * @return File the partition directory
+	 */
+	static File partitionDir(final int day) {
+		return new File(storeDir, QueryParser.formatDay(day));
+	}
+
+	/**
+	 * Gives the file of the given segment.
+	 *
+	 * @param segment the segment (see {@link QueryCommand#getSegment})
+	 * @return File the segment file
+	 */
+	public static File segmentFile(final int segment) {
+		final int hour = Math.floorMod(segment, SEGMENTS_PER_PARTITION);
+		return new File(partitionDir(Math.floorDiv(segment, SEGMENTS_PER_PARTITION)),
+				(hour < 10 ? "0" : "") + hour + ".seg");
+	}
+
+	/**
+	 * Empties the store before the log file is ingested again: the segment files
+	 * and partition catalogs are deleted and the partitions are forgotten. Only
+	 * the files written by the store are deleted.
+	 */
+	public static synchronized void clear() {
+		final File dirs[] = storeDir.listFiles();
+		if (dirs != null) {
+			for (File dir : dirs) {
+				final File files[] = dir.listFiles();
+				if (files == null || QueryParser.parseTime(dir.getName() + "T00:00Z") == Long.MIN_VALUE) {
+					continue;
+				}
+				for (File file : files) {
+					if (file.getName().endsWith(".seg") || file.getName().endsWith(Rollup.FILE_SUFFIX)
+							|| file.getName().startsWith(BitmapIndex.FILE_NAME)
+							|| file.getName().startsWith(PARTITION_CATALOG_FILE_NAME)) {
+						file.delete();
+					}
+				}
+				dir.delete();
+			}
+		}
+		partitions.clear();
+		sourceBytes = 0;
+		firstTime = Long.MAX_VALUE;
+		lastTime = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Extends the time range of the store to the given log.
+	 *
+	 * @param time unix time of the log
+	 */
+	public static synchronized void extend(final long time) {
+		firstTime = Math.min(firstTime, time);
+		lastTime = Math.max(lastTime, time);
+	}
+
+	/**
+	 * Checks if the store holds no logs.
+	 *
+	 * @return boolean true if the store is empty
+	 */
+	public static synchronized boolean isEmpty() {
+		return firstTime > lastTime;
+	}
+
+	/**
+	 * Reads the checksums of the segments, rollups and bitmap index of a
+	 * partition from its catalog. A file which doesn't have the size recorded in
+	 * the catalog is left out.
+	 *
+	 * @param day day of the partition
+	 * @return long[] the checksum of each segment, of each rollup tier and of the
+	 *         bitmap index, -1 for a file which was not written
+	 */
+	static long[] read(final int day) {
+		final long crcs[] = new long[CHECKSUMS];
+		Arrays.fill(crcs, -1);
+		final File catalogFile = new File(partitionDir(day), PARTITION_CATALOG_FILE_NAME);
+		try (InputStream in = new FileInputStream(catalogFile)) {
+			final Properties props = new Properties();
+			props.load(in);
+			for (int i = 0; i < SEGMENTS_PER_PARTITION; i++) {
+				final String crc = props.getProperty("segment." + i + ".crc");
+				if (crc != null && segmentFile(day * SEGMENTS_PER_PARTITION + i).length() == Long
+						.parseLong(props.getProperty("segment." + i + ".bytes"))) {
+					crcs[i] = Long.parseLong(crc, 16);
+				}
+			}
+			for (int tier = 0; tier < Rollup.TIER_NAMES.length; tier++) {
+				final String crc = props.getProperty("rollup." + Rollup.TIER_NAMES[tier] + ".crc");
+				if (crc != null && Rollup.file(day, tier).length() == Long
+						.parseLong(props.getProperty("rollup." + Rollup.TIER_NAMES[tier] + ".bytes"))) {
+					crcs[ROLLUPS + tier] = Long.parseLong(crc, 16);
+				}
+			}
+			final String crc = props.getProperty("bitmap.crc");
+			if (crc != null && BitmapIndex.file(day).length() == Long.parseLong(props.getProperty("bitmap.bytes"))) {
+				crcs[BITMAPS] = Long.parseLong(crc, 16);
+			}
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Catalog " + catalogFile + " can't be read, the partition is left out: " + e);
+		}
+		return crcs;
+	}
+
+	/**
+	 * Gives the checksum of the given segment.
+	 *
+	 * @param segment the segment
+	 * @return long the checksum, or -1 if the segment was not written
+	 */
+	public static synchronized long crc(final int segment) {
+		return crc(partitions, segment);
+	}
+
+	/**
+	 * Gives the checksum of the given segment in the given partitions.
+	 *
+	 * @param partitions the partitions by day
+	 * @param segment    the segment
+	 * @return long the checksum, or -1 if the segment was not written
+	 */
+	static long crc(final NavigableMap<Integer, Partition> partitions, final int segment) {
+		final Partition partition = partitions.get(Math.floorDiv(segment, SEGMENTS_PER_PARTITION));
+		return partition == null ? -1 : partition.crcs()[Math.floorMod(segment, SEGMENTS_PER_PARTITION)];
+	}
+
+	/**
+	 * Records the checksum of a written segment, adding its partition to the store
+	 * if needed. The partition is replaced by a copy with the new checksum, which
+	 * has no rollups and no bitmap index until they are built again by rollUp.
+	 *
+	 * @param segment the segment
+	 * @param crc     checksum of the segment file
+	 */
+	public static synchronized void setCrc(final int segment, final long crc) {
+		final int day = Math.floorDiv(segment, SEGMENTS_PER_PARTITION);
+		final Partition partition = partitions.get(day);
+		final long crcs[];
+		if (partition == null) {
+			crcs = new long[CHECKSUMS];
+			Arrays.fill(crcs, -1);
+		} else {
+			crcs = partition.crcs().clone();
+			Arrays.fill(crcs, ROLLUPS, crcs.length, -1);
+		}
+		crcs[Math.floorMod(segment, SEGMENTS_PER_PARTITION)] = crc;
+		final Partition changed = new Partition(day, crcs);
+		changed.changed = true;
+		partitions.put(day, changed);
+	}
+
+	/**
+	 * Builds the rollups and the bitmap index of the partitions whose segments
+	 * were written since they were built (see {@link Rollup#build} and
+	 * {@link BitmapIndex#build}), from the segment files of the partition. Each
+	 * partition is replaced by a copy with the checksums of its new files. A
+	 * partition whose catalog was not read since the store was opened has them
+	 * already.
+	 *
+	 * @return int number of partitions rolled up
+	 * @exception IOException
+	 */
+	public static synchronized int rollUp() throws IOException {
+		int built = 0;
+		for (Map.Entry<Integer, Partition> entry : partitions.entrySet()) {
+			final Partition partition = entry.getValue();
+			if (partition.crcs == null || (partition.crcs[ROLLUPS] >= 0 && partition.crcs[BITMAPS] >= 0)) {
+				continue;
+			}
+			final long crcs[] = partition.crcs.clone();
+			final SegmentStore segments[] = new SegmentStore[SEGMENTS_PER_PARTITION];
+			for (int i = 0; i < SEGMENTS_PER_PARTITION; i++) {
+				if (crcs[i] >= 0) {
+					segments[i] = SegmentStore.read(segmentFile(partition.day * SEGMENTS_PER_PARTITION + i), crcs[i]);
+				}
+			}
+			final Rollup tiers[] = Rollup.build(partition.day, segments, QueryCommand.rowIndex.size);
+			for (int tier = 0; tier < tiers.length; tier++) {
+				crcs[ROLLUPS + tier] = tiers[tier].write(Rollup.file(partition.day, tier));
+			}
+			crcs[BITMAPS] = BitmapIndex.build(partition.day, segments, QueryCommand.rowIndex.size)
+					.write(BitmapIndex.file(partition.day));
+			final Partition rolled = new Partition(partition.day, crcs);
+			rolled.changed = true;
+			entry.setValue(rolled);
+			built++;
+		}
+		return built;
+	}
+
+	/**
+	 * Gives the first written segment at or after the given segment.
+	 *
+	 * @param segment the segment
+	 * @return int the first written segment, or Integer.MAX_VALUE if there is none
+	 */
+	public static synchronized int nextSegment(final int segment) {
+		return nextSegment(partitions, segment);
+	}
+
+	/**
+	 * Gives the first written segment at or after the given segment in the given
+	 * partitions. The days without logs are skipped without looking at them, and
+	 * the catalog of a partition is only read when the search reaches its day, so
+	 * a command only reads the partitions which overlap its time range.
+	 *
+	 * @param partitions the partitions by day
+	 * @param segment    the segment
+	 * @return int the first written segment, or Integer.MAX_VALUE if there is none
+	 */
+	static int nextSegment(final NavigableMap<Integer, Partition> partitions, final int segment) {
+		Integer day = partitions.ceilingKey(Math.floorDiv(segment, SEGMENTS_PER_PARTITION));
+		while (day != null) {
+			final long crcs[] = partitions.get(day).crcs();
+			final int first = day * SEGMENTS_PER_PARTITION;
+			for (int i = Math.max(0, segment - first); i < SEGMENTS_PER_PARTITION; i++) {
+				if (crcs[i] >= 0) {
+					return first + i;
+				}
+			}
+			day = partitions.higherKey(day);
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Writes a catalog to a temporary file first and then moves it in place, so a
+	 * partly written catalog is never read.
+	 *
+	 * @param props   the catalog
+	 * @param file    the catalog file
+	 * @param comment comment written at the top of the catalog
+	 * @exception IOException
+	 */
+	static void store(final Properties props, final File file, final String comment) throws IOException {
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			props.store(out, comment);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes the catalogs of the partitions which changed since they were last
+	 * written, and then the store catalog.
+	 *
+	 * @param logFile the ingested log file
+	 * @param bytes   number of bytes of the log file in the segments
+	 * @exception IOException
+	 */
+	public static synchronized void write(final File logFile, final long bytes) throws IOException {
+		final StringBuilder days = new StringBuilder(partitions.size() * 6);
+		for (Partition partition : partitions.values()) {
+			days.append(days.length() == 0 ? "" : ",").append(partition.day);
+			if (!partition.changed) {
+				continue;
+			}
+
+			final Properties props = new Properties();
+			props.setProperty("day", QueryParser.formatDay(partition.day));
+			final long crcs[] = partition.crcs();
+			for (int i = 0; i < SEGMENTS_PER_PARTITION; i++) {
+				if (crcs[i] < 0) {
+					continue;
+				}
+				final int segment = partition.day * SEGMENTS_PER_PARTITION + i;
+				props.setProperty("segment." + i + ".start", Long.toString(QueryCommand.segmentStart(segment)));
+				props.setProperty("segment." + i + ".bytes", Long.toString(segmentFile(segment).length()));
+				props.setProperty("segment." + i + ".crc", Long.toHexString(crcs[i]));
+			}
+			for (int tier = 0; tier < Rollup.TIER_NAMES.length; tier++) {
+				if (crcs[ROLLUPS + tier] >= 0) {
+					props.setProperty("rollup." + Rollup.TIER_NAMES[tier] + ".bytes",
+							Long.toString(Rollup.file(partition.day, tier).length()));
+					props.setProperty("rollup." + Rollup.TIER_NAMES[tier] + ".crc",
+							Long.toHexString(crcs[ROLLUPS + tier]));
+				}
+			}
+			if (crcs[BITMAPS] >= 0) {
+				props.setProperty("bitmap.bytes", Long.toString(BitmapIndex.file(partition.day).length()));
+				props.setProperty("bitmap.crc", Long.toHexString(crcs[BITMAPS]));
+			}
+			store(props, new File(partitionDir(partition.day), PARTITION_CATALOG_FILE_NAME),
+					"Partition catalog of " + QueryParser.formatDay(partition.day));
+			partition.changed = false;
+		}
+
+		final Properties props = new Properties();
+		props.setProperty("version", Integer.toString(VERSION));
+		props.setProperty("source.path", logFile.getAbsolutePath());
+		props.setProperty("source.fingerprint", fingerprint(logFile, bytes));
+		props.setProperty("source.modified", Long.toString(logFile.lastModified()));
+		props.setProperty("minutes.per.segment", Integer.toString(QueryCommand.MINUTES_PER_FILE));
+		props.setProperty("first", Long.toString(firstTime));
+		props.setProperty("last", Long.toString(lastTime));
+		props.setProperty("partitions", days.toString());
+
+		final RowIndex rowIndex = QueryCommand.rowIndex;
+		final StringBuilder rows = new StringBuilder(rowIndex.size * 40);
+		for (int row = 0; row < rowIndex.size; row++) {
+			final long key = rowIndex.keys[row];
+			rows.append(row == 0 ? "" : ",").append(QueryCommand.ipToString((int) (key >>> 1))).append('/')
+					.append(key & 1).append('/').append(rowIndex.firstTimes[row]).append('/')
+					.append(rowIndex.lastTimes[row]);
+		}
+		props.setProperty("rows", rows.toString());
+
+		storeDir.mkdirs();
+		store(props, new File(storeDir, CATALOG_FILE_NAME), "Segment store catalog of " + logFile.getName());
+		sourceBytes = bytes;
+	}
+
+	/**
+	 * Opens the store from the store catalog if the catalog was written for the
+	 * given log file and the log file hasn't changed since, other than by
+	 * appending logs. The rows are loaded into QueryCommand; the partition
+	 * catalogs are read when a command needs them.
+	 *
+	 * @param logFile the log file
+	 * @return boolean true if the store was opened, false if the log file has to
+	 *         be ingested
+	 */
+	public static synchronized boolean load(final File logFile) {
+		final File catalogFile = new File(storeDir, CATALOG_FILE_NAME);
+		if (!catalogFile.exists()) {
+			return false;
+		}
+
+		try {
+			final Properties props = new Properties();
+			try (InputStream in = new FileInputStream(catalogFile)) {
+				props.load(in);
+			}
+			if (!Integer.toString(VERSION).equals(props.getProperty("version"))
+					|| !logFile.getAbsolutePath().equals(props.getProperty("source.path")) || !Integer
+							.toString(QueryCommand.MINUTES_PER_FILE).equals(props.getProperty("minutes.per.segment"))) {
+				return false;
+			}
+
+			// The log file must start with the bytes in the store. If it has the same
+			// size, it must not have been modified since either.
+			final String fingerprint = props.getProperty("source.fingerprint");
+			final long bytes = Long.parseLong(fingerprint.substring(0, fingerprint.indexOf(':')));
+			if (logFile.length() < bytes || !fingerprint(logFile, bytes).equals(fingerprint)
+					|| (logFile.length() == bytes
+							&& logFile.lastModified() != Long.parseLong(props.getProperty("source.modified")))) {
+				return false;
+			}
+
+			final String rows = props.getProperty("rows", "");
+			final RowIndex loadedRows = new RowIndex(QueryCommand.ROWS);
+			if (!rows.isEmpty()) {
+				for (String row : rows.split(",")) {
+					// IP Address/CPU ID/first log/last log
+					final String fields[] = row.split("/");
+					final long ip = QueryCommand.packIp(fields[0]);
+					if (ip < 0 || fields.length != 4) {
+						return false;
+					}
+					final int added = loadedRows.add(RowIndex.key((int) ip, Integer.parseInt(fields[1])));
+					loadedRows.seen(added, Long.parseLong(fields[2]));
+					loadedRows.seen(added, Long.parseLong(fields[3]));
+				}
+			}
+
+			final TreeMap<Integer, Partition> loadedPartitions = new TreeMap<>();
+			final String days = props.getProperty("partitions", "");
+			if (!days.isEmpty()) {
+				for (String day : days.split(",")) {
+					final Partition partition = new Partition(Integer.parseInt(day), null);
+					loadedPartitions.put(partition.day, partition);
+				}
+			}
+
+			partitions.clear();
+			partitions.putAll(loadedPartitions);
+			firstTime = Long.parseLong(props.getProperty("first"));
+			lastTime = Long.parseLong(props.getProperty("last"));
+			sourceBytes = bytes;
+			QueryCommand.rowIndex = loadedRows;
+			return true;
+
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Catalog " + catalogFile + " can't be read, the log file is ingested again: " + e);
+			return false;
+		}
+	}
+
+}
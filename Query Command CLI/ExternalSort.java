@@ -0,0 +1,358 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * <h1>External merge sort of the parsed logs</h1> Sorts the logs of a log file
+ * in any order, such as logs merged from many collectors, by time, IP Address
+ * and CPU ID within a memory budget, so the {@link SegmentWriter} receives them
+ * in time order and fills one segment after the other however large the log
+ * file is. The logs are kept as two longs each, the time and the IP Address,
+ * CPU ID and usage value packed, until the budget is used. They are then
+ * sorted into a run which is spilled to a file in the store, and the next run
+ * is started. Once the log file is parsed, the runs are merged with a heap of
+ * their next logs and handed to the sink; if the logs fit in a single run,
+ * nothing is spilled and the run is handed to the sink from memory.
+ * <p>
+ * The runs are sorted with a stable merge sort and the logs with the same
+ * time, IP Address and CPU ID are merged in the order of their runs, so such
+ * logs reach the sink in the order of the log file, as without the sort.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class ExternalSort implements LogParser.Sink {
+	// Number of bytes held per log while a run is filled and sorted: the two
+	// longs of the log and of its copy in the sort
+	final static int LOG_BYTES = 4 * 8;
+
+	// Number of bytes of a log in a run file
+	final static int RUN_LOG_BYTES = 2 * 8;
+
+	// Smallest buffer used to write or read a run file
+	final static int MIN_BUFFER_BYTES = 64 << 10;
+
+	// Number of logs below which a part of a run is sorted by insertion
+	final static int INSERTION_SORT_LOGS = 32;
+
+	// Name of the directory in the store which holds the run files
+	final static String SPILL_DIR = "sort";
+
+	/**
+	 * A spilled run being merged.
+	 */
+	static class Run {
+		// Number of the run, in the order of the log file
+		final int number;
+
+		// The run file
+		final FileChannel channel;
+
+		// Logs of the run read from the file and not merged yet
+		final ByteBuffer buf;
+
+		// The next log of the run
+		long time;
+		long key;
+
+		Run(final int number, final FileChannel channel, final int bufferBytes) {
+			this.number = number;
+			this.channel = channel;
+			this.buf = ByteBuffer.allocateDirect(bufferBytes);
+			buf.limit(0);
+		}
+
+		/**
+		 * Reads the next log of the run.
+		 *
+		 * @return boolean false if the run has no more logs
+		 * @exception IOException
+		 */
+		boolean next() throws IOException {
+			if (buf.remaining() < RUN_LOG_BYTES) {
+				buf.compact();
+				while (buf.position() < RUN_LOG_BYTES && channel.read(buf) > 0) {
+					// a run file is read until a whole log is in the buffer
+				}
+				buf.flip();
+				if (buf.remaining() < RUN_LOG_BYTES) {
+					return false;
+				}
+			}
+			time = buf.getLong();
+			key = buf.getLong();
+			return true;
+		}
+	}
+
+	// Maximum number of logs in a run
+	final int runLogs;
+
+	// Directory to which the runs are spilled
+	final File spillDir;
+
+	// Logs of the run being filled: the time, and the IP Address, CPU ID and
+	// usage value packed (see key)
+	long times[] = new long[1024];
+	long keys[] = new long[1024];
+	int size = 0;
+
+	// Files of the spilled runs, in the order of the log file
+	final ArrayList<File> runs = new ArrayList<>();
+
+	// Number of logs sorted
+	long logs = 0;
+
+	// Number of bytes written to the run files
+	long bytesSpilled = 0;
+
+	// Time spent sorting and spilling the runs, and merging them, in nanoseconds
+	long sortNanos = 0;
+	long mergeNanos = 0;
+
+	/**
+	 * Creates a sort with the given memory budget.
+	 *
+	 * @param budget   maximum number of bytes held by the logs of a run
+	 * @param spillDir directory to which the runs are spilled
+	 */
+	public ExternalSort(final long budget, final File spillDir) {
+		this.runLogs = (int) Math.max(INSERTION_SORT_LOGS, Math.min(budget / LOG_BYTES, Integer.MAX_VALUE - 8));
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * Packs the IP Address, CPU ID and usage value of a log. The keys are sorted
+	 * by IP Address and CPU ID as unsigned numbers, without the usage value.
+	 *
+	 * @param ip    IP Address packed as a 32 bit number
+	 * @param cpuId CPU ID
+	 * @param usage CPU usage
+	 * @return long the key
+	 */
+	static long key(final int ip, final int cpuId, final int usage) {
+		// CPU IDs and usage values which don't fit in a byte are invalid anyway.
+		return (ip & 0xFFFFFFFFL) << 32 | Math.min(cpuId, 0xFF) << 8 | Math.min(usage, 0xFF);
+	}
+
+	/**
+	 * Compares two logs by time, IP Address and CPU ID.
+	 *
+	 * @param time1 time of the first log
+	 * @param key1  key of the first log
+	 * @param time2 time of the second log
+	 * @param key2  key of the second log
+	 * @return int less than 0, 0 or more than 0 if the first log is before, with
+	 *         or after the second one
+	 */
+	static int compare(final long time1, final long key1, final long time2, final long key2) {
+		final int c = Long.compare(time1, time2);
+		return c != 0 ? c : Long.compare(key1 >>> 8, key2 >>> 8);
+	}
+
+	@Override
+	public void accept(final long time, final int ip, final int cpuId, final int usage) throws IOException {
+		if (size == runLogs) {
+			spill();
+		}
+		if (size == times.length) {
+			final int grown = (int) Math.min((long) size * 2, runLogs);
+			times = Arrays.copyOf(times, grown);
+			keys = Arrays.copyOf(keys, grown);
+		}
+		times[size] = time;
+		keys[size] = key(ip, cpuId, usage);
+		size++;
+		logs++;
+	}
+
+	/**
+	 * Sorts the logs of the run being filled.
+	 */
+	void sortRun() {
+		final long begin = System.nanoTime();
+		final long scratchTimes[] = Arrays.copyOf(times, size);
+		final long scratchKeys[] = Arrays.copyOf(keys, size);
+		sort(scratchTimes, scratchKeys, times, keys, 0, size);
+		sortNanos += System.nanoTime() - begin;
+	}
+
+	/**
+	 * Sorts a part of the logs, which are the same in the source and destination
+	 * arrays, into the destination arrays, using the source arrays as scratch
+	 * space. Halves which are already in order are copied without merging, so
+	 * the runs of a log file in time order are sorted in linear time.
+	 *
+	 * @param srcTimes source times
+	 * @param srcKeys  source keys
+	 * @param dstTimes destination times
+	 * @param dstKeys  destination keys
+	 * @param from     first log of the part
+	 * @param to       log just after the last one of the part
+	 */
+	static void sort(final long srcTimes[], final long srcKeys[], final long dstTimes[], final long dstKeys[],
+			final int from, final int to) {
+		if (to - from < INSERTION_SORT_LOGS) {
+			for (int i = from + 1; i < to; i++) {
+				final long time = dstTimes[i];
+				final long key = dstKeys[i];
+				int j = i;
+				for (; j > from && compare(dstTimes[j - 1], dstKeys[j - 1], time, key) > 0; j--) {
+					dstTimes[j] = dstTimes[j - 1];
+					dstKeys[j] = dstKeys[j - 1];
+				}
+				dstTimes[j] = time;
+				dstKeys[j] = key;
+			}
+			return;
+		}
+
+		final int mid = (from + to) >>> 1;
+		sort(dstTimes, dstKeys, srcTimes, srcKeys, from, mid);
+		sort(dstTimes, dstKeys, srcTimes, srcKeys, mid, to);
+		if (compare(srcTimes[mid - 1], srcKeys[mid - 1], srcTimes[mid], srcKeys[mid]) <= 0) {
+			System.arraycopy(srcTimes, from, dstTimes, from, to - from);
+			System.arraycopy(srcKeys, from, dstKeys, from, to - from);
+			return;
+		}
+		// a log of the first half goes first if it is not after the other one
+		for (int i = from, p = from, q = mid; i < to; i++) {
+			if (q >= to || p < mid && compare(srcTimes[p], srcKeys[p], srcTimes[q], srcKeys[q]) <= 0) {
+				dstTimes[i] = srcTimes[p];
+				dstKeys[i] = srcKeys[p++];
+			} else {
+				dstTimes[i] = srcTimes[q];
+				dstKeys[i] = srcKeys[q++];
+			}
+		}
+	}
+
+	/**
+	 * Sorts the run being filled and writes it to a new run file.
+	 *
+	 * @exception IOException
+	 */
+	void spill() throws IOException {
+		sortRun();
+		final long begin = System.nanoTime();
+		spillDir.mkdirs();
+		final File file = new File(spillDir, "run-" + runs.size() + ".tmp");
+		runs.add(file);
+		final ByteBuffer buf = ByteBuffer.allocateDirect(MIN_BUFFER_BYTES * 16);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int i = 0; i < size; i++) {
+				if (buf.remaining() < RUN_LOG_BYTES) {
+					write(channel, buf);
+				}
+				buf.putLong(times[i]).putLong(keys[i]);
+			}
+			write(channel, buf);
+		}
+		bytesSpilled += (long) size * RUN_LOG_BYTES;
+		size = 0;
+		sortNanos += System.nanoTime() - begin;
+	}
+
+	/**
+	 * Writes the content of a buffer to a run file and clears the buffer.
+	 *
+	 * @param channel the run file
+	 * @param buf     the buffer
+	 * @exception IOException
+	 */
+	static void write(final FileChannel channel, final ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Hands all the logs to the given sink sorted by time, IP Address and CPU ID,
+	 * merging the spilled runs, and removes the run files.
+	 *
+	 * @param sink receives the sorted logs
+	 * @exception IOException
+	 */
+	public void merge(final LogParser.Sink sink) throws IOException {
+		if (runs.isEmpty()) {
+			sortRun();
+			final long begin = System.nanoTime();
+			for (int i = 0; i < size; i++) {
+				accept(sink, times[i], keys[i]);
+			}
+			mergeNanos = System.nanoTime() - begin;
+			return;
+		}
+		if (size > 0) {
+			spill();
+		}
+		// the memory of the run is given to the buffers of the run files
+		times = null;
+		keys = null;
+
+		final long begin = System.nanoTime();
+		final int bufferBytes = (int) Math.min(1 << 30,
+				Math.max(MIN_BUFFER_BYTES, (long) runLogs * LOG_BYTES / runs.size() / RUN_LOG_BYTES * RUN_LOG_BYTES));
+		final PriorityQueue<Run> heap = new PriorityQueue<>(runs.size(), (a, b) -> {
+			final int c = compare(a.time, a.key, b.time, b.key);
+			return c != 0 ? c : Integer.compare(a.number, b.number);
+		});
+		final ArrayList<Run> open = new ArrayList<>();
+		try {
+			for (int i = 0; i < runs.size(); i++) {
+				final Run run = new Run(i, FileChannel.open(runs.get(i).toPath(), StandardOpenOption.READ),
+						bufferBytes);
+				open.add(run);
+				if (run.next()) {
+					heap.add(run);
+				}
+			}
+			while (!heap.isEmpty()) {
+				final Run run = heap.poll();
+				accept(sink, run.time, run.key);
+				if (run.next()) {
+					heap.add(run);
+				}
+			}
+		} finally {
+			for (Run run : open) {
+				run.channel.close();
+			}
+			for (File file : runs) {
+				Files.deleteIfExists(file.toPath());
+			}
+			spillDir.delete();
+			mergeNanos = System.nanoTime() - begin;
+		}
+	}
+
+	/**
+	 * Hands a log to a sink.
+	 *
+	 * @param sink receives the log
+	 * @param time unix time stamp
+	 * @param key  IP Address, CPU ID and usage value packed
+	 * @exception IOException
+	 */
+	static void accept(final LogParser.Sink sink, final long time, final long key) throws IOException {
+		sink.accept(time, (int) (key >>> 32), (int) (key >>> 8) & 0xFF, (int) key & 0xFF);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"Sorted %,d logs in %d runs of up to %,d logs (%,d bytes spilled) in %.0f ms, merged in %.0f ms", logs,
+				Math.max(1, runs.size()), runLogs, bytesSpilled, sortNanos / 1e6, mergeNanos / 1e6);
+	}
+
+}
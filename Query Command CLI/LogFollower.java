@@ -0,0 +1,302 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Follows a growing log file</h1> Ingests the logs which are appended to
+ * the log file after the store was written. Only the bytes after the position
+ * recorded in the {@link Catalog} are parsed. Their usage values are stored in
+ * a copy of their segment, whose range aggregates are updated once it is
+ * complete (see {@link SegmentStore#update}); a segment which doesn't exist yet
+ * is started empty, in a new partition if it is the first of its day, the copy
+ * is grown when a server joins the fleet and the copy of a packed segment is
+ * unpacked. The copy is written to a temporary file which then replaces the
+ * segment file, so a segment which was read is never changed. After every
+ * batch of appended bytes the catalogs of the changed partitions and the store
+ * catalog are written again with the new position and checksums, and a new
+ * {@link StoreSnapshot} is published.
+ * <p>
+ * In follow mode the log file is checked for appended logs every POLL_MS
+ * milliseconds and whenever the WatchService reports a change in its directory,
+ * so new minutes can be queried well within a second. A last line which
+ * doesn't end with a new line yet is left for the next check. The rollups of
+ * the changed partitions are built again at most every ROLLUP_MS
+ * milliseconds; until then the commands read the segments of these days.
+ * <p>
+ * The commands read the snapshot which was current when they started, so a
+ * command never sees a half ingested batch and never waits for the ingest. A
+ * batch holds at most CHUNK_BYTES of the log file, so the snapshots keep up
+ * while a large backlog is ingested.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class LogFollower implements LogParser.Sink, Runnable {
+	// Longest time between two checks of the log file in milliseconds
+	final static long POLL_MS = 200;
+
+	// Shortest time between two rollups of the changed partitions in
+	// milliseconds
+	final static long ROLLUP_MS = 10_000;
+
+	// The log file
+	final File logFile;
+
+	// true to leave out a last line which doesn't end with a new line yet
+	final boolean completeLines;
+
+	// Cache of the segments, which gets the new versions of the segments
+	final SegmentCache cache;
+
+	// Copy of the segment which is currently being updated
+	SegmentStore segment = null;
+
+	// Version of the segment which is being replaced by the copy, or null if the
+	// segment is new
+	SegmentStore replaced = null;
+
+	// Number of the segment which is currently being updated
+	int segmentId = Integer.MIN_VALUE;
+
+	// Number of lines ingested since the store was opened
+	long lines = 0;
+
+	// Number of usage values stored since the store was opened
+	long samples = 0;
+
+	// Unix time of the first log ingested in the current batch
+	long firstTime = Long.MAX_VALUE;
+
+	// Unix time of the last log ingested in the current batch
+	long lastTime = Long.MIN_VALUE;
+
+	// Number of segments started because they were never written
+	int segmentsStarted = 0;
+
+	// Number of bytes of the versions of the segments written, and of the
+	// versions they replaced
+	long bytesWritten = 0;
+	long bytesReplaced = 0;
+
+	// Set once the log file was found shorter than the store
+	boolean shrunk = false;
+
+	// Time of the last rollup in nanoseconds
+	long rolledUp = System.nanoTime();
+
+	/**
+	 * Creates a follower of the given log file.
+	 *
+	 * @param logFile       the log file
+	 * @param completeLines true to leave out a last line which doesn't end with a
+	 *                      new line yet
+	 * @param cache         cache of the segments
+	 */
+	public LogFollower(final File logFile, final boolean completeLines, final SegmentCache cache) {
+		this.logFile = logFile;
+		this.completeLines = completeLines;
+		this.cache = cache;
+	}
+
+	/**
+	 * Ingests the logs which were appended to the log file since the store was
+	 * last written.
+	 *
+	 * @return long number of lines ingested
+	 * @exception IOException
+	 */
+	public long catchUp() throws IOException {
+		final long begin = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+			long from = Catalog.sourceBytes;
+			final long size = channel.size();
+			if (size < from) {
+				if (!shrunk) {
+					System.out.println("Log file " + logFile + " is shorter than the store, it is not followed.");
+					shrunk = true;
+				}
+				return 0;
+			}
+			final long end = completeLines ? ParallelIngest.lastLineEnd(channel, from, size) : size;
+			final long start = from;
+
+			long parsed = 0;
+			while (from < end) {
+				long to = end;
+				if (end - from > ParallelIngest.CHUNK_BYTES) {
+					to = ParallelIngest.lastLineEnd(channel, from, from + ParallelIngest.CHUNK_BYTES);
+					to = to > from ? to : end;
+				}
+
+				parsed += LogParser.parse(channel, from, to, this);
+				flush();
+				Catalog.write(logFile, to);
+				StoreSnapshot.publish();
+				from = to;
+			}
+			lines += parsed;
+			if (parsed > 0) {
+				Metrics.ingested(parsed, end - start, System.nanoTime() - begin);
+			}
+			return parsed;
+		}
+	}
+
+	/**
+	 * Builds the rollups of the partitions which changed since they were last
+	 * rolled up (see {@link Catalog#rollUp}) and, if there were any, writes the
+	 * catalogs again and publishes a new snapshot with the rollups.
+	 *
+	 * @return int number of partitions rolled up
+	 * @exception IOException
+	 */
+	public int rollUp() throws IOException {
+		rolledUp = System.nanoTime();
+		final int built = Catalog.rollUp();
+		if (built > 0) {
+			Catalog.write(logFile, Catalog.sourceBytes);
+			StoreSnapshot.publish();
+		}
+		return built;
+	}
+
+	@Override
+	public void accept(final long time, final int ip, final int cpuId, final int usage) throws IOException {
+		if (cpuId >= SegmentStore.CPUS || usage > 100) {
+			return;
+		}
+		final int row = QueryCommand.rowIndex.add(RowIndex.key(ip, cpuId));
+		final int id = QueryCommand.getSegment(time);
+		if (id != segmentId) {
+			open(id);
+		}
+		if (row >= segment.rows) {
+			segment = segment.grow(QueryCommand.rowIndex.segmentRows());
+			segment.buildIndex();
+		}
+		segment.update((int) (time - QueryCommand.segmentStart(id)) / 60, row, usage);
+		QueryCommand.rowIndex.seen(row, time);
+		firstTime = Math.min(firstTime, time);
+		lastTime = Math.max(lastTime, time);
+		samples++;
+	}
+
+	/**
+	 * Makes a copy of the given segment the one being updated, starting an empty
+	 * segment if it was never written.
+	 *
+	 * @param id number of the segment
+	 * @exception IOException
+	 */
+	void open(final int id) throws IOException {
+		flush();
+		final long crc = Catalog.crc(id);
+		if (crc < 0) {
+			replaced = null;
+			segmentsStarted++;
+			segment = new SegmentStore(QueryCommand.segmentStart(id), QueryCommand.MINUTES_PER_FILE,
+					QueryCommand.rowIndex.segmentRows());
+			segment.buildIndex();
+		} else {
+			replaced = cache.get(id, crc);
+			segment = replaced.copy();
+		}
+		segmentId = id;
+	}
+
+	/**
+	 * Updates the range aggregates of the segment being updated and writes it as
+	 * the new version of the segment: it is written to a temporary file which
+	 * then replaces the segment file, after the replaced version was retired for
+	 * the commands which still read it. Its new checksum is recorded, so that it
+	 * is verified when it is loaded again. The time range of the store is
+	 * extended to the ingested logs.
+	 *
+	 * @exception IOException
+	 */
+	void flush() throws IOException {
+		if (segment != null) {
+			segment.refreshIndex();
+			segment = segment.trim(QueryCommand.rowIndex.size);
+			final File file = Catalog.segmentFile(segmentId);
+			final File tmp = new File(file.getPath() + ".tmp");
+			file.getParentFile().mkdirs();
+			final long crc = segment.write(tmp, QueryCommand.rowIndex);
+			if (replaced != null) {
+				StoreSnapshot.retire(segmentId, replaced);
+				cache.remove(segmentId, replaced.crc);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			Catalog.setCrc(segmentId, crc);
+			cache.put(segmentId, crc, segment);
+			bytesWritten += segment.bytes();
+			if (replaced != null) {
+				bytesReplaced += replaced.bytes();
+			}
+			segment = null;
+			replaced = null;
+			segmentId = Integer.MIN_VALUE;
+		}
+		if (firstTime <= lastTime) {
+			Catalog.extend(firstTime);
+			Catalog.extend(lastTime);
+			firstTime = Long.MAX_VALUE;
+			lastTime = Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Follows the log file until the thread is interrupted.
+	 */
+	@Override
+	public void run() {
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			logFile.getAbsoluteFile().getParentFile().toPath().register(watcher,
+					StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			while (!Thread.currentThread().isInterrupted()) {
+				catchUp();
+				if (System.nanoTime() - rolledUp >= TimeUnit.MILLISECONDS.toNanos(ROLLUP_MS)) {
+					rollUp();
+				}
+				final WatchKey key = watcher.poll(POLL_MS, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					key.pollEvents();
+					key.reset();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Starts following the log file on a daemon thread.
+	 *
+	 * @return Thread the follower thread
+	 */
+	public Thread start() {
+		final Thread thread = new Thread(this, "log-follower");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Followed %s: %,d lines appended, %,d samples stored", logFile.getName(), lines,
+				samples);
+	}
+
+}
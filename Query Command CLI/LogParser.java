@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <h1>Byte level log parser</h1> Parses the log file directly from a memory
+ * mapped view of the file. The time stamp, the 4 octets of the IP Address, the
+ * CPU ID and the usage of every line are decoded from the bytes and handed to a
+ * {@link Sink} as primitives, so no String or other object is created per line.
+ * <p>
+ * A mapped buffer can hold at most 2 GB, so larger files are mapped as a
+ * sequence of windows. A line which is cut by the end of a window is parsed
+ * again from the start of the next window.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class LogParser {
+	// Size of each mapped window of the log file (1 GB)
+	final static long WINDOW_BYTES = 1L << 30;
+
+	/**
+	 * Receives the parsed logs.
+	 */
+	public interface Sink {
+		/**
+		 * Called for every log line in the order in which they are in the file.
+		 *
+		 * @param time  unix time stamp
+		 * @param ip    IP Address packed as a 32 bit number
+		 * @param cpuId CPU ID
+		 * @param usage CPU usage
+		 * @exception IOException
+		 */
+		void accept(long time, int ip, int cpuId, int usage) throws IOException;
+	}
+
+	/**
+	 * Parses the whole log file.
+	 *
+	 * @param file the log file
+	 * @param sink receives the parsed logs
+	 * @return long number of lines parsed
+	 * @exception IOException
+	 */
+	public static long parse(final File file, final Sink sink) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return parse(channel, 0, channel.size(), sink);
+		}
+	}
+
+	/**
+	 * Parses the lines in the given part of the log file. The part should start
+	 * at the beginning of a line and end just after a new line or at the end of
+	 * the file.
+	 *
+	 * @param channel the log file
+	 * @param from    position of the first byte to parse
+	 * @param to      position after the last byte to parse
+	 * @param sink    receives the parsed logs
+	 * @return long number of lines parsed
+	 * @exception IOException
+	 */
+	public static long parse(final FileChannel channel, long from, final long to, final Sink sink)
+			throws IOException {
+		long lines = 0;
+		while (from < to) {
+			final long size = Math.min(WINDOW_BYTES, to - from);
+			final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, size);
+			final int limit = (int) size;
+			final boolean last = from + size == to;
+
+			int pos = 0;
+			while (pos < limit) {
+				// find the end of the current line
+				int end = pos;
+				while (end < limit && buf.get(end) != '\n') {
+					end++;
+				}
+				if (end == limit && !last) {
+					// The line is cut by the end of the window, parse it in the next window.
+					if (pos == 0) {
+						throw new IOException("Log line at position " + from + " is longer than the window");
+					}
+					break;
+				}
+				if (parseLine(buf, pos, end, sink)) {
+					lines++;
+				}
+				pos = end + 1;
+			}
+			from += Math.min(pos, limit);
+		}
+		return lines;
+	}
+
+	/**
+	 * Parses a single line of the format "timestamp IP cpu_id usage". Lines which
+	 * are not in that format, like the header of the log file, are skipped.
+	 *
+	 * @param buf  buffer containing the line
+	 * @param pos  position of the first byte of the line
+	 * @param end  position of the new line at the end of the line
+	 * @param sink receives the parsed log
+	 * @return boolean true if the line was parsed, else false
+	 * @exception IOException
+	 */
+	static boolean parseLine(final MappedByteBuffer buf, int pos, int end, final Sink sink) throws IOException {
+		if (end > pos && buf.get(end - 1) == '\r') {
+			end--;
+		}
+
+		long time = 0;
+		int start = pos;
+		while (pos < end && isDigit(buf.get(pos))) {
+			time = time * 10 + (buf.get(pos++) - '0');
+		}
+		if (pos == start || pos - start > 18 || pos >= end || buf.get(pos++) != ' ') {
+			return false;
+		}
+
+		int ip = 0;
+		for (int octet = 0; octet < 4; octet++) {
+			int value = 0;
+			start = pos;
+			while (pos < end && isDigit(buf.get(pos))) {
+				value = value * 10 + (buf.get(pos++) - '0');
+			}
+			final byte sep = octet < 3 ? (byte) '.' : (byte) ' ';
+			if (pos == start || pos - start > 3 || value > 255 || pos >= end || buf.get(pos++) != sep) {
+				return false;
+			}
+			ip = (ip << 8) | value;
+		}
+
+		int cpuId = 0;
+		start = pos;
+		while (pos < end && isDigit(buf.get(pos))) {
+			cpuId = cpuId * 10 + (buf.get(pos++) - '0');
+		}
+		if (pos == start || pos - start > 9 || pos >= end || buf.get(pos++) != ' ') {
+			return false;
+		}
+
+		int usage = 0;
+		start = pos;
+		while (pos < end && isDigit(buf.get(pos))) {
+			usage = usage * 10 + (buf.get(pos++) - '0');
+		}
+		if (pos == start || pos != end || pos - start > 3) {
+			return false;
+		}
+
+		sink.accept(time, ip, cpuId, usage);
+		return true;
+	}
+
+	/**
+	 * Checks if the given byte is an ASCII digit.
+	 *
+	 * @param b the byte
+	 * @return boolean true if the byte is a digit, else false
+	 */
+	static boolean isDigit(final byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+}
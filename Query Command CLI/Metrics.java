@@ -0,0 +1,495 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * <h1>Metrics of the tool</h1> Counts where the time goes while the tool runs:
+ * the latency of every type of command, the loads of the segments into the
+ * segment cache, the hits of the QUERY result cache, the rollups and bitmap
+ * indexes read and the logs ingested.
+ * The counters are striped adders and the latencies are kept in histograms of
+ * atomic counters, so recording a metric costs a few nanoseconds and never
+ * takes a lock, whichever thread records it.
+ * <p>
+ * The metrics are shown by the STATS command and registered as JMX MBeans,
+ * logparser:type=Store for the store and logparser:type=Latency,name=NAME for
+ * each latency histogram, so they can be watched with jconsole or any JMX
+ * client while the tool is under load.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class Metrics {
+	// Domain of the JMX names of the MBeans
+	final static String JMX_DOMAIN = "logparser";
+
+	// Latency of each type of command, indexed by command (see QueryPlan)
+	static final Latency commands[] = new Latency[QueryPlan.NAMES.length];
+	static {
+		for (int i = 0; i < commands.length; i++) {
+			commands[i] = new Latency();
+		}
+	}
+
+	// Latency of loading a segment into the segment cache
+	static final Latency segmentLoads = new Latency();
+
+	// Number of bytes of the segments loaded into the segment cache
+	static final LongAdder segmentBytesLoaded = new LongAdder();
+
+	// Number of rollups read from their files
+	static final LongAdder rollupLoads = new LongAdder();
+
+	// Number of bytes of the rollups read from their files
+	static final LongAdder rollupBytesLoaded = new LongAdder();
+
+	// Number of bitmap indexes read from their files
+	static final LongAdder bitmapLoads = new LongAdder();
+
+	// Number of bytes of the bitmap indexes read from their files
+	static final LongAdder bitmapBytesLoaded = new LongAdder();
+
+	// Number of lines of logs ingested
+	static final LongAdder linesIngested = new LongAdder();
+
+	// Number of bytes of the log file read by the ingest
+	static final LongAdder logBytesRead = new LongAdder();
+
+	// Time spent ingesting logs in nanoseconds
+	static final LongAdder ingestNanos = new LongAdder();
+
+	// Time taken to open the store, ingesting the log file if needed, in
+	// nanoseconds
+	static volatile long storeOpenNanos = 0;
+
+	// Time at which the tool was started in nanoseconds
+	static final long started = System.nanoTime();
+
+	/**
+	 * Records the latency of a command.
+	 *
+	 * @param command the command (see QueryPlan)
+	 * @param nanos   the latency in nanoseconds
+	 */
+	public static void command(final int command, final long nanos) {
+		commands[command].record(nanos);
+	}
+
+	/**
+	 * Records the load of a segment into the segment cache.
+	 *
+	 * @param bytes size of the segment
+	 * @param nanos time taken to load it in nanoseconds
+	 */
+	public static void segmentLoaded(final long bytes, final long nanos) {
+		segmentBytesLoaded.add(bytes);
+		segmentLoads.record(nanos);
+	}
+
+	/**
+	 * Records a rollup read from its file.
+	 *
+	 * @param bytes size of the rollup
+	 */
+	public static void rollupLoaded(final long bytes) {
+		rollupLoads.increment();
+		rollupBytesLoaded.add(bytes);
+	}
+
+	/**
+	 * Records a bitmap index read from its file.
+	 *
+	 * @param bytes size of the index
+	 */
+	public static void bitmapLoaded(final long bytes) {
+		bitmapLoads.increment();
+		bitmapBytesLoaded.add(bytes);
+	}
+
+	/**
+	 * Records a part of the log file which was ingested.
+	 *
+	 * @param lines number of lines ingested
+	 * @param bytes number of bytes of the log file read
+	 * @param nanos time taken in nanoseconds
+	 */
+	public static void ingested(final long lines, final long bytes, final long nanos) {
+		linesIngested.add(lines);
+		logBytesRead.add(bytes);
+		ingestNanos.add(nanos);
+	}
+
+	/**
+	 * Gives all the metrics as they are shown by the STATS command.
+	 *
+	 * @return string the metrics, one group per line
+	 */
+	public static String report() {
+		final StringBuilder out = new StringBuilder(1024);
+		out.append(String.format("Up for %.1f s, store opened in %.1f ms, %s kernels",
+				(System.nanoTime() - started) / 1e9, storeOpenNanos / 1e6, UsageKernels.kernels.name()));
+		for (int i = 0; i < commands.length; i++) {
+			if (commands[i].count() > 0) {
+				out.append(String.format("\n%s: %,d commands, latency %s", QueryPlan.NAMES[i], commands[i].count(),
+						commands[i]));
+			}
+		}
+		final SegmentCache cache = QueryCommand.cache;
+		if (cache != null) {
+			out.append('\n').append(cache);
+		}
+		final ResultCache results = QueryCommand.results;
+		if (results != null) {
+			out.append('\n').append(results);
+		}
+		out.append(String.format("\nSegment loads: %,d loads, %,d bytes, latency %s", segmentLoads.count(),
+				segmentBytesLoaded.sum(), segmentLoads));
+		out.append(String.format("\nRollup loads: %,d loads, %,d bytes", rollupLoads.sum(), rollupBytesLoaded.sum()));
+		out.append(String.format("\nBitmap index loads: %,d loads, %,d bytes", bitmapLoads.sum(),
+				bitmapBytesLoaded.sum()));
+		final long nanos = ingestNanos.sum();
+		out.append(String.format("\nIngest: %,d lines, %,d bytes of logs in %.0f ms (%,.0f lines/s)",
+				linesIngested.sum(), logBytesRead.sum(), nanos / 1e6,
+				nanos > 0 ? linesIngested.sum() / (nanos / 1e9) : 0));
+		if (QueryCommand.server != null) {
+			out.append('\n').append(QueryCommand.server);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Registers the MBeans of the metrics with the platform MBean server. The
+	 * MBean server is started on a daemon thread, so it doesn't delay the start of
+	 * the tool.
+	 */
+	public static void register() {
+		final Thread thread = new Thread(() -> {
+			try {
+				final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(new StandardMBean(new Store(), StoreMBean.class),
+						new ObjectName(JMX_DOMAIN + ":type=Store"));
+				for (int i = 0; i < commands.length; i++) {
+					register(server, QueryPlan.NAMES[i], commands[i]);
+				}
+				register(server, "SegmentLoad", segmentLoads);
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+		}, "metrics-jmx");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Registers a latency histogram as an MBean.
+	 *
+	 * @param server  the MBean server
+	 * @param name    name of the histogram
+	 * @param latency the histogram
+	 * @exception JMException if the MBean can't be registered
+	 */
+	static void register(final MBeanServer server, final String name, final Latency latency) throws JMException {
+		server.registerMBean(new StandardMBean(latency, LatencyMBean.class),
+				new ObjectName(JMX_DOMAIN + ":type=Latency,name=" + name));
+	}
+
+	/**
+	 * Metrics of the store, as seen through JMX.
+	 */
+	public interface StoreMBean {
+		long getCacheHits();
+
+		long getCacheMisses();
+
+		long getCacheEvictions();
+
+		long getCacheBytes();
+
+		long getCacheSegments();
+
+		double getResultCacheHitRatio();
+
+		long getSegmentBytesLoaded();
+
+		long getRollupBytesLoaded();
+
+		long getLinesIngested();
+
+		long getLogBytesRead();
+
+		double getIngestLinesPerSecond();
+
+		double getStoreOpenMillis();
+
+		long getCommands();
+
+		String getStats();
+	}
+
+	/**
+	 * Reads the metrics of the store for JMX.
+	 */
+	static class Store implements StoreMBean {
+		@Override
+		public long getCacheHits() {
+			final SegmentCache cache = QueryCommand.cache;
+			if (cache == null) {
+				return 0;
+			}
+			synchronized (cache) {
+				return cache.hits;
+			}
+		}
+
+		@Override
+		public long getCacheMisses() {
+			final SegmentCache cache = QueryCommand.cache;
+			if (cache == null) {
+				return 0;
+			}
+			synchronized (cache) {
+				return cache.misses;
+			}
+		}
+
+		@Override
+		public long getCacheEvictions() {
+			final SegmentCache cache = QueryCommand.cache;
+			if (cache == null) {
+				return 0;
+			}
+			synchronized (cache) {
+				return cache.evictions;
+			}
+		}
+
+		@Override
+		public long getCacheBytes() {
+			final SegmentCache cache = QueryCommand.cache;
+			if (cache == null) {
+				return 0;
+			}
+			synchronized (cache) {
+				return cache.bytes;
+			}
+		}
+
+		@Override
+		public long getCacheSegments() {
+			final SegmentCache cache = QueryCommand.cache;
+			if (cache == null) {
+				return 0;
+			}
+			synchronized (cache) {
+				return cache.segments.size();
+			}
+		}
+
+		@Override
+		public double getResultCacheHitRatio() {
+			final ResultCache results = QueryCommand.results;
+			return results == null ? 0 : results.hitRatio();
+		}
+
+		@Override
+		public long getSegmentBytesLoaded() {
+			return segmentBytesLoaded.sum();
+		}
+
+		@Override
+		public long getRollupBytesLoaded() {
+			return rollupBytesLoaded.sum();
+		}
+
+		@Override
+		public long getLinesIngested() {
+			return linesIngested.sum();
+		}
+
+		@Override
+		public long getLogBytesRead() {
+			return logBytesRead.sum();
+		}
+
+		@Override
+		public double getIngestLinesPerSecond() {
+			final long nanos = ingestNanos.sum();
+			return nanos > 0 ? linesIngested.sum() / (nanos / 1e9) : 0;
+		}
+
+		@Override
+		public double getStoreOpenMillis() {
+			return storeOpenNanos / 1e6;
+		}
+
+		@Override
+		public long getCommands() {
+			long count = 0;
+			for (Latency latency : commands) {
+				count += latency.count();
+			}
+			return count;
+		}
+
+		@Override
+		public String getStats() {
+			return report();
+		}
+	}
+
+	/**
+	 * A latency histogram, as seen through JMX.
+	 */
+	public interface LatencyMBean {
+		long getCount();
+
+		long getP50Micros();
+
+		long getP90Micros();
+
+		long getP99Micros();
+
+		long getP999Micros();
+
+		long getMaxMicros();
+	}
+
+	/**
+	 * Histogram of latencies in microseconds. Latencies under 64 us have a bucket
+	 * each and every higher power of two is split into 32 buckets, so a
+	 * percentile is within about 3% of the latency it stands for. The buckets are
+	 * atomic counters, so the threads record their latencies without locking.
+	 */
+	static class Latency implements LatencyMBean {
+		// Number of buckets of each power of two
+		final static int SUB_BUCKETS = 32;
+
+		// Number of buckets: 64 exact ones and 32 for each power of two up to 2^40 us
+		final static int BUCKETS = 2 * SUB_BUCKETS + (40 - 6) * SUB_BUCKETS;
+
+		// Number of latencies in each bucket
+		final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+		// Highest latency recorded in microseconds
+		final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Records a latency.
+		 *
+		 * @param nanos the latency in nanoseconds
+		 */
+		void record(final long nanos) {
+			final long micros = Math.max(0, nanos / 1000);
+			counts.incrementAndGet(bucket(micros));
+			if (micros > max.get()) {
+				max.accumulateAndGet(micros, Math::max);
+			}
+		}
+
+		/**
+		 * Gives the bucket of a latency.
+		 *
+		 * @param micros the latency in microseconds
+		 * @return int index of the bucket
+		 */
+		static int bucket(final long micros) {
+			if (micros < 2 * SUB_BUCKETS) {
+				return (int) micros;
+			}
+			final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+			final int bucket = 2 * SUB_BUCKETS + (exponent - 6) * SUB_BUCKETS
+					+ (int) ((micros >>> (exponent - 5)) & (SUB_BUCKETS - 1));
+			return Math.min(bucket, BUCKETS - 1);
+		}
+
+		/**
+		 * Gives the lowest latency of a bucket.
+		 *
+		 * @param bucket index of the bucket
+		 * @return long the latency in microseconds
+		 */
+		static long lowest(final int bucket) {
+			if (bucket < 2 * SUB_BUCKETS) {
+				return bucket;
+			}
+			final int exponent = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 6;
+			return (long) (SUB_BUCKETS + (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS) << (exponent - 5);
+		}
+
+		/**
+		 * Gives the number of latencies recorded.
+		 *
+		 * @return long number of latencies
+		 */
+		long count() {
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				count += counts.get(i);
+			}
+			return count;
+		}
+
+		/**
+		 * Gives the latency under which the given fraction of the latencies are.
+		 *
+		 * @param fraction fraction of the latencies, between 0 and 1
+		 * @return long the highest latency of the bucket holding the percentile in
+		 *         microseconds, or 0 if no latency was recorded
+		 */
+		long percentile(final double fraction) {
+			final long rank = (long) Math.ceil(fraction * count());
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= rank && seen > 0) {
+					return Math.min(max.get(), i + 1 < BUCKETS ? lowest(i + 1) - 1 : Long.MAX_VALUE);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public long getCount() {
+			return count();
+		}
+
+		@Override
+		public long getP50Micros() {
+			return percentile(0.5);
+		}
+
+		@Override
+		public long getP90Micros() {
+			return percentile(0.9);
+		}
+
+		@Override
+		public long getP99Micros() {
+			return percentile(0.99);
+		}
+
+		@Override
+		public long getP999Micros() {
+			return percentile(0.999);
+		}
+
+		@Override
+		public long getMaxMicros() {
+			return max.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("p50 %,d us, p90 %,d us, p99 %,d us, p99.9 %,d us, max %,d us", percentile(0.5),
+					percentile(0.9), percentile(0.99), percentile(0.999), max.get());
+		}
+	}
+
+}
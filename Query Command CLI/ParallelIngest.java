@@ -0,0 +1,254 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>Parallel ingestion of the log file</h1> The log file is cut into chunks
+ * which start and end on a line boundary. The chunks are parsed by the
+ * {@link LogParser} on a fork-join pool, each into its own buffer of parsed
+ * logs. The buffers are then handed to the {@link LogParser.Sink} in the order
+ * of the chunks, so the sink receives exactly the same logs in the same order
+ * as it would from a single threaded parse and the result does not depend on
+ * the number of threads.
+ * <p>
+ * The chunks are parsed in waves of one chunk per thread, so the memory needed
+ * for the buffers does not grow with the size of the log file.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class ParallelIngest {
+	// Size of each chunk of the log file (32 MB)
+	final static long CHUNK_BYTES = 32L << 20;
+
+	// Number of bytes read at a time while looking for the end of a line
+	final static int ALIGN_BYTES = 4096;
+
+	// Number of lines ingested by the last call to ingest
+	static long linesIngested = 0;
+
+	// Time taken by the last call to ingest in nano seconds
+	static long ingestNanos = 0;
+
+	// Number of bytes of the log file parsed by the last call to ingest
+	static long bytesIngested = 0;
+
+	/**
+	 * Logs parsed from one chunk of the log file.
+	 */
+	static class Chunk implements LogParser.Sink {
+		// Position of the first byte of the chunk
+		final long from;
+
+		// Position after the last byte of the chunk
+		final long to;
+
+		// Parsed logs
+		long times[] = new long[1024];
+		int ips[] = new int[1024];
+		short cpuUsages[] = new short[1024];
+		int size = 0;
+
+		Chunk(final long from, final long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void accept(final long time, final int ip, final int cpuId, final int usage) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				ips = Arrays.copyOf(ips, size * 2);
+				cpuUsages = Arrays.copyOf(cpuUsages, size * 2);
+			}
+			times[size] = time;
+			ips[size] = ip;
+			// CPU IDs and usage values which don't fit in a byte are invalid anyway.
+			cpuUsages[size] = (short) (Math.min(cpuId, 0xFF) << 8 | Math.min(usage, 0xFF));
+			size++;
+		}
+
+		/**
+		 * Hands the parsed logs to the given sink.
+		 *
+		 * @param sink receives the parsed logs
+		 * @exception IOException
+		 */
+		void replay(final LogParser.Sink sink) throws IOException {
+			for (int i = 0; i < size; i++) {
+				sink.accept(times[i], ips[i], (cpuUsages[i] >>> 8) & 0xFF, cpuUsages[i] & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Fork-join task which parses a range of chunks by splitting it in halves.
+	 */
+	static class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final FileChannel channel;
+		final Chunk chunks[];
+		final int lo;
+		final int hi;
+
+		ParseTask(final FileChannel channel, final Chunk chunks[], final int lo, final int hi) {
+			this.channel = channel;
+			this.chunks = chunks;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo == 1) {
+				try {
+					LogParser.parse(channel, chunks[lo].from, chunks[lo].to, chunks[lo]);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+			final int mid = (lo + hi) >>> 1;
+			invokeAll(new ParseTask(channel, chunks, lo, mid), new ParseTask(channel, chunks, mid, hi));
+		}
+	}
+
+	/**
+	 * Parses the log file with the given number of threads and hands the parsed
+	 * logs to the sink in the order of the log file.
+	 *
+	 * @param file          the log file
+	 * @param sink          receives the parsed logs
+	 * @param threads       number of threads used to parse the log file
+	 * @param completeLines true to leave out a last line which doesn't end with a
+	 *                      new line yet, as the log file is still being written
+	 * @return long number of lines parsed
+	 * @exception IOException
+	 */
+	public static long ingest(final File file, final LogParser.Sink sink, final int threads,
+			final boolean completeLines) throws IOException {
+		final long begin = System.nanoTime();
+		long lines = 0;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = completeLines ? lastLineEnd(channel, 0, channel.size()) : channel.size();
+			bytesIngested = size;
+			if (threads <= 1) {
+				lines = LogParser.parse(channel, 0, size, sink);
+			} else {
+				final ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					long from = 0;
+					while (from < size) {
+						// cut the next wave of chunks at line boundaries
+						Chunk wave[] = new Chunk[threads];
+						int count = 0;
+						while (count < threads && from < size) {
+							final long to = alignToLine(channel, Math.min(from + CHUNK_BYTES, size));
+							wave[count++] = new Chunk(from, to);
+							from = to;
+						}
+
+						try {
+							pool.invoke(new ParseTask(channel, wave, 0, count));
+						} catch (UncheckedIOException e) {
+							throw e.getCause();
+						}
+
+						for (int i = 0; i < count; i++) {
+							wave[i].replay(sink);
+							lines += wave[i].size;
+							wave[i] = null;
+						}
+					}
+				} finally {
+					pool.shutdown();
+				}
+			}
+		}
+
+		linesIngested = lines;
+		ingestNanos = System.nanoTime() - begin;
+		Metrics.ingested(lines, bytesIngested, ingestNanos);
+		return lines;
+	}
+
+	/**
+	 * Gives the position just after the end of the line in which the given
+	 * position is.
+	 *
+	 * @param channel the log file
+	 * @param pos     position in the log file
+	 * @return long position of the start of the next line, or the size of the
+	 *         file if there is no next line
+	 * @exception IOException
+	 */
+	static long alignToLine(final FileChannel channel, long pos) throws IOException {
+		final long size = channel.size();
+		if (pos == 0 || pos >= size) {
+			return Math.min(pos, size);
+		}
+
+		// pos is a line boundary if the byte before it is a new line
+		pos--;
+		final ByteBuffer buf = ByteBuffer.allocate(ALIGN_BYTES);
+		while (pos < size) {
+			buf.clear();
+			final int read = channel.read(buf, pos);
+			for (int i = 0; i < read; i++) {
+				if (buf.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += Math.max(read, 0);
+		}
+		return size;
+	}
+
+	/**
+	 * Gives the position just after the last new line in the given part of the log
+	 * file.
+	 *
+	 * @param channel the log file
+	 * @param from    start of the part
+	 * @param to      end of the part
+	 * @return long position just after the last new line, or from if there is no
+	 *         new line in the part
+	 * @exception IOException
+	 */
+	static long lastLineEnd(final FileChannel channel, final long from, long to) throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(ALIGN_BYTES);
+		while (to > from) {
+			final long pos = Math.max(from, to - ALIGN_BYTES);
+			buf.clear().limit((int) (to - pos));
+			channel.read(buf, pos);
+			for (int i = buf.position() - 1; i >= 0; i--) {
+				if (buf.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			to = pos;
+		}
+		return from;
+	}
+
+	/**
+	 * Gives the throughput of the last call to ingest.
+	 *
+	 * @return string number of lines, time taken and lines per second
+	 */
+	public static String throughput() {
+		final double seconds = ingestNanos / 1e9;
+		return String.format("Ingested %,d lines in %.0f ms (%,.0f lines/s)", linesIngested, seconds * 1000,
+				seconds > 0 ? linesIngested / seconds : 0);
+	}
+
+}
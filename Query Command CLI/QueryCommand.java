@@ -1,132 +1,280 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Scanner;
-import java.util.regex.Pattern;
 
 /**
  * <h1>Implement the QUERY command</h1> The program takes the QUERY command from
  * the user and finds the CPU usage value for the time range given for the
- * respective IP Address and CPU ID. The program splits the given large file
- * with logs for 24 hrs into 3 equal part containing 960,000 logs each. By doing
- * this we can narrow the search down to subset of data. We can then cache the
- * subset of data and find the usage value from the cache.
+ * respective IP Address and CPU ID. The program converts the given large file
+ * of logs into binary segments holding 1 hr of logs each, which are kept in a
+ * store partitioned by day (see {@link Catalog}), so the logs of many days and
+ * months can be kept and a command only opens the segments of its time range. A
+ * segment stores one byte per usage value in a dense [minute][server][cpu]
+ * matrix (see {@link SegmentStore}), so the usage value for a given IP Address,
+ * CPU ID and minute is found by offset arithmetic on the cached segment. The row
+ * of an IP Address and CPU ID is found in a server dictionary, a primitive hash
+ * table keyed by the packed IP Address and CPU ID (see {@link RowIndex}), so
+ * the servers can have any IP Address and can join or leave the fleet at any
+ * time. A minute in which a server logged nothing is shown as missing. With
+ * --compress the segments are written bit packed into blocks of an hour (see
+ * {@link BlockCodec}) and the aggregates skip the blocks through their headers.
+ * With --serve the commands are also served over a socket (see
+ * {@link QueryServer}). The results are written through a buffer, as text or
+ * in the format given by --format (see {@link ResultWriter}). The ingest rolls
+ * the usage values of every day up into buckets of 5 minutes, 1 hour and 1 day
+ * (see {@link Rollup}), from which QUERY shows long time ranges at a coarser
+ * resolution and the aggregate commands read whole days and hours. The ingest
+ * also indexes the minutes of every usage bucket in bitmaps (see
+ * {@link BitmapIndex}), from which WHERE finds the servers whose usage was in
+ * a range for a number of minutes (see {@link UsageSearch}). The loops which
+ * scan the usage values of all the servers run on SIMD kernels when the Java
+ * runtime has the Vector API (see {@link UsageKernels}). The usage values read
+ * by QUERY are cached by server and CPU, so a QUERY of a shifted window only
+ * reads the minutes at its edges (see {@link ResultCache}). Every
+ * command reads an immutable snapshot of the store (see
+ * {@link StoreSnapshot}), so commands run at the same time as each other and
+ * as the ingest without any locking. The latency of the commands, the
+ * segment cache and the ingest are measured (see {@link Metrics}) and shown by
+ * STATS and through JMX.
  * <p>
- * <b>Note:</b> The program takes approximately 1 sec to return the usage values
- * for max range, that is 23 hrs 59 mins.
+ * The commands are parsed by the {@link QueryParser} into a {@link QueryPlan}.
+ * A command can target a network of servers in CIDR notation and both CPUs
+ * with *, in which case QUERY shows the usage values of every matching server
+ * and CPU and the aggregate commands aggregate over all of them.
+ * <p>
+ * <b>Note:</b> The program takes less than a millisecond to return the usage
+ * values for a range of a day, that is 23 hrs 59 mins, once the segments are
+ * cached.
  *
  * @author Aravind Vicinthangal Prathivaathi
  * @version 1.0
  * @since 2019-07-09
  */
 public class QueryCommand {
-	// Split files into 480 minutes(8 hrs) of data each. So since there are 1000
-	// servers
-	// with 2 CPUs producing 2 logs every minute. Therefore
-	// the number of lines per file would be 480 * 2000.
-	final static int LINES_PER_FILE = 480 * 2000;
+	// Split the logs into segments of 60 minutes(1 hr) of data each.
+	final static int MINUTES_PER_FILE = 60;
 
 	// Number of servers as per the question.
 	final static int SERVERS = 1000;
 
+	// Each server has 2 CPUs, so every minute has SERVERS * 2 usage values. The
+	// server dictionary starts with this many rows and grows as servers join.
+	final static int ROWS = SERVERS * SegmentStore.CPUS;
+
 	// IP Address is a 32 bit number meaning each part is 8 bit and the maximum
 	// value each 8 bit part can take is 255
 	final static int IP_OCTET_MAX = 255;
 
-	// Total number of seconds in a day.
-	final static int TOTAL_SEC = 60 * 24 * 60;
+	// Shown by QUERY for a minute in which the server logged nothing
+	final static String MISSING_VALUE = "missing";
+
+	// Format of the commands
+	final static String COMMAND_FORMAT = "Command Format: QUERY|AVG|MIN|MAX|SUM|COUNT IP[/PREFIX] CPU_ID|* "
+			+ "TIME TIME\n"
+			+ "                or TOP N TIME TIME [CPU_ID|*] [AVG|MAX] or STATS\n"
+			+ "                or WHERE IP[/PREFIX] CPU_ID|* TIME TIME USAGE >|>=|<|<= N|BETWEEN N AND M [FOR K]\n"
+			+ "                QUERY can end with RESOLUTION 1m|5m|1h|1d\n"
+			+ "                TIME is YYYY-MM-DD HH:MM, YYYY-MM-DDTHH:MM[:SS][Z] or a unix time";
+
+	// Memory budget of the segment cache in MB
+	static int cacheMegabytes = 64;
+
+	// Segments cached for fast access
+	static SegmentCache cache;
+
+	// Memory budget of the QUERY result cache in MB, 0 to not cache the results
+	static int resultCacheMegabytes = 16;
+
+	// Usage values read by QUERY, cached for the queries of overlapping windows,
+	// or null if the results are not cached
+	static ResultCache results;
+
+	// Rows of the IP Address and CPU ID combinations in the segments, changed by
+	// the ingest; the commands read the copy in their snapshot
+	static RowIndex rowIndex = new RowIndex(ROWS);
 
-	// Format of the time stamp given in the question
-	static String stampFormat = "yyyy-MM-dd HH:mm";
+	// File with the commands to run in batch mode, or "-" for stdin
+	static String batchFileName = null;
 
-	// Map to cache the required data for fast access
-	static Map<String, ArrayList<String>> cache = new HashMap<>();
+	// Number of threads used to ingest the log file
+	static int ingestThreads = Runtime.getRuntime().availableProcessors();
 
-	// File suffix for the data split
-	static int currFileSuffix = -1;
+	// Set to keep ingesting the logs appended to the log file
+	static boolean follow = false;
 
-	// This array contains the startTimes of each file that was split from the large
-	// file
-	static long startTimes[] = new long[4];
+	// Set to write the segments packed into blocks when the log file is ingested
+	static boolean compress = false;
 
-	// This is the default date and time given in the question
-	static String defaultStartTime = "2014-10-31 00:00";
+	// Memory budget in MB of the sort of a log file which is not in time order,
+	// 0 to ingest the log file in its order
+	static int sortMegabytes = 0;
 
-	// This is the default date and time given in the question
-	static String defaultEndTime = "2014-10-31 23:59";
+	// Port on which the commands are served, or -1 to not serve them
+	static int servePort = -1;
 
-	// Contains the file names of split-up log file.
-	static String splitFileNames[] = { "Log0.txt", "Log1.txt", "Log2.txt" };
+	// Serves the commands over the network, null if they are not served
+	static QueryServer server;
+
+	// Ingests the logs appended to the log file after the store was written
+	static LogFollower follower;
 
 	/**
 	 * Method which converts the given time stamp (YYYY-MM-DD HH:MM) into Unix Time
 	 * Stamp
 	 * 
-	 * @param stampFormat input time stamp
-	 * @return string Unix time
-	 * @exception ParseException
+	 * @param timeStamp input time stamp
+	 * @return string Unix time, or an empty string if the time stamp is invalid
 	 */
 	public static String convertToUnix(String timeStamp) {
-		SimpleDateFormat dateF = new SimpleDateFormat(stampFormat);
-		StringBuilder unixTime = new StringBuilder("");
+		final long time = QueryParser.parseTime(timeStamp);
+		return time == Long.MIN_VALUE ? "" : Long.toString(time);
 
-		try {
-			Date date = dateF.parse(timeStamp);
-			Calendar cal = Calendar.getInstance();
-			cal.setTime(date);
-			long time = (long) cal.getTime().getTime();
-			long epochs = time / 1000L;
-			unixTime.append(epochs);
-
-		} catch (ParseException e) {
-			e.printStackTrace();
-		}
-		return unixTime.toString();
+	}
+
+	/**
+	 * Gives the segment in which the given time is present. Each segment holds
+	 * MINUTES_PER_FILE minutes of data for all the servers starting at a multiple
+	 * of MINUTES_PER_FILE minutes since 1970-01-01 00:00 UTC, so the segment is
+	 * found by dividing the unix time.
+	 * 
+	 * @param unixTime unix time
+	 * 
+	 * @return int This returns the number of the segment in which the time is
+	 *         present
+	 */
+	public static int getSegment(final long unixTime) {
+		return (int) Math.floorDiv(unixTime, MINUTES_PER_FILE * 60);
+
+	}
+
+	/**
+	 * Gives the unix time at which the given segment starts.
+	 * 
+	 * @param segment the segment
+	 * 
+	 * @return long unix time of the first minute of the segment
+	 */
+	public static long segmentStart(final int segment) {
+		return (long) segment * MINUTES_PER_FILE * 60;
 
 	}
 
 	/**
-	 * Gives the file suffix to identify the file in which the current IP and CPU Id
-	 * could be present in. This gives a faster way to read the log data and
-	 * restrict the data to a smaller sample size by considering the time difference
-	 * between the start time in the file and the start time given.
+	 * Packs the given IP Address into a 32 bit number.
+	 * 
+	 * @param ipAddr IP Address
+	 * 
+	 * @return long the packed IP Address, or -1 if it is not a valid IP Address
+	 */
+	public static long packIp(final String ipAddr) {
+		return QueryParser.parseIp(ipAddr, 0, ipAddr.length());
+
+	}
+
+	/**
+	 * Formats an IP Address packed as a 32 bit number.
+	 * 
+	 * @param ip IP Address packed as a 32 bit number
+	 * 
+	 * @return string the dotted IP Address
+	 */
+	public static String ipToString(final int ip) {
+		return (ip >>> 24) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+
+	}
+
+	/**
+	 * Gives the row of the IP Address and CPU Id in a segment.
 	 * 
 	 * @param ipAddr IP Address
 	 * @param cpuId  CPU Id
-	 * @param diff   Time difference between the starting time in the file and the
-	 *               given start time
-	 * @param lineNo current Line number
-	 * @param flag   to determine if we need to calculate a new Line Number
 	 * 
-	 * @return int This returns the file suffix number in which the input IP Address
-	 *         and other data are present
+	 * @return int row of the IP Address and CPU Id, or -1 if no such server was
+	 *         logged
 	 */
-	public static int getFileSuffix(final String ipAddr, String cpuId, final int diff, int lineNo, boolean flag) {
-		if (flag) {
-			String[] subIp = ipAddr.split("\\.");// escape character \\. since . is a special regEx character
-			lineNo = Integer.parseInt(subIp[3]) + (Integer.parseInt(subIp[2]) * (IP_OCTET_MAX + 1) * 2)
-					+ Integer.parseInt(cpuId) + (SERVERS * diff);
+	public static int getRow(final String ipAddr, final String cpuId) {
+		final long ip = packIp(ipAddr);
+		if (ip < 0) {
+			return -1;
+		}
+		return getRow(StoreSnapshot.current(), (int) ip, Integer.parseInt(cpuId));
+
+	}
 
+	/**
+	 * Gives the row of the IP Address and CPU Id in a segment.
+	 * 
+	 * @param snapshot snapshot of the store
+	 * @param ip       IP Address packed as a 32 bit number
+	 * @param cpuId    CPU Id
+	 * 
+	 * @return int row of the IP Address and CPU Id, or -1 if no such server was
+	 *         logged
+	 */
+	public static int getRow(final StoreSnapshot snapshot, final int ip, final int cpuId) {
+		if (cpuId < 0 || cpuId >= SegmentStore.CPUS) {
+			return -1;
 		}
-		return lineNo / LINES_PER_FILE;
+		return snapshot.rows.get(RowIndex.key(ip, cpuId));
 
 	}
 
 	/**
-	 * This Method the given Log file into individual log files containing 8 hrs of
-	 * Log data. By splitting into multiple files, we can limit our search and other
-	 * operations to a subset of data. This gives us better performance and
-	 * effectively shorter search time.
+	 * Gives the rows of the servers and CPUs targeted by the given plan, ordered by
+	 * IP Address and CPU ID.
+	 * 
+	 * @param snapshot snapshot of the store
+	 * @param plan     plan of the command
+	 * 
+	 * @return int[] the rows
+	 */
+	public static int[] getRows(final StoreSnapshot snapshot, final QueryPlan plan) {
+		if (plan.isSingleRow()) {
+			final int row = getRow(snapshot, plan.ip, plan.cpuId);
+			return row < 0 ? new int[0] : new int[] { row };
+		}
+
+		// the keys sort by IP Address and then CPU ID, the row is in the low bits
+		final RowIndex rowIndex = snapshot.rows;
+		final long matches[] = new long[rowIndex.size];
+		int count = 0;
+		for (int row = 0; row < rowIndex.size; row++) {
+			if (plan.matches(rowIndex.keys[row])) {
+				matches[count++] = rowIndex.keys[row] << 24 | row;
+			}
+		}
+		Arrays.sort(matches, 0, count);
+		final int rows[] = new int[count];
+		for (int i = 0; i < count; i++) {
+			rows[i] = (int) (matches[i] & 0xFFFFFF);
+		}
+		return rows;
+
+	}
+
+	/**
+	 * This Method converts the given Log file into binary segments containing 1
+	 * hr of Log data. Each usage value is stored as a single byte at the position
+	 * given by its minute and row, next to 20 bytes of range aggregates per row
+	 * and hour (see {@link RangeIndex}), so the segments are about 20 times
+	 * smaller than the text logs and a usage value can be found without parsing
+	 * any text. The
+	 * segments are written once here and only read afterwards. The log file is
+	 * parsed from a memory mapped view by the {@link LogParser}, so no String is
+	 * created for any of the lines, and chunks of the log file are parsed in
+	 * parallel by ingestThreads threads. With --sort-mb the parsed logs are first
+	 * sorted by time, IP Address and CPU ID with an external merge sort in a
+	 * bounded memory (see {@link ExternalSort}), so a log file in any order is
+	 * written one segment at a time.
+	 * <p>
+	 * If the {@link Catalog} shows that the segments were already written for the
+	 * unchanged log file, the store is opened from the catalog instead.
 	 * 
 	 * @param fileName The generated log file name
 	 * @exception IOException
@@ -140,50 +288,53 @@ public class QueryCommand {
 			System.exit(1);
 		}
 
-		try (BufferedReader bRead = new BufferedReader(new FileReader(fileName))) {
-			String logFileName;
-			File f;
-			for (String file : splitFileNames) {
-				f = new File(file);
-				if (!f.exists()) {
-					f.createNewFile();
-				}
-			}
-			String curLine = null;
-			int lineNo = 0;
-			int changeFile = 0;
-
-			FileWriter fWrite = null;
-			BufferedWriter bWrite = null;
-
-			bRead.readLine();
-			while ((curLine = bRead.readLine()) != null) {
-				if (changeFile == 0) {
-					int fileSuffix = getFileSuffix("", "", 0, lineNo, false);
-					logFileName = "Log" + fileSuffix + ".txt";
-					fWrite = new FileWriter(logFileName);
-					bWrite = new BufferedWriter(fWrite);
-					String curTimeStamp[] = curLine.split(" ");
-					startTimes[fileSuffix] = Long.parseLong(curTimeStamp[0]);
-				}
-
-				lineNo++;
-				changeFile++;
-
-				bWrite.write(curLine);
-				bWrite.newLine();
-
-				if (changeFile >= LINES_PER_FILE) {
-					bWrite.close();
-					fWrite.close();
-					changeFile = 0;
-
-				}
+		final long begin = System.nanoTime();
+		if (Catalog.load(fi)) {
+			System.out.println(String.format("Opened the segment store from %s in %.1f ms (%d partitions)",
+					new File(Catalog.storeDir, Catalog.CATALOG_FILE_NAME), (System.nanoTime() - begin) / 1e6,
+					Catalog.partitions.size()));
+			return;
+		}
 
+		try {
+			Catalog.clear();
+			SegmentWriter writer = new SegmentWriter();
+			final ExternalSort sort = sortMegabytes > 0
+					? new ExternalSort((long) sortMegabytes << 20, new File(Catalog.storeDir, ExternalSort.SPILL_DIR))
+					: null;
+			ParallelIngest.ingest(fi, sort != null ? sort : writer, ingestThreads, follow);
+			if (sort != null) {
+				sort.merge(writer);
+			}
+			writer.flush();
+			if (writer.late.size > 0) {
+				writer.storeLate(new LogFollower(fi, false, new SegmentCache((long) cacheMegabytes << 20)));
+			}
+			final long rollupBegin = System.nanoTime();
+			Catalog.rollUp();
+			final long rollupNanos = System.nanoTime() - rollupBegin;
+			Catalog.write(fi, ParallelIngest.bytesIngested);
+			System.out.println(ParallelIngest.throughput() + " using " + ingestThreads + " threads");
+			if (sort != null) {
+				System.out.println(sort);
 			}
-			if (fWrite != null && bWrite != null) {
-				fWrite.close();
-				bWrite.close();
+			System.out.println(String.format(
+					"Segments hold %,d samples in %,d bytes off-heap + %,d bytes index (%.2f bytes/sample)",
+					writer.samples, writer.bytes, rowIndex.bytes(),
+					writer.samples > 0 ? (writer.bytes + rowIndex.bytes()) / (double) writer.samples : 0));
+			System.out.println(String.format("Store %s holds %d segments in %d partitions, rolled up in %.1f ms",
+					Catalog.storeDir, writer.segmentCount, Catalog.partitions.size(), rollupNanos / 1e6));
+			if (compress && writer.bytes > 0) {
+				System.out.println(String.format(
+						"Compressed segments: %.2f bytes/sample, %.1f:1 to the log file, %.2f:1 to the dense matrix "
+								+ "(%.2f:1 with its range aggregates), decoded at %,.0f samples/s",
+						writer.bytes / (double) Math.max(1, writer.samples), fi.length() / (double) writer.bytes,
+						writer.matrixBytes / (double) writer.bytes, writer.denseBytes / (double) writer.bytes,
+						writer.decoded / Math.max(1e-9, writer.decodeNanos / 1e9)));
+			}
+			if (writer.late.size > 0) {
+				System.out.println(String.format("%,d logs out of time order were stored in earlier segments.",
+						writer.late.size));
 			}
 
 		} catch (IOException e) {
@@ -194,31 +345,13 @@ public class QueryCommand {
 	}
 
 	/**
-	 * This method constructs the regular expression used for the validating the
-	 * QUERY command.
-	 * 
-	 * @param None
-	 * @return string returns the regular expression
-	 */
-	public static String constructRegex() {
-		StringBuilder command = new StringBuilder(256);
-		command.append("^QUERY\\s")
-				.append("((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\s")
-				.append("[0-1]\\s")
-				.append("[0-9]{4}-(0[1-9]|1[0-2])-(0[1-9]|[1-2][0-9]|3[0-1]) (2[0-3]|[01][0-9]):[0-5][0-9]\\s")
-				.append("[0-9]{4}-(0[1-9]|1[0-2])-(0[1-9]|[1-2][0-9]|3[0-1]) (2[0-3]|[01][0-9]):[0-5][0-9]$");
-
-		return command.toString();
-	}
-
-	/**
-	 * Checks if the input QUERY command is valid.
+	 * Checks if the input QUERY or aggregate command is valid.
 	 * 
-	 * @param query The input QUERY command
+	 * @param query The input command
 	 * @return boolean true if the command is valid, else false
 	 */
 	public static boolean commandValidator(final String query) {
-		return Pattern.matches(constructRegex(), query);
+		return QueryParser.parse(query, new QueryPlan());
 	}
 
 	/**
@@ -226,29 +359,37 @@ public class QueryCommand {
 	 * 
 	 * @param unixStart    The unix time of the input start time
 	 * @param unixEnd      The unix time of the input end time
-	 * @param defaultStart The unix time of 2014-10-31 00:00
-	 * @param defaultEnd   The unix time of 2014-10-31 23:59
+	 * @param defaultStart The unix time of the first log in the store
+	 * @param defaultEnd   The unix time of the last log in the store
+	 * @param out          writer to which the reason is written if the time is
+	 *                     invalid
 	 * 
 	 * @return boolean true if the time is invalid, else false
 	 */
 
-	public static boolean timeValidator(String unixStart, String unixEnd, String defaultStart, String defaultEnd) {
+	public static boolean timeValidator(final long unixStart, final long unixEnd, final long defaultStart,
+			final long defaultEnd, final ResultWriter out) {
+		if (defaultStart > defaultEnd) {
+			out.message("No logs were recorded in the store yet!");
+			return true;
+		}
+
 		boolean validate = false;
-		if (Long.parseLong(unixStart) >= Long.parseLong(unixEnd)) {
-			System.out.println("Invalid Input! The input start time is greater than or equal to the end time!");
-			System.out.println("End time should be greater than the start time!");
+		if (unixStart >= unixEnd) {
+			out.message("Invalid Input! The input start time is greater than or equal to the end time!");
+			out.message("End time should be greater than the start time!");
 			validate = true;
 		}
 
-		if (Long.parseLong(unixStart) > Long.parseLong(defaultEnd)) {
-			System.out.println("Invalid Input! The input start time is greater than the default end time "
-					+ defaultEndTime + " for which the logs were recorded!");
+		if (unixStart > defaultEnd) {
+			out.message("Invalid Input! The input start time is greater than the default end time "
+					+ QueryParser.formatTime(defaultEnd) + " for which the logs were recorded!");
 			validate = true;
 		}
 
-		if (Long.parseLong(defaultStart) > Long.parseLong(unixEnd)) {
-			System.out.println("Invalid Input! The input end time is less than the default start time "
-					+ defaultStartTime + " for which the logs were recorded!");
+		if (defaultStart > unixEnd) {
+			out.message("Invalid Input! The input end time is less than the default start time "
+					+ QueryParser.formatTime(defaultStart) + " for which the logs were recorded!");
 			validate = true;
 		}
 
@@ -256,77 +397,31 @@ public class QueryCommand {
 	}
 
 	/**
-	 * This method caches the required data from given text file into a Hash Map.
-	 * The hash map uses the IP Address and CPU as its key and a list of cpu usage
-	 * as its value for that respective ip + cpu combination,
+	 * This method gives the required segment of the current snapshot from the
+	 * segment cache, which loads it from its segment file if it is not cached.
+	 * The segment is kept as the raw byte matrix, so nothing has to be parsed or
+	 * rebuilt when a segment is loaded.
 	 * 
-	 * @param fileName name of the file which contains the necessary data
-	 * @exception IO Exception
+	 * @param segment the segment which contains the necessary data
+	 * @return SegmentStore the segment, or null if it wasn't written yet or
+	 *         couldn't be read
 	 */
-	public static void cacheIt(final String fileName) {
-		String data[] = new String[4];
-		cache.clear();
-		try (BufferedReader bRead = new BufferedReader(new FileReader(fileName))) {
-			StringBuilder key;
-			String curLine = null;
-			while ((curLine = bRead.readLine()) != null) {
-				// split each line into ip, cpu ID, time stamp and cpu usage.
-				data = curLine.split(" ");
-
-				// key is set as the concatenated value of IP Address and CPU ID
-				key = new StringBuilder(data[1] + " " + data[2]);
-
-				ArrayList<String> content;
-				if (cache.containsKey(key.toString())) {
-					content = cache.get(key.toString());
-				} else {
-					content = new ArrayList<String>();
-				}
-
-				// The value of each record in the map is a list of usage values for the
-				// corresponding concatenated value of IP Address and CPU ID
-				content.add(data[3]);
-				cache.put(key.toString(), content);
-			}
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	public static SegmentStore cacheIt(final int segment) {
+		return StoreSnapshot.current().segment(segment);
 
 	}
 
 	/**
-	 * This method fetches the usage value of the CPU from cache if the key is
-	 * present, else it tells to check the next split-up log file.
+	 * This method fetches the usage value of the CPU from the cached segment.
 	 * 
-	 * @param key   the key to the corresponding cached data
-	 * @param start the start time to find which index in the list contains the
-	 *              value
+	 * @param segment the cached segment
+	 * @param row     the row of the IP Address and CPU ID in the segment
+	 * @param minute  minutes elapsed since the start of the cached segment
 	 * 
-	 * @return usage returns the cpu usage if present else return Next File
+	 * @return usage returns the cpu usage if present else returns -1
 	 */
-	public static String fetchFromCache(final String key, final String start) {
-		// calculates the index at which the usage data could be present in the list.
-		final int listIndex = (int) (Long.parseLong(start) - startTimes[currFileSuffix]) / 60;
-		ArrayList<String> val = new ArrayList<>();
-		String usage = null;
-
-		if (cache.containsKey(key)) {
-			// gets the list of usage values for the particular key
-			val = cache.get(key);
-
-			// check to see whether the list could contain the usage value
-			if (listIndex < val.size()) {
-
-				usage = val.get(listIndex);
-			} else {
-				// If usage value not present, then return this strings which acts as a flag to
-				// move-on to the next file.
-				usage = "Next File";
-			}
-		}
-
-		return usage;
+	public static int fetchFromCache(final SegmentStore segment, final int row, final int minute) {
+		return segment.usage(minute, row);
 
 	}
 
@@ -343,83 +438,398 @@ public class QueryCommand {
 	 */
 	public static ArrayList<String> getResult(final String ip, final String cpuId, final String unixStart,
 			final String unixEnd) {
-		ArrayList<String> result = new ArrayList<String>();
-		final String key = ip + " " + cpuId;
-		long timeStart = Long.parseLong(unixStart);
-		final long timeEnd = Long.parseLong(unixEnd);
-
-		while (timeStart < timeEnd) {
-			String usage = fetchFromCache(key, "" + timeStart);
-
-			// If usage is Next File, then we need to move to next file with respect to the
-			// suffix of the file and cache the data of the new file.
-			if (usage != null && usage.equals("Next File")) {
-				currFileSuffix++;
-				cacheIt("Log" + currFileSuffix + ".txt");
-				continue;
+		final StoreSnapshot snapshot = StoreSnapshot.current();
+		final long packed = packIp(ip);
+		final int row = packed < 0 ? -1 : getRow(snapshot, (int) packed, Integer.parseInt(cpuId));
+		if (row < 0) {
+			return new ArrayList<String>();
+		}
+		return getResult(snapshot, row, Long.parseLong(unixStart), Long.parseLong(unixEnd));
+	}
 
-			} else if (usage != null && !usage.equals("Next File")) {
+	/**
+	 * This method is used the return a list of the CPU usage values of the given
+	 * row for every minute of the given time range. A minute in which no log was
+	 * recorded is given as MISSING_VALUE, so every value stays at the position of
+	 * its minute.
+	 * 
+	 * @param snapshot  snapshot of the store
+	 * @param row       row of the IP Address and CPU ID
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * 
+	 * @return ArryList returns a list of CPU usage values, or an empty list if no
+	 *         log was recorded in the time range
+	 */
+	public static ArrayList<String> getResult(final StoreSnapshot snapshot, final int row, final long unixStart,
+			final long unixEnd) {
+		final byte usages[] = new byte[(int) Math.max(0, Math.floorDiv(unixEnd, 60) - Math.floorDiv(unixStart, 60))];
+		ArrayList<String> result = new ArrayList<String>(usages.length);
+		if (getCachedUsages(snapshot, row, unixStart, unixEnd, usages) > 0) {
+			for (byte usage : usages) {
+				result.add(usage == SegmentStore.MISSING ? MISSING_VALUE : Integer.toString(usage));
+			}
+		}
+		return result;
+	}
 
-				result.add(usage);
+	/**
+	 * This method fills the given array with the CPU usage values of the given row
+	 * for every minute of the given time range, SegmentStore.MISSING for a minute
+	 * in which no log was recorded.
+	 * 
+	 * @param snapshot  snapshot of the store
+	 * @param row       row of the IP Address and CPU ID
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param usages    receives the usage value of each minute, from the start
+	 * 
+	 * @return int number of minutes in which a log was recorded
+	 */
+	public static int getUsages(final StoreSnapshot snapshot, final int row, final long unixStart,
+			final long unixEnd, final byte usages[]) {
+		int present = 0;
+		SegmentStore segment = null;
+		int segmentId = Integer.MIN_VALUE;
+		final long startMinute = Math.floorDiv(unixStart, 60);
+		final long endMinute = Math.floorDiv(unixEnd, 60);
+		for (long minute = startMinute; minute < endMinute; minute++) {
+			// If the minute is in another segment, then get that segment from the cache.
+			final int s = (int) Math.floorDiv(minute, MINUTES_PER_FILE);
+			if (s != segmentId) {
+				segment = snapshot.segment(s);
+				segmentId = s;
+			}
+
+			final int usage = segment == null || row >= segment.rows ? SegmentStore.MISSING
+					: fetchFromCache(segment, row, (int) (minute - (long) s * MINUTES_PER_FILE));
+			usages[(int) (minute - startMinute)] = (byte) usage;
+			if (usage != SegmentStore.MISSING) {
+				present++;
 			}
-			timeStart += 60;
 		}
+		return present;
+	}
 
-		return result;
+	/**
+	 * This method fills the given array with the CPU usage values of the given row
+	 * for every minute of the given time range as getUsages does, through the
+	 * result cache if the results are cached.
+	 * 
+	 * @param snapshot  snapshot of the store
+	 * @param row       row of the IP Address and CPU ID
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param usages    receives the usage value of each minute, from the start
+	 * 
+	 * @return int number of minutes in which a log was recorded
+	 */
+	public static int getCachedUsages(final StoreSnapshot snapshot, final int row, final long unixStart,
+			final long unixEnd, final byte usages[]) {
+		final ResultCache results = QueryCommand.results;
+		return results != null ? results.usages(snapshot, row, unixStart, unixEnd, usages)
+				: getUsages(snapshot, row, unixStart, unixEnd, usages);
+	}
+
+	/**
+	 * This method adds up the aggregates of the CPU usage values of the given row
+	 * for the given time range. The whole days and hours in the time range are
+	 * taken from the rollups of their partition (see {@link Rollup}) and the
+	 * other minutes from the range index of their segment, so the usage values
+	 * are not scanned and a range of many days reads a few bytes per day.
+	 * 
+	 * @param snapshot  snapshot of the store
+	 * @param row       row of the IP Address and CPU ID
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param agg       the aggregate to add to
+	 */
+	public static void getAggregate(final StoreSnapshot snapshot, final int row, final long unixStart,
+			final long unixEnd, final RangeIndex.Aggregate agg) {
+		getAggregate(snapshot, row, unixStart, unixEnd, Rollup.tier(MINUTES_PER_FILE), agg);
+	}
+
+	/**
+	 * This method adds up the aggregates of the CPU usage values of the given row
+	 * for the given time range, taking the buckets of the given rollup tier or a
+	 * coarser one which are in the time range from the rollups. A day whose
+	 * rollups are not up to date in the snapshot is read from its segments.
+	 * 
+	 * @param snapshot  snapshot of the store
+	 * @param row       row of the IP Address and CPU ID
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param finest    finest rollup tier which may be used
+	 * @param agg       the aggregate to add to
+	 */
+	static void getAggregate(final StoreSnapshot snapshot, final int row, final long unixStart, final long unixEnd,
+			final int finest, final RangeIndex.Aggregate agg) {
+		final long endMinute = Math.floorDiv(unixEnd, 60);
+		long minute = Math.floorDiv(unixStart, 60);
+		while (minute < endMinute) {
+			// the segments which were not written are skipped
+			final int s = snapshot.nextSegment((int) Math.floorDiv(minute, MINUTES_PER_FILE));
+			if (s == Integer.MAX_VALUE) {
+				break;
+			}
+			final long segmentMinute = (long) s * MINUTES_PER_FILE;
+			if (segmentMinute > minute) {
+				minute = segmentMinute;
+				continue;
+			}
+
+			final int rolledUp = Rollup.aggregate(snapshot, row, minute, endMinute, finest, agg);
+			if (rolledUp > 0) {
+				minute += rolledUp;
+				continue;
+			}
+			final SegmentStore segment = snapshot.segment(s);
+			final int from = (int) (minute - segmentMinute);
+			final int to = (int) Math.min(MINUTES_PER_FILE, endMinute - segmentMinute);
+			if (segment != null && row < segment.rows) {
+				segment.aggregate(row, from, to, agg);
+			}
+			minute = segmentMinute + to;
+		}
+	}
+
+	/**
+	 * This method fills the given aggregates with the CPU usage values of the given
+	 * row for every bucket of the given resolution in the given time range. The
+	 * buckets are aligned to the resolution, so the first and last bucket only
+	 * hold the minutes which are in the time range. A bucket which is wholly in
+	 * the time range is read from the rollup tier of the resolution.
+	 * 
+	 * @param snapshot   snapshot of the store
+	 * @param row        row of the IP Address and CPU ID
+	 * @param unixStart  Starting unix time
+	 * @param unixEnd    Ending unix time
+	 * @param resolution number of minutes per bucket
+	 * @param buckets    receives the aggregate of each bucket, from the bucket
+	 *                   of the start
+	 * 
+	 * @return int number of buckets, 0 if no log was recorded in the time range
+	 */
+	public static int getBuckets(final StoreSnapshot snapshot, final int row, final long unixStart,
+			final long unixEnd, final int resolution, final RangeIndex.Aggregate buckets[]) {
+		final int tier = Math.max(0, Rollup.tier(resolution));
+		final long seconds = resolution * 60L;
+		final long first = Math.floorDiv(unixStart, seconds);
+		final int count = (int) (Math.floorDiv(unixEnd - 1, seconds) - first + 1);
+		boolean present = false;
+		for (int i = 0; i < count; i++) {
+			final long start = (first + i) * seconds;
+			buckets[i].clear();
+			getAggregate(snapshot, row, Math.max(unixStart, start), Math.min(unixEnd, start + seconds), tier,
+					buckets[i]);
+			present |= buckets[i].count > 0;
+		}
+		return present ? count : 0;
 	}
 
 	/**
 	 * This method is used to display the result to the user in the format mentioned
-	 * in the question
+	 * in the question, or in the format given by --format (see
+	 * {@link ResultWriter}). A missing usage value is shown as missing at its
+	 * minute.
 	 * 
-	 * @param result list of usage values to display
-	 * @param ip     IP Address
-	 * @param cpuId  CPU ID
-	 * @param start  Starting time
+	 * @param usages    usage values to display, one for every minute
+	 * @param count     number of minutes, 0 if no log was recorded in the time
+	 *                  range
+	 * @param ip        packed IP Address
+	 * @param cpuId     CPU ID
+	 * @param unixStart Starting unix time
+	 * @param out       writer to which the result is written
+	 */
+	public static void display(final byte usages[], final int count, final int ip, final int cpuId,
+			final long unixStart, final ResultWriter out) {
+		if (count == 0) {
+			displayMissing(ipToString(ip), Integer.toString(cpuId), unixStart, out);
+			return;
+		}
+		out.series(ip, cpuId, unixStart, usages, count);
+
+	}
+
+	/**
+	 * This method is used to tell the user that no log was recorded for the given
+	 * IP Address and CPU ID in the time range.
+	 * 
+	 * @param ip        IP Address, or network in CIDR notation
+	 * @param cpuId     CPU ID, or * for both CPUs
+	 * @param unixStart Starting unix time
+	 * @param out       writer to which the result is written
+	 */
+	static void displayMissing(final String ip, final String cpuId, final long unixStart, final ResultWriter out) {
+		out.note("CPU" + cpuId + " usage on " + ip + ": ");
+		out.note("Log for this IP: " + ip + " and for this CPU ID: " + cpuId + " at this given time "
+				+ QueryParser.formatTime(unixStart) + " doesn't exist!!");
+
+	}
+
+	/**
+	 * Executes a single command and prints its result.
 	 * 
-	 * @return ArryList returns a list of the CPU IDs for the given time range, IP
-	 *         Address and CPU ID
+	 * @param query the input command
+	 * @param out   stream to which the result is printed
 	 * 
-	 * @exception ParseException
 	 */
-	public static void display(ArrayList<String> result, final String ip, final String cpuId, final String start) {
+	public static void execute(final String query, final PrintStream out) {
+		final QueryPlan plan = new QueryPlan();
+		if (!QueryParser.parse(query, plan)) {
+			final ResultWriter writer = new ResultWriter(out);
+			writer.message("Invalid Input");
+			writer.message(COMMAND_FORMAT);
+			writer.flush();
+			return;
+		}
+		execute(plan, out);
 
-		String startTime;
-		SimpleDateFormat dateF = new SimpleDateFormat(stampFormat);
+	}
 
-		try {
-			Date date = dateF.parse(start);
-			Calendar cal = Calendar.getInstance();
-			cal.setTime(date);
-			startTime = "" + dateF.format(cal.getTime());
-			System.out.println("CPU" + cpuId + " usage on " + ip + ": ");
-			if (result.size() == 0 || result == null) {
-				System.out.println("Log for this IP: " + ip + " and for this CPU ID: " + cpuId + " at this given time " + startTime
-						+ " doesn't exist!!");
-				return;
-			}
+	/**
+	 * Executes the plan of a command on the current snapshot of the store and
+	 * prints its result.
+	 * 
+	 * @param plan plan of the command
+	 * @param out  stream to which the result is printed
+	 * 
+	 */
+	public static void execute(final QueryPlan plan, final PrintStream out) {
+		final long begin = System.nanoTime();
+		final ResultWriter writer = new ResultWriter(out);
+		execute(StoreSnapshot.current(), plan, writer);
+		writer.flush();
+		Metrics.command(plan.command, System.nanoTime() - begin);
 
-			for (int i = 0; i < result.size(); i++) {
-				System.out.print("(" + startTime + ", " + result.get(i) + "%)");
+	}
 
-				date = dateF.parse(startTime);
-				cal = Calendar.getInstance();
-				cal.setTime(date);
-				cal.add(Calendar.MINUTE, 1);
+	/**
+	 * Executes the plan of a command on the given snapshot of the store, which is
+	 * not changed by the ingest, so no lock is needed.
+	 * 
+	 * @param snapshot snapshot of the store
+	 * @param plan     plan of the command
+	 * @param out      writer to which the result is written
+	 * 
+	 */
+	static void execute(final StoreSnapshot snapshot, final QueryPlan plan, final ResultWriter out) {
+		if (plan.command == QueryPlan.STATS) {
+			out.message(Metrics.report());
+			return;
+		}
+		if (timeValidator(plan.unixStart, plan.unixEnd, snapshot.firstTime, snapshot.lastTime, out)) {
+			out.message(COMMAND_FORMAT);
 
-				startTime = "" + dateF.format(cal.getTime());
+			return;
+		}
 
-				if (i < result.size() - 1) {
-					System.out.print(", ");
-				}
+		long unixStart = plan.unixStart;
+		String timeStart = QueryParser.formatTime(unixStart);
+		final String timeEnd = QueryParser.formatTime(plan.unixEnd);
+		final long firstMinute = Math.floorDiv(snapshot.firstTime, 60) * 60;
+		if (unixStart < firstMinute) {
+			unixStart = firstMinute;
+			timeStart = QueryParser.formatTime(firstMinute);
+
+		}
+		final long unixEnd = Math.min(plan.unixEnd, Math.floorDiv(snapshot.lastTime, 60) * 60 + 60);
 
+		if (plan.command == QueryPlan.TOP) {
+			TopServers.display(snapshot, plan.topN, unixStart, unixEnd, plan.cpuId, plan.peak, timeStart, timeEnd,
+					out);
+			return;
+		}
+
+		final int rows[] = getRows(snapshot, plan);
+		if (plan.command == QueryPlan.WHERE) {
+			UsageSearch.display(snapshot, plan, rows, unixStart, unixEnd, timeStart, timeEnd, out);
+			return;
+		}
+		final int resolution = plan.resolution != QueryPlan.AUTO_RESOLUTION ? plan.resolution
+				: Rollup.resolution(Math.floorDiv(unixEnd, 60) - Math.floorDiv(unixStart, 60));
+		if (plan.command == QueryPlan.QUERY && resolution > 1) {
+			if (rows.length == 0) {
+				displayMissing(plan.target(), plan.cpu(), unixStart, out);
+			}
+			// the buckets of every row are read into the same aggregates
+			final long seconds = resolution * 60L;
+			final RangeIndex.Aggregate buckets[] = new RangeIndex.Aggregate[(int) Math.max(0,
+					Math.floorDiv(unixEnd - 1, seconds) - Math.floorDiv(unixStart, seconds) + 1)];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new RangeIndex.Aggregate();
 			}
-			System.out.println();
+			for (int row : rows) {
+				final long key = snapshot.rows.keys[row];
+				final long from = Math.max(unixStart, Math.floorDiv(snapshot.rows.firstTimes[row], 60) * 60);
+				final long to = Math.min(unixEnd, Math.floorDiv(snapshot.rows.lastTimes[row], 60) * 60 + 60);
+				final int count = from < to ? getBuckets(snapshot, row, from, to, resolution, buckets) : 0;
+				if (count == 0) {
+					displayMissing(ipToString((int) (key >>> 1)), Long.toString(key & 1), unixStart, out);
+				} else {
+					out.buckets((int) (key >>> 1), (int) (key & 1), Math.floorDiv(from, seconds) * seconds,
+							resolution, buckets, count);
+				}
+			}
+		} else if (plan.command == QueryPlan.QUERY) {
+			if (rows.length == 0) {
+				displayMissing(plan.target(), plan.cpu(), unixStart, out);
+			}
+			// the usage values of every row are read into the same array
+			final byte usages[] = new byte[(int) Math.max(0,
+					Math.floorDiv(unixEnd, 60) - Math.floorDiv(unixStart, 60))];
+			for (int row : rows) {
+				// only the minutes in which the server was in the fleet are shown
+				final long key = snapshot.rows.keys[row];
+				final long from = Math.max(unixStart, Math.floorDiv(snapshot.rows.firstTimes[row], 60) * 60);
+				final long to = Math.min(unixEnd, Math.floorDiv(snapshot.rows.lastTimes[row], 60) * 60 + 60);
+				final int count = getCachedUsages(snapshot, row, from, to, usages) > 0
+						? (int) (Math.floorDiv(to, 60) - Math.floorDiv(from, 60))
+						: 0;
+				display(usages, count, (int) (key >>> 1), (int) (key & 1), count == 0 ? unixStart : from, out);
+			}
+		} else {
+			final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+			for (int row : rows) {
+				getAggregate(snapshot, row, unixStart, unixEnd, agg);
+			}
+			out.aggregate(plan.command, agg, plan.target(), plan.cpu(), timeStart, timeEnd);
+		}
+
+	}
+
+	/**
+	 * Opens the segment store of the given log file, ingesting the log file if
+	 * needed, so that commands can be executed. Logs appended to the log file
+	 * since the store was written are ingested into the store, and in follow mode
+	 * the log file keeps being followed.
+	 * 
+	 * @param fileName The name of the log file
+	 * 
+	 */
+	public static void openStore(final String fileName) {
+		final long begin = System.nanoTime();
+		splitIntoFiles(fileName);
+		final File logFile = new File(fileName);
+		final boolean appended = logFile.length() > Catalog.sourceBytes;
+		cache = new SegmentCache((long) cacheMegabytes << 20);
+		results = resultCacheMegabytes > 0 ? new ResultCache((long) resultCacheMegabytes << 20) : null;
+		StoreSnapshot.publish();
 
-		} catch (ParseException e) {
+		follower = new LogFollower(logFile, follow, cache);
+		try {
+			if (appended && follower.catchUp() > 0) {
+				System.out.println(String.format("Ingested %,d lines appended to %s", follower.lines, fileName));
+				follower.rollUp();
+			}
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
-
+		Metrics.storeOpenNanos = System.nanoTime() - begin;
+		if (follow) {
+			follower.start();
+			System.out.println("Following " + fileName + " for appended logs");
+		}
 	}
 
 	/**
@@ -430,72 +840,60 @@ public class QueryCommand {
 	 */
 	public static void controller(final String fileName) {
 
-		splitIntoFiles(fileName);
-		final String defaultStartUnixTime = convertToUnix(defaultStartTime);
-		final String defaultEndUnixTime = convertToUnix(defaultEndTime);
+		openStore(fileName);
+
+		if (servePort >= 0) {
+			try {
+				server = QueryServer.start(servePort);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.out.println(String.format("Serving commands on %s:%d (%s threads)",
+					server.socket.getInetAddress().getHostAddress(), server.port(),
+					server.virtual ? "virtual" : "platform"));
+			// the latency of the served commands is printed when the program stops
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(server)));
+		}
 
-		String ipAddr;
-		String cpuId;
-		String timeStart;
-		String timeEnd;
+		if (batchFileName != null) {
+			BatchRunner.run(batchFileName);
+			awaitServer();
+			return;
+		}
 
+		// the results are written through a large buffer, flushed after each command
+		final PrintStream console = new PrintStream(
+				new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BatchRunner.OUTPUT_BUFFER_BYTES),
+				false);
 		boolean flag = true;
-		String queryArr[];
 		Scanner in = new Scanner(System.in);
 		while (flag) {
 
 			System.out.println("Enter the Query");
+			if (server != null && !in.hasNextLine()) {
+				// stdin is closed, keep serving until the program is stopped
+				awaitServer();
+				break;
+			}
 			String query = in.nextLine();
 
 			if (query.toUpperCase().equals("EXIT")) {
-				flag = false;
-				continue;
-			} else {
-				final boolean validation = commandValidator(query);
-				if (!validation) {
-					System.out.println("Invalid Input");
-					System.out.println("Command Format: QUERY IP CPU_ID YYYY-MM-DD HH:MM YYYY-MM-DD HH:MM");
-					continue;
+				System.out.println(cache);
+				if (results != null) {
+					System.out.println(results);
 				}
-
-				queryArr = query.split(" ");
-
-				ipAddr = queryArr[1];
-				cpuId = queryArr[2];
-				timeStart = queryArr[3] + " " + queryArr[4];
-				timeEnd = queryArr[5] + " " + queryArr[6];
-
-				String unixStart = convertToUnix(timeStart);
-				String unixEnd = convertToUnix(timeEnd);
-
-				if (timeValidator(unixStart, unixEnd, defaultStartUnixTime, defaultEndUnixTime)) {
-					System.out.println("Command Format: QUERY IP CPU_ID YYYY-MM-DD HH:MM YYYY-MM-DD HH:MM");
-
-					continue;
-				}
-
-				if (Long.parseLong(unixStart) < startTimes[0]) {
-					unixStart = "" + startTimes[0];
-					timeStart = defaultStartTime;
-
-				}
-
-				if (Long.parseLong(unixEnd) > startTimes[0] + TOTAL_SEC) {
-					unixEnd = (startTimes[0] + TOTAL_SEC) + "";
+				if (follow) {
+					System.out.println(follower);
 				}
-
-				final int timeDiff = (int) (Long.parseLong(unixStart) - startTimes[0]) / 60;
-
-				int fileSuffix = getFileSuffix(ipAddr, cpuId, timeDiff, 0, true);
-
-				if (currFileSuffix != fileSuffix) {
-					final String fName = "Log" + fileSuffix + ".txt";
-					cacheIt(fName);
-					currFileSuffix = fileSuffix;
+				if (server != null) {
+					server.close();
 				}
-
-				ArrayList<String> result = getResult(ipAddr, cpuId, unixStart, unixEnd);
-				display(result, ipAddr, cpuId, timeStart);
+				flag = false;
+				continue;
+			} else {
+				execute(query, console);
+				console.flush();
 			}
 
 		}
@@ -505,22 +903,86 @@ public class QueryCommand {
 	}
 
 	/**
-	 * Main method : Checks for the name of the file if passed through command line
+	 * Blocks until the network server is closed, if the commands are served.
+	 */
+	static void awaitServer() {
+		if (server == null) {
+			return;
+		}
+		try {
+			server.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Main method : Checks for the name of the file and the options if passed
+	 * through command line
 	 * 
-	 * @param args file name
+	 * @param args file name and the options: --threads N to set the number of
+	 *             threads used to ingest the log file, --cache-mb N to set the
+	 *             memory budget of the segment cache, --result-cache-mb N to set
+	 *             the memory budget of the QUERY result cache (0 to not cache
+	 *             the results), --batch FILE to run the
+	 *             commands in FILE ("-" for stdin) instead of asking for them,
+	 *             --follow to keep ingesting the logs appended to the log file,
+	 *             --store DIR to keep the segment store in DIR, --compress to
+	 *             write the segments packed into blocks, --sort-mb N to sort a
+	 *             log file which is not in time order in at most N MB of
+	 *             memory, --serve PORT to serve
+	 *             the commands on PORT of the loopback address, --format
+	 *             text|csv|ndjson|binary to set the format of the results,
+	 *             --kernels scalar|vector to choose the scan kernels rather
+	 *             than switch to the vector kernels once they are warmed up
 	 * 
 	 */
 
 	public static void main(String[] args) {
-		String fileName;
-
-		if (args.length == 0) {
-			fileName = "cpuLogs.txt";
-		} else {
-
-			fileName = args[0];
+		String fileName = "cpuLogs.txt";
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				ingestThreads = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("--cache-mb") && i + 1 < args.length) {
+				cacheMegabytes = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("--result-cache-mb") && i + 1 < args.length) {
+				resultCacheMegabytes = Math.max(0, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("--batch") && i + 1 < args.length) {
+				batchFileName = args[++i];
+			} else if (args[i].equals("--follow")) {
+				follow = true;
+			} else if (args[i].equals("--serve") && i + 1 < args.length) {
+				servePort = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--sort-mb") && i + 1 < args.length) {
+				sortMegabytes = Math.max(0, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("--compress")) {
+				compress = true;
+			} else if (args[i].equals("--store") && i + 1 < args.length) {
+				Catalog.storeDir = new File(args[++i]);
+			} else if (args[i].equals("--kernels") && i + 1 < args.length) {
+				if (!UsageKernels.use(args[++i])) {
+					System.out.println("--kernels should be scalar or vector, and vector needs a Java runtime started"
+							+ " with --add-modules jdk.incubator.vector: " + args[i]);
+					System.exit(1);
+				}
+			} else if (args[i].equals("--format") && i + 1 < args.length) {
+				ResultWriter.format = ResultWriter.format(args[++i]);
+				if (ResultWriter.format < 0) {
+					System.out.println("--format should be text, csv, ndjson or binary: " + args[i]);
+					System.exit(1);
+				}
+			} else {
+				fileName = args[i];
+			}
 		}
 
+		if (ResultWriter.format != ResultWriter.TEXT) {
+			// stdout only holds the results, the other messages go to stderr
+			System.setOut(System.err);
+		}
+		Metrics.register();
+		UsageKernels.warmUp();
 		controller(fileName);
 
 	}
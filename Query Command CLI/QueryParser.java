@@ -0,0 +1,570 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+/**
+ * <h1>Hand written command parser</h1> Parses a command character by character
+ * into a {@link QueryPlan}. Numbers, IP Addresses and time stamps are decoded
+ * straight from the characters and the plan is filled in place, so parsing a
+ * command creates no objects and doesn't touch the regex engine or the date
+ * classes. The grammar is:
+ *
+ * <pre>
+ * command := QUERY target cpu time time [RESOLUTION resolution]
+ *          | (AVG|MIN|MAX|SUM|COUNT) target cpu time time
+ *          | TOP n time time [cpu] [AVG|MAX]
+ *          | WHERE target cpu time time USAGE condition [FOR minutes]
+ *          | STATS
+ * target  := a.b.c.d | a.b.c.d/prefix      (CIDR network of servers)
+ * cpu     := 0 | 1 | *                     (* stands for both CPUs)
+ * time    := YYYY-MM-DD HH:MM | YYYY-MM-DDTHH:MM[:SS][Z] | unix time
+ * n       := 1 - 9999
+ * resolution := 1m | 5m | 1h | 1d
+ * condition  := (&gt;|&gt;=|&lt;|&lt;=) usage | BETWEEN usage AND usage
+ * usage   := 0 - 100
+ * minutes := 1 - 9999
+ * </pre>
+ *
+ * Time stamps are in the local time zone of the machine, like the time stamps
+ * of the Log Generator, unless they end with Z for UTC. Unix times are given in
+ * seconds. Time stamps are converted with calendar arithmetic; when the time
+ * zone has daylight saving time, its offset is looked up in the zone rules.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class QueryParser {
+	// Largest number of servers of the TOP command
+	final static int TOP_MAX = 9999;
+
+	// Largest number of minutes of the FOR clause of WHERE
+	final static int SUSTAINED_MAX = 9999;
+
+	// Largest number of digits of a unix time
+	final static int UNIX_TIME_DIGITS = 12;
+
+	// Rules of the local time zone
+	final static ZoneRules ZONE = ZoneId.systemDefault().getRules();
+
+	// Offset of the local time zone in seconds if it never changes, else
+	// Integer.MIN_VALUE
+	final static int FIXED_OFFSET = ZONE.isFixedOffset() ? ZONE.getOffset(Instant.EPOCH).getTotalSeconds()
+			: Integer.MIN_VALUE;
+
+	// Number of days from 0000-03-01 to 1970-01-01
+	final static int EPOCH_DAYS = 719468;
+
+	/**
+	 * Parses a command into the given plan.
+	 *
+	 * @param query the command
+	 * @param plan  the plan to fill
+	 * @return boolean true if the command is valid, else false
+	 */
+	public static boolean parse(final CharSequence query, final QueryPlan plan) {
+		plan.clear();
+		final int end = query.length();
+		int pos = skipSpaces(query, 0, end);
+
+		int tokenEnd = tokenEnd(query, pos, end);
+		plan.command = keyword(query, pos, tokenEnd, QueryPlan.QUERY, QueryPlan.WHERE);
+		if (plan.command == QueryPlan.STATS) {
+			return skipSpaces(query, tokenEnd, end) == end;
+		}
+		if (plan.command < 0 || (pos = space(query, tokenEnd, end)) < 0) {
+			return false;
+		}
+
+		if (plan.command == QueryPlan.TOP) {
+			tokenEnd = tokenEnd(query, pos, end);
+			if (tokenEnd - pos > 4 || query.charAt(pos) == '0' || digitsEnd(query, pos, end) != tokenEnd) {
+				return false;
+			}
+			plan.topN = (int) number(query, pos, tokenEnd);
+			pos = tokenEnd;
+		} else {
+			pos = parseTarget(query, pos, end, plan);
+			if (pos < 0 || (pos = space(query, pos, end)) < 0 || (pos = parseCpu(query, pos, end, plan)) < 0) {
+				return false;
+			}
+		}
+
+		if ((pos = space(query, pos, end)) < 0 || (pos = parseTime(query, pos, end, plan, false)) < 0
+				|| (pos = space(query, pos, end)) < 0 || (pos = parseTime(query, pos, end, plan, true)) < 0) {
+			return false;
+		}
+
+		if (plan.command == QueryPlan.TOP) {
+			int next = skipSpaces(query, pos, end);
+			if (next > pos && next < end && tokenEnd(query, next, end) == next + 1) {
+				pos = parseCpu(query, next, end, plan);
+				if (pos < 0) {
+					return false;
+				}
+				next = skipSpaces(query, pos, end);
+			}
+			if (next > pos && next < end) {
+				tokenEnd = tokenEnd(query, next, end);
+				final int rank = keyword(query, next, tokenEnd, QueryPlan.AVG, QueryPlan.MAX);
+				if (rank != QueryPlan.AVG && rank != QueryPlan.MAX) {
+					return false;
+				}
+				plan.peak = rank == QueryPlan.MAX;
+				pos = tokenEnd;
+			}
+		} else if (plan.command == QueryPlan.QUERY) {
+			final int next = skipSpaces(query, pos, end);
+			if (next > pos && next < end) {
+				tokenEnd = tokenEnd(query, next, end);
+				if (!matches(query, next, tokenEnd, QueryPlan.RESOLUTION) || (pos = space(query, tokenEnd, end)) < 0
+						|| (pos = parseResolution(query, pos, end, plan)) < 0) {
+					return false;
+				}
+			}
+		} else if (plan.command == QueryPlan.WHERE) {
+			if ((pos = space(query, pos, end)) < 0 || (pos = parseCondition(query, pos, end, plan)) < 0) {
+				return false;
+			}
+			final int next = skipSpaces(query, pos, end);
+			if (next > pos && next < end) {
+				tokenEnd = tokenEnd(query, next, end);
+				if (!matches(query, next, tokenEnd, QueryPlan.FOR) || (pos = space(query, tokenEnd, end)) < 0) {
+					return false;
+				}
+				tokenEnd = tokenEnd(query, pos, end);
+				if (tokenEnd - pos > 4 || query.charAt(pos) == '0' || digitsEnd(query, pos, end) != tokenEnd) {
+					return false;
+				}
+				plan.sustained = (int) number(query, pos, tokenEnd);
+				pos = tokenEnd;
+			}
+		}
+		return skipSpaces(query, pos, end) == end;
+	}
+
+	/**
+	 * Parses a time stamp or unix time.
+	 *
+	 * @param timeStamp the time stamp
+	 * @return long the unix time, or Long.MIN_VALUE if it is not a valid time
+	 */
+	public static long parseTime(final CharSequence timeStamp) {
+		final QueryPlan plan = new QueryPlan();
+		final int end = timeStamp.length();
+		final int pos = parseTime(timeStamp, 0, end, plan, false);
+		return pos == end ? plan.unixStart : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Packs the IP Address in the given characters into a 32 bit number.
+	 *
+	 * @param text the characters
+	 * @param from index of the first character of the IP Address
+	 * @param to   index just after the last character of the IP Address
+	 * @return long the packed IP Address, or -1 if it is not a valid IP Address
+	 */
+	public static long parseIp(final CharSequence text, final int from, final int to) {
+		long ip = 0;
+		int octet = 0;
+		int octets = 0;
+		int digits = 0;
+		for (int i = from; i <= to; i++) {
+			final char c = i < to ? text.charAt(i) : '.';
+			if (c >= '0' && c <= '9' && digits < 3) {
+				octet = octet * 10 + (c - '0');
+				digits++;
+			} else if (c == '.' && digits > 0 && octet <= QueryCommand.IP_OCTET_MAX && octets < 4) {
+				ip = (ip << 8) | octet;
+				octets++;
+				octet = 0;
+				digits = 0;
+			} else {
+				return -1;
+			}
+		}
+		return octets == 4 ? ip : -1;
+	}
+
+	/**
+	 * Formats a unix time as a local time stamp (YYYY-MM-DD HH:MM).
+	 *
+	 * @param unixTime unix time
+	 * @return string the time stamp
+	 */
+	public static String formatTime(final long unixTime) {
+		return appendTime(new StringBuilder(16), unixTime).toString();
+	}
+
+	/**
+	 * Appends a unix time as a local time stamp (YYYY-MM-DD HH:MM).
+	 *
+	 * @param out      the builder to append to
+	 * @param unixTime unix time
+	 * @return StringBuilder the given builder
+	 */
+	public static StringBuilder appendTime(final StringBuilder out, final long unixTime) {
+		final long local = unixTime + offset(unixTime);
+		final int seconds = Math.floorMod(local, 86400);
+		appendDate(out, Math.floorDiv(local, 86400)).append(' ');
+		append(out, seconds / 3600, 2).append(':');
+		return append(out, seconds / 60 % 60, 2);
+	}
+
+	/**
+	 * Gives the offset of the local time zone at the given time.
+	 *
+	 * @param unixTime unix time
+	 * @return int the offset in seconds
+	 */
+	static int offset(final long unixTime) {
+		return FIXED_OFFSET != Integer.MIN_VALUE ? FIXED_OFFSET
+				: ZONE.getOffset(Instant.ofEpochSecond(unixTime)).getTotalSeconds();
+	}
+
+	/**
+	 * Formats a day as a date (YYYY-MM-DD).
+	 *
+	 * @param day days since 1970-01-01
+	 * @return string the date
+	 */
+	public static String formatDay(final long day) {
+		return appendDate(new StringBuilder(10), day).toString();
+	}
+
+	/**
+	 * Appends the date of the given day (YYYY-MM-DD).
+	 */
+	static StringBuilder appendDate(final StringBuilder out, final long days) {
+		// civil date of the day, counted in eras of 400 years starting on March 1st
+		final long z = days + EPOCH_DAYS;
+		final long era = Math.floorDiv(z, 146097);
+		final int dayOfEra = (int) (z - era * 146097);
+		final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		final int mp = (5 * dayOfYear + 2) / 153;
+		final int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		final int month = mp < 10 ? mp + 3 : mp - 9;
+		final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		append(out, year, 4).append('-');
+		append(out, month, 2).append('-');
+		return append(out, day, 2);
+	}
+
+	/**
+	 * Appends a number padded with zeros to the given number of digits.
+	 */
+	static StringBuilder append(final StringBuilder out, final long value, final int digits) {
+		for (long limit = 10, i = 1; i < digits; i++, limit *= 10) {
+			if (value < limit) {
+				out.append('0');
+			}
+		}
+		return out.append(value);
+	}
+
+	/**
+	 * Gives the number of days since 1970-01-01 of the given date. Days beyond the
+	 * end of the month roll over into the next month.
+	 */
+	static long daysFromCivil(final int year, final int month, final int day) {
+		final int y = month <= 2 ? year - 1 : year;
+		final int era = Math.floorDiv(y, 400);
+		final int yearOfEra = y - era * 400;
+		final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - EPOCH_DAYS;
+	}
+
+	/**
+	 * Converts a local time, given as the seconds since 1970-01-01 00:00 on the
+	 * local clock, into unix time.
+	 */
+	static long toUnix(final long local) {
+		if (FIXED_OFFSET != Integer.MIN_VALUE) {
+			return local - FIXED_OFFSET;
+		}
+		return local - ZONE.getOffset(LocalDateTime.ofEpochSecond(local, 0, ZoneOffset.UTC)).getTotalSeconds();
+	}
+
+	/**
+	 * Parses the IP Address or network of the targeted servers.
+	 *
+	 * @return int index after the target, or -1 if it is not valid
+	 */
+	static int parseTarget(final CharSequence query, final int pos, final int end, final QueryPlan plan) {
+		final int tokenEnd = tokenEnd(query, pos, end);
+		int slash = pos;
+		while (slash < tokenEnd && query.charAt(slash) != '/') {
+			slash++;
+		}
+		final long ip = parseIp(query, pos, slash);
+		if (ip < 0) {
+			return -1;
+		}
+		if (slash < tokenEnd) {
+			if (tokenEnd - slash > 3 || digitsEnd(query, slash + 1, tokenEnd) != tokenEnd || slash + 1 == tokenEnd) {
+				return -1;
+			}
+			plan.prefixLength = (int) number(query, slash + 1, tokenEnd);
+			if (plan.prefixLength > 32) {
+				return -1;
+			}
+		}
+		plan.ip = (int) ip & plan.mask();
+		return tokenEnd;
+	}
+
+	/**
+	 * Parses a CPU ID: 0, 1 or * for both CPUs.
+	 *
+	 * @return int index after the CPU ID, or -1 if it is not valid
+	 */
+	static int parseCpu(final CharSequence query, final int pos, final int end, final QueryPlan plan) {
+		if (tokenEnd(query, pos, end) != pos + 1) {
+			return -1;
+		}
+		final char c = query.charAt(pos);
+		if (c == '*') {
+			plan.cpuId = QueryPlan.ALL_CPUS;
+		} else if (c >= '0' && c < '0' + SegmentStore.CPUS) {
+			plan.cpuId = c - '0';
+		} else {
+			return -1;
+		}
+		return pos + 1;
+	}
+
+	/**
+	 * Parses the resolution of QUERY: 1m, 5m, 1h or 1d.
+	 *
+	 * @return int index after the resolution, or -1 if it is not valid
+	 */
+	static int parseResolution(final CharSequence query, final int pos, final int end, final QueryPlan plan) {
+		final int tokenEnd = tokenEnd(query, pos, end);
+		for (int i = 0; i < QueryPlan.RESOLUTIONS.length; i++) {
+			if (matches(query, pos, tokenEnd, QueryPlan.RESOLUTIONS[i])) {
+				plan.resolution = QueryPlan.RESOLUTION_MINUTES[i];
+				return tokenEnd;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses the condition of WHERE on the usage values into the inclusive range
+	 * of the plan: USAGE followed by &gt;, &gt;=, &lt; or &lt;= and a usage value,
+	 * or by BETWEEN usage AND usage.
+	 *
+	 * @return int index after the condition, or -1 if it is not valid or no usage
+	 *         value meets it
+	 */
+	static int parseCondition(final CharSequence query, int pos, final int end, final QueryPlan plan) {
+		int tokenEnd = tokenEnd(query, pos, end);
+		if (!matches(query, pos, tokenEnd, QueryPlan.USAGE) || (pos = space(query, tokenEnd, end)) < 0) {
+			return -1;
+		}
+		tokenEnd = tokenEnd(query, pos, end);
+		final boolean between = matches(query, pos, tokenEnd, QueryPlan.BETWEEN);
+		final char op = query.charAt(pos);
+		final boolean inclusive = tokenEnd == pos + 2 && query.charAt(pos + 1) == '=';
+		if (!between && ((op != '>' && op != '<') || (tokenEnd != pos + 1 && !inclusive))) {
+			return -1;
+		}
+		if ((pos = space(query, tokenEnd, end)) < 0) {
+			return -1;
+		}
+		tokenEnd = tokenEnd(query, pos, end);
+		final int usage = usage(query, pos, tokenEnd);
+		if (usage < 0) {
+			return -1;
+		}
+		if (between) {
+			plan.low = usage;
+			if ((pos = space(query, tokenEnd, end)) < 0
+					|| !matches(query, pos, tokenEnd = tokenEnd(query, pos, end), QueryPlan.AND)
+					|| (pos = space(query, tokenEnd, end)) < 0) {
+				return -1;
+			}
+			tokenEnd = tokenEnd(query, pos, end);
+			plan.high = usage(query, pos, tokenEnd);
+		} else if (op == '>') {
+			plan.low = inclusive ? usage : usage + 1;
+		} else {
+			plan.high = inclusive ? usage : usage - 1;
+		}
+		return plan.low <= plan.high && plan.high >= 0 && plan.low <= QueryPlan.USAGE_MAX ? tokenEnd : -1;
+	}
+
+	/**
+	 * Gives the usage value in the given characters.
+	 *
+	 * @return int the usage value, or -1 if it is not a number from 0 to 100
+	 */
+	static int usage(final CharSequence query, final int from, final int to) {
+		if (to == from || to - from > 3 || digitsEnd(query, from, to) != to) {
+			return -1;
+		}
+		final long usage = number(query, from, to);
+		return usage <= QueryPlan.USAGE_MAX ? (int) usage : -1;
+	}
+
+	/**
+	 * Parses a time stamp or unix time into the start or end time of the plan.
+	 *
+	 * @return int index after the time, or -1 if it is not valid
+	 */
+	static int parseTime(final CharSequence query, final int pos, final int end, final QueryPlan plan,
+			final boolean isEnd) {
+		int p = digitsEnd(query, pos, end);
+		long time;
+		if (p - pos == 4 && p < end && query.charAt(p) == '-') {
+			final int year = (int) number(query, pos, p);
+			final int month = twoDigits(query, p + 1, end);
+			final int day = twoDigits(query, p + 4, end);
+			if (month < 1 || month > 12 || day < 1 || day > 31 || query.charAt(p + 3) != '-' || p + 6 >= end
+					|| (query.charAt(p + 6) != ' ' && query.charAt(p + 6) != 'T')) {
+				return -1;
+			}
+			p += 7;
+			final int hour = twoDigits(query, p, end);
+			final int minute = twoDigits(query, p + 3, end);
+			if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || query.charAt(p + 2) != ':') {
+				return -1;
+			}
+			p += 5;
+			int second = 0;
+			if (p < end && query.charAt(p) == ':') {
+				second = twoDigits(query, p + 1, end);
+				if (second < 0 || second > 59) {
+					return -1;
+				}
+				p += 3;
+			}
+			time = daysFromCivil(year, month, day) * 86400 + hour * 3600 + minute * 60 + second;
+			if (p < end && query.charAt(p) == 'Z') {
+				p++;
+			} else {
+				time = toUnix(time);
+			}
+		} else {
+			if (p == pos || p - pos > UNIX_TIME_DIGITS) {
+				return -1;
+			}
+			time = number(query, pos, p);
+		}
+
+		if (p < end && !Character.isWhitespace(query.charAt(p))) {
+			return -1;
+		}
+		if (isEnd) {
+			plan.unixEnd = time;
+		} else {
+			plan.unixStart = time;
+		}
+		return p;
+	}
+
+	/**
+	 * Gives the value of two decimal digits.
+	 *
+	 * @return int the value, or -1 if they are not two digits
+	 */
+	static int twoDigits(final CharSequence query, final int pos, final int end) {
+		if (pos + 2 > end || digitsEnd(query, pos, pos + 2) != pos + 2) {
+			return -1;
+		}
+		return (query.charAt(pos) - '0') * 10 + query.charAt(pos + 1) - '0';
+	}
+
+	/**
+	 * Gives the value of the decimal digits between the given indexes.
+	 */
+	static long number(final CharSequence query, final int from, final int to) {
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			value = value * 10 + query.charAt(i) - '0';
+		}
+		return value;
+	}
+
+	/**
+	 * Gives the index just after the decimal digits starting at the given index.
+	 */
+	static int digitsEnd(final CharSequence query, int pos, final int end) {
+		while (pos < end && query.charAt(pos) >= '0' && query.charAt(pos) <= '9') {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Gives the index just after the token starting at the given index.
+	 */
+	static int tokenEnd(final CharSequence query, int pos, final int end) {
+		while (pos < end && !Character.isWhitespace(query.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Gives the index of the first character which is not a white space.
+	 */
+	static int skipSpaces(final CharSequence query, int pos, final int end) {
+		while (pos < end && Character.isWhitespace(query.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Skips the white space separating two tokens.
+	 *
+	 * @return int index of the next token, or -1 if there is no white space or no
+	 *         next token
+	 */
+	static int space(final CharSequence query, final int pos, final int end) {
+		final int next = skipSpaces(query, pos, end);
+		return next > pos && next < end ? next : -1;
+	}
+
+	/**
+	 * Finds the command with the given name among the commands from first to last.
+	 *
+	 * @return int the command, or -1 if there is no such command
+	 */
+	static int keyword(final CharSequence query, final int from, final int to, final int first, final int last) {
+		for (int command = first; command <= last; command++) {
+			if (matches(query, from, to, QueryPlan.NAMES[command])) {
+				return command;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if the given characters are the given word.
+	 *
+	 * @param query the command
+	 * @param from  index of the first character
+	 * @param to    index just after the last character
+	 * @param word  the word
+	 * @return boolean true if the characters are the word
+	 */
+	static boolean matches(final CharSequence query, final int from, final int to, final String word) {
+		if (word.length() != to - from) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) != query.charAt(from + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,169 @@
+/**
+ * <h1>Plan of a command</h1> Holds everything the {@link QueryParser} found in
+ * a command as primitives: the command, the servers and CPUs it targets and the
+ * time range as unix times. A plan is filled in place by the parser, so the
+ * same plan can be reused for many commands.
+ * <p>
+ * The servers are given as a network address and a prefix length, so a single
+ * IP Address is a network with a prefix length of 32.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class QueryPlan {
+	// Commands
+	final static int QUERY = 0;
+	final static int AVG = 1;
+	final static int MIN = 2;
+	final static int MAX = 3;
+	final static int SUM = 4;
+	final static int COUNT = 5;
+	final static int TOP = 6;
+	final static int STATS = 7;
+	final static int WHERE = 8;
+
+	// Names of the commands, indexed by command
+	final static String NAMES[] = { "QUERY", "AVG", "MIN", "MAX", "SUM", "COUNT", "TOP", "STATS", "WHERE" };
+
+	// CPU ID which stands for both CPUs
+	final static int ALL_CPUS = -1;
+
+	// Keyword of the resolution of QUERY
+	final static String RESOLUTION = "RESOLUTION";
+
+	// Resolutions of QUERY and their number of minutes per value
+	final static String RESOLUTIONS[] = { "1m", "5m", "1h", "1d" };
+	final static int RESOLUTION_MINUTES[] = { 1, 5, 60, 24 * 60 };
+
+	// Resolution of a QUERY which doesn't give one, picked from its time range
+	final static int AUTO_RESOLUTION = 0;
+
+	// Keywords of the condition of WHERE
+	final static String USAGE = "USAGE";
+	final static String BETWEEN = "BETWEEN";
+	final static String AND = "AND";
+	final static String FOR = "FOR";
+
+	// Largest usage value
+	final static int USAGE_MAX = 100;
+
+	// The command
+	int command;
+
+	// Network address of the targeted servers, with the host bits cleared
+	int ip;
+
+	// Prefix length of the network of the targeted servers, 32 for a single server
+	int prefixLength;
+
+	// CPU ID, or ALL_CPUS for both CPUs
+	int cpuId;
+
+	// Starting unix time, inclusive
+	long unixStart;
+
+	// Ending unix time, exclusive
+	long unixEnd;
+
+	// Number of servers of the TOP command
+	int topN;
+
+	// true if the TOP command ranks by the peak usage, false by the mean usage
+	boolean peak;
+
+	// Number of minutes per value shown by QUERY, or AUTO_RESOLUTION
+	int resolution;
+
+	// Lowest usage value searched by WHERE, inclusive
+	int low;
+
+	// Highest usage value searched by WHERE, inclusive
+	int high;
+
+	// Number of consecutive minutes for which WHERE needs the usage values in
+	// the range
+	int sustained;
+
+	/**
+	 * Resets the plan to an empty QUERY command.
+	 */
+	void clear() {
+		command = QUERY;
+		ip = 0;
+		prefixLength = 32;
+		cpuId = ALL_CPUS;
+		unixStart = 0;
+		unixEnd = 0;
+		topN = 0;
+		peak = false;
+		resolution = AUTO_RESOLUTION;
+		low = 0;
+		high = USAGE_MAX;
+		sustained = 1;
+	}
+
+	/**
+	 * Gives the name of a resolution of QUERY.
+	 *
+	 * @param minutes number of minutes per value
+	 * @return string the name, such as 5m
+	 */
+	static String resolution(final int minutes) {
+		for (int i = 0; i < RESOLUTIONS.length; i++) {
+			if (RESOLUTION_MINUTES[i] == minutes) {
+				return RESOLUTIONS[i];
+			}
+		}
+		return minutes + "m";
+	}
+
+	/**
+	 * Gives the network mask of the targeted servers.
+	 *
+	 * @return int the network mask
+	 */
+	int mask() {
+		return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+	}
+
+	/**
+	 * Checks if the plan targets exactly one server and CPU.
+	 *
+	 * @return boolean true if a single row is targeted
+	 */
+	boolean isSingleRow() {
+		return prefixLength == 32 && cpuId != ALL_CPUS;
+	}
+
+	/**
+	 * Checks if the row with the given packed IP Address and CPU ID is targeted by
+	 * the plan.
+	 *
+	 * @param key packed IP Address and CPU ID (see {@link RowIndex#key})
+	 * @return boolean true if the row is targeted
+	 */
+	boolean matches(final long key) {
+		return ((int) (key >>> 1) & mask()) == ip && (cpuId == ALL_CPUS || (key & 1) == cpuId);
+	}
+
+	/**
+	 * Gives the targeted servers as they are shown to the user.
+	 *
+	 * @return string the IP Address, or the network in CIDR notation
+	 */
+	String target() {
+		return prefixLength == 32 ? QueryCommand.ipToString(ip)
+				: QueryCommand.ipToString(ip) + "/" + prefixLength;
+	}
+
+	/**
+	 * Gives the targeted CPUs as they are shown to the user.
+	 *
+	 * @return string the CPU ID, or "*" for both CPUs
+	 */
+	String cpu() {
+		return cpuId == ALL_CPUS ? "*" : Integer.toString(cpuId);
+	}
+
+}
@@ -0,0 +1,229 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Network query server</h1> Serves the commands over a TCP socket on the
+ * loopback address, so that other programs can run commands against a store
+ * which is opened once instead of starting the tool for every command. The
+ * protocol is line based: a client sends one command per line and gets back
+ * the output of the command, as it would be printed on the console, followed
+ * by an empty line. A client can send many commands without waiting for their
+ * outputs; the outputs are flushed when no more commands are waiting. EXIT
+ * closes the connection.
+ * <p>
+ * Each connection is served on its own virtual thread if the Java runtime has
+ * them, else on a thread of a cached pool. All the connections share the
+ * segment cache of the store and every command reads the snapshot of the store
+ * which was current when it started (see {@link StoreSnapshot}), without any
+ * locking, so any number of commands run at the same time.
+ * <p>
+ * The time taken by every command is recorded in a latency histogram (see
+ * {@link Metrics.Latency}), whose percentiles are printed when the server is
+ * stopped and by the STATS command.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class QueryServer implements Runnable {
+	// Number of connections which can wait to be accepted
+	final static int BACKLOG = 1024;
+
+	// Size of the output buffer of a connection
+	final static int OUTPUT_BUFFER_BYTES = 1 << 13;
+
+	// The listening socket
+	final ServerSocket socket;
+
+	// Runs the connections, on virtual threads if the runtime has them
+	final ExecutorService executor;
+
+	// true if the connections run on virtual threads
+	final boolean virtual;
+
+	// Latency of the commands served
+	final Metrics.Latency latency = new Metrics.Latency();
+
+	// Number of connections accepted
+	final AtomicLong connections = new AtomicLong();
+
+	// The open connections, closed with the server
+	final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+	// Time at which the server was started in nanoseconds
+	final long started = System.nanoTime();
+
+	// Thread accepting the connections
+	Thread acceptor;
+
+	/**
+	 * Opens the listening socket on the loopback address.
+	 *
+	 * @param port port to listen on, or 0 for any free port
+	 * @exception IOException if the port can't be bound
+	 */
+	public QueryServer(final int port) throws IOException {
+		socket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+		final ExecutorService threads = virtualThreads();
+		virtual = threads != null;
+		executor = virtual ? threads : Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(r, "query-connection");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Gives an executor which starts a virtual thread for every task. It is looked
+	 * up by reflection, so the tool still builds and runs on a Java runtime
+	 * without virtual threads.
+	 *
+	 * @return ExecutorService the executor, or null if the runtime has no virtual
+	 *         threads
+	 */
+	static ExecutorService virtualThreads() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts a server accepting connections on a daemon thread.
+	 *
+	 * @param port port to listen on, or 0 for any free port
+	 * @return QueryServer the started server
+	 * @exception IOException if the port can't be bound
+	 */
+	public static QueryServer start(final int port) throws IOException {
+		final QueryServer server = new QueryServer(port);
+		server.acceptor = new Thread(server, "query-server");
+		server.acceptor.setDaemon(true);
+		server.acceptor.start();
+		return server;
+	}
+
+	/**
+	 * Gives the port the server listens on.
+	 *
+	 * @return int the port
+	 */
+	public int port() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the server is closed.
+	 */
+	@Override
+	public void run() {
+		while (!socket.isClosed()) {
+			try {
+				final Socket client = socket.accept();
+				client.setTcpNoDelay(true);
+				connections.incrementAndGet();
+				clients.add(client);
+				executor.execute(() -> serve(client));
+			} catch (IOException e) {
+				if (!socket.isClosed()) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the commands of a connection until the client closes it or sends EXIT.
+	 *
+	 * @param client the connection
+	 */
+	void serve(final Socket client) {
+		try (Socket c = client;
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(c.getInputStream(), StandardCharsets.US_ASCII));
+				PrintStream out = new PrintStream(new BufferedOutputStream(c.getOutputStream(), OUTPUT_BUFFER_BYTES),
+						false, StandardCharsets.US_ASCII)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				if (line.trim().equalsIgnoreCase("EXIT")) {
+					break;
+				}
+				final long begin = System.nanoTime();
+				QueryCommand.execute(line, out);
+				latency.record(System.nanoTime() - begin);
+				out.println();
+				// pipelined commands are answered in one write
+				if (!in.ready()) {
+					out.flush();
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			// the client closed the connection, or the server was closed
+		} finally {
+			clients.remove(client);
+		}
+	}
+
+	/**
+	 * Blocks until the server is closed.
+	 *
+	 * @exception InterruptedException
+	 */
+	public void join() throws InterruptedException {
+		acceptor.join();
+	}
+
+	/**
+	 * Stops accepting connections and closes the open connections. A command
+	 * being run on a connection is not waited for; its output is dropped.
+	 */
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		// once the acceptor has stopped, no connection is added any more
+		try {
+			if (acceptor != null) {
+				acceptor.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Socket client : clients) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// the connection is closed anyway
+			}
+		}
+		executor.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		final long count = latency.count();
+		final double seconds = (System.nanoTime() - started) / 1e9;
+		return String.format("Served %,d commands on %,d connections (%,.0f commands/s, %s threads): latency %s",
+				count, connections.get(), count / seconds, virtual ? "virtual" : "platform", latency);
+	}
+
+}
@@ -0,0 +1,278 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <h1>Range aggregates of a segment</h1> Answers SUM, COUNT, AVG, MIN and MAX
+ * queries over a range of minutes of a row without scanning most of the range.
+ * The index is built once when the segment is written and is stored in the
+ * segment file after the usage matrix. For every row it holds the sum, count,
+ * minimum and maximum of the usage values of every block of BLOCK minutes, 5
+ * bytes per block, so the full blocks of a range are added up from the index
+ * and at most 2 * (BLOCK - 1) values at the edges of the range are read from
+ * the usage matrix. A block is a quarter of an hour, so the index of a row of
+ * an hour takes 20 bytes next to its 60 usage values. Ranges of whole hours and
+ * days are read from the rollups instead (see {@link Rollup}).
+ * <p>
+ * A minute for which no log was recorded is left out of all the aggregates.
+ * <p>
+ * When usage values are stored in a segment after the index was built, their
+ * rows are marked as changed from their minute on (see {@link #markChanged})
+ * and the index of the changed blocks of those rows is built again in place by
+ * {@link #refresh}.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class RangeIndex {
+	// Number of minutes in a block
+	final static int BLOCK = 15;
+
+	// Size of the aggregate of a block: sum (char), count, min and max (byte each)
+	final static int BLOCK_BYTES = 5;
+
+	// Minimum stored for a block without any logs
+	final static byte NO_MIN = Byte.MAX_VALUE;
+
+	/**
+	 * Aggregate of the usage values of a range. Aggregates of consecutive ranges
+	 * are combined by adding them up.
+	 */
+	public static class Aggregate {
+		// Sum of the usage values
+		long sum = 0;
+
+		// Number of the usage values
+		int count = 0;
+
+		// Minimum usage value
+		int min = NO_MIN;
+
+		// Maximum usage value
+		int max = SegmentStore.MISSING;
+
+		/**
+		 * Gives the average usage value.
+		 *
+		 * @return double the average, or NaN if there are no usage values
+		 */
+		public double avg() {
+			return count == 0 ? Double.NaN : (double) sum / count;
+		}
+
+		/**
+		 * Clears the aggregate so that it can be reused.
+		 */
+		public void clear() {
+			sum = 0;
+			count = 0;
+			min = NO_MIN;
+			max = SegmentStore.MISSING;
+		}
+	}
+
+	// Number of minutes in the segment
+	final int minutes;
+
+	// Number of rows in the segment
+	final int rows;
+
+	// Number of blocks per row
+	final int blocks;
+
+	// Usage matrix of the segment
+	final ByteBuffer data;
+
+	// Index laid out as [row][block], each block as: char sum, byte count,
+	// byte min, byte max
+	final ByteBuffer index;
+
+	// First changed minute of each row, or minutes if the row didn't change. Only
+	// created once a row changes.
+	int changedFrom[] = null;
+
+	/**
+	 * Wraps an index built for the given usage matrix.
+	 *
+	 * @param minutes number of minutes in the segment
+	 * @param rows    number of rows in the segment
+	 * @param data    usage matrix of the segment
+	 * @param index   the index
+	 */
+	public RangeIndex(final int minutes, final int rows, final ByteBuffer data, final ByteBuffer index) {
+		this.minutes = minutes;
+		this.rows = rows;
+		this.blocks = (minutes + BLOCK - 1) / BLOCK;
+		this.data = data;
+		this.index = index;
+	}
+
+	/**
+	 * Gives the number of bytes of the index of a segment.
+	 *
+	 * @param minutes number of minutes in the segment
+	 * @param rows    number of rows in the segment
+	 * @return int number of bytes
+	 */
+	public static int bytes(final int minutes, final int rows) {
+		return (minutes + BLOCK - 1) / BLOCK * BLOCK_BYTES * rows;
+	}
+
+	/**
+	 * Builds the index of the given usage matrix. The matrix is read minute by
+	 * minute, and the usage values of all the rows of a minute are added to the
+	 * aggregates of their block by the scan kernels (see {@link UsageKernels}).
+	 *
+	 * @param minutes number of minutes in the segment
+	 * @param rows    number of rows in the segment
+	 * @param data    usage matrix of the segment
+	 * @return RangeIndex the index
+	 */
+	public static RangeIndex build(final int minutes, final int rows, final ByteBuffer data) {
+		final RangeIndex ri = new RangeIndex(minutes, rows, data,
+				ByteBuffer.allocateDirect(bytes(minutes, rows)));
+		final UsageKernels kernels = UsageKernels.kernels;
+		final byte usages[] = new byte[rows];
+		final int sums[] = new int[rows];
+		final int counts[] = new int[rows];
+		final byte mins[] = new byte[rows];
+		final byte maxs[] = new byte[rows];
+		for (int block = 0; block < ri.blocks; block++) {
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			Arrays.fill(mins, NO_MIN);
+			Arrays.fill(maxs, SegmentStore.MISSING);
+			for (int minute = block * BLOCK; minute < Math.min(minutes, (block + 1) * BLOCK); minute++) {
+				data.get(minute * rows, usages, 0, rows);
+				kernels.accumulate(usages, rows, sums, counts, mins, maxs);
+			}
+			for (int row = 0; row < rows; row++) {
+				ri.put(row, block, sums[row], counts[row], mins[row], maxs[row]);
+			}
+		}
+		return ri;
+	}
+
+	/**
+	 * Stores the aggregate of a block of a row.
+	 */
+	void put(final int row, final int block, final int sum, final int count, final int min, final int max) {
+		final int offset = (row * blocks + block) * BLOCK_BYTES;
+		index.putChar(offset, (char) sum).put(offset + 2, (byte) count).put(offset + 3, (byte) min).put(offset + 4,
+				(byte) max);
+	}
+
+	/**
+	 * Builds the index of a row from the block of the given minute on. The index
+	 * of the blocks before it is left as it is.
+	 *
+	 * @param row  row of the IP Address and CPU ID
+	 * @param from first minute to build the index for
+	 */
+	void buildRow(final int row, final int from) {
+		for (int block = from / BLOCK; block < blocks; block++) {
+			int sum = 0;
+			int count = 0;
+			int min = NO_MIN;
+			int max = SegmentStore.MISSING;
+			for (int minute = block * BLOCK; minute < Math.min(minutes, (block + 1) * BLOCK); minute++) {
+				final int usage = data.get(minute * rows + row);
+				if (usage != SegmentStore.MISSING) {
+					sum += usage;
+					count++;
+					min = Math.min(min, usage);
+					max = Math.max(max, usage);
+				}
+			}
+			put(row, block, sum, count, min, max);
+		}
+	}
+
+	/**
+	 * Marks a row as changed from the given minute on, after a usage value was
+	 * stored in the usage matrix.
+	 *
+	 * @param row    row of the IP Address and CPU ID
+	 * @param minute minute of the stored usage value
+	 */
+	public void markChanged(final int row, final int minute) {
+		if (changedFrom == null) {
+			changedFrom = new int[rows];
+			Arrays.fill(changedFrom, minutes);
+		}
+		changedFrom[row] = Math.min(changedFrom[row], minute);
+	}
+
+	/**
+	 * Builds the index of the changed rows again from their first changed minute
+	 * on.
+	 */
+	public void refresh() {
+		if (changedFrom == null) {
+			return;
+		}
+		for (int row = 0; row < rows; row++) {
+			if (changedFrom[row] < minutes) {
+				buildRow(row, changedFrom[row]);
+				changedFrom[row] = minutes;
+			}
+		}
+	}
+
+	/**
+	 * Adds the usage values of the given row and range of minutes to the
+	 * aggregate.
+	 *
+	 * @param row  row of the IP Address and CPU ID
+	 * @param from first minute of the range
+	 * @param to   minute after the last minute of the range
+	 * @param agg  the aggregate
+	 */
+	public void aggregate(final int row, final int from, final int to, final Aggregate agg) {
+		if (from >= to) {
+			return;
+		}
+
+		// full blocks of the range from the index, edges from the usage matrix
+		final int firstBlock = (from + BLOCK - 1) / BLOCK;
+		final int lastBlock = to / BLOCK;
+		if (firstBlock >= lastBlock) {
+			scan(row, from, to, agg);
+			return;
+		}
+		scan(row, from, firstBlock * BLOCK, agg);
+		scan(row, lastBlock * BLOCK, to, agg);
+		for (int block = firstBlock; block < lastBlock; block++) {
+			final int offset = (row * blocks + block) * BLOCK_BYTES;
+			final int count = index.get(offset + 2);
+			if (count > 0) {
+				agg.sum += index.getChar(offset);
+				agg.count += count;
+				agg.min = Math.min(agg.min, index.get(offset + 3));
+				agg.max = Math.max(agg.max, index.get(offset + 4));
+			}
+		}
+	}
+
+	/**
+	 * Adds the usage values of the given row and range of minutes to the
+	 * aggregate by reading the usage matrix.
+	 *
+	 * @param row  row of the IP Address and CPU ID
+	 * @param from first minute of the range
+	 * @param to   minute after the last minute of the range
+	 * @param agg  the aggregate
+	 */
+	void scan(final int row, final int from, final int to, final Aggregate agg) {
+		for (int minute = from; minute < to; minute++) {
+			final int usage = data.get(minute * rows + row);
+			if (usage != SegmentStore.MISSING) {
+				agg.sum += usage;
+				agg.count++;
+				agg.min = Math.min(agg.min, usage);
+				agg.max = Math.max(agg.max, usage);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,334 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>Cache of the QUERY results</h1> Keeps the usage values which QUERY read
+ * for a server and CPU, as a range of minutes, so a dashboard which sends the
+ * same QUERY again with a window shifted by a few minutes gets the overlapping
+ * minutes from the cache and only the minutes at the edges are read from their
+ * segments. The results are cached by the packed IP Address and CPU ID, one
+ * range per server and CPU: a range which overlaps or touches the cached one
+ * is merged with it, up to MAX_MINUTES, and any other range replaces it. When
+ * the cached results exceed the given memory budget, the results of the least
+ * recently queried servers and CPUs are evicted.
+ * <p>
+ * A range records the checksum of every segment it was read from, so a cached
+ * minute is only used by a command whose {@link StoreSnapshot} has the same
+ * version of its segment; the minutes of a segment which was written again
+ * since, by --follow, are read again. A cached range is never changed, so
+ * commands running at the same time only hold the lock of the cache to get or
+ * put a range.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class ResultCache {
+	// Largest number of minutes cached for a server and CPU, a week
+	final static int MAX_MINUTES = 7 * 24 * 60;
+
+	// Bytes held by a cached range besides its usage values and checksums
+	final static int RANGE_OVERHEAD = 64;
+
+	/**
+	 * The usage values of a server and CPU for a range of minutes.
+	 */
+	static class Range {
+		// Row of the server and CPU in the segments
+		final int row;
+
+		// First minute of the range, counted from 1970-01-01
+		final long start;
+
+		// Usage value of every minute of the range, SegmentStore.MISSING if missing
+		final byte usages[];
+
+		// Checksum of the segment of every hour of the range, -1 if it wasn't
+		// written
+		final long crcs[];
+
+		/**
+		 * Creates a range.
+		 *
+		 * @param row    row of the server and CPU
+		 * @param start  first minute of the range
+		 * @param usages usage value of every minute
+		 * @param crcs   checksum of the segment of every hour
+		 */
+		Range(final int row, final long start, final byte usages[], final long crcs[]) {
+			this.row = row;
+			this.start = start;
+			this.usages = usages;
+			this.crcs = crcs;
+		}
+
+		/**
+		 * Gives the minute just after the range.
+		 *
+		 * @return long the minute
+		 */
+		long end() {
+			return start + usages.length;
+		}
+
+		/**
+		 * Gives the checksum of a segment of the range.
+		 *
+		 * @param segment the segment
+		 * @return long the checksum
+		 */
+		long crc(final int segment) {
+			return crcs[segment - (int) Math.floorDiv(start, QueryCommand.MINUTES_PER_FILE)];
+		}
+
+		/**
+		 * Gives the number of bytes held by the range.
+		 *
+		 * @return long the number of bytes
+		 */
+		long bytes() {
+			return RANGE_OVERHEAD + usages.length + crcs.length * 8L;
+		}
+	}
+
+	// Cached ranges by packed IP Address and CPU ID in least recently used order
+	final LinkedHashMap<Long, Range> ranges = new LinkedHashMap<>(16, 0.75f, true);
+
+	// Maximum number of bytes held by the cached ranges
+	final long budget;
+
+	// Number of bytes held by the cached ranges
+	long bytes = 0;
+
+	// Number of lookups whose minutes were all cached
+	long hits = 0;
+
+	// Number of lookups of which only some minutes were cached
+	long partialHits = 0;
+
+	// Number of lookups of which no minute was cached
+	long misses = 0;
+
+	// Number of ranges evicted from the cache
+	long evictions = 0;
+
+	// Number of minutes looked up and of those found in the cache
+	long minutes = 0;
+	long reusedMinutes = 0;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param budget maximum number of bytes held by the cached ranges
+	 */
+	public ResultCache(final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Fills the given array with the usage values of the given row for every
+	 * minute of the given time range, as QueryCommand.getUsages does. The minutes
+	 * which are cached for the same version of their segment are copied from the
+	 * cache, the others are read from the segments, and the range read is cached.
+	 *
+	 * @param snapshot  snapshot of the store
+	 * @param row       row of the IP Address and CPU ID
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param usages    receives the usage value of each minute, from the start
+	 * @return int number of minutes in which a log was recorded
+	 */
+	public int usages(final StoreSnapshot snapshot, final int row, final long unixStart, final long unixEnd,
+			final byte usages[]) {
+		final long key = snapshot.rows.keys[row];
+		final long start = Math.floorDiv(unixStart, 60);
+		final long end = Math.floorDiv(unixEnd, 60);
+		if (start >= end) {
+			return 0;
+		}
+		Range cached = get(key);
+		if (cached != null && cached.row != row) {
+			cached = null;
+		}
+		if (cached != null && cached.start <= start && end <= cached.end() && current(snapshot, cached, start, end)) {
+			// a window inside the cached range is copied without changing the range
+			hit(end - start);
+			int present = 0;
+			final int offset = (int) (start - cached.start);
+			for (int i = 0; i < end - start; i++) {
+				usages[i] = cached.usages[offset + i];
+				if (usages[i] != SegmentStore.MISSING) {
+					present++;
+				}
+			}
+			return present;
+		}
+
+		// the cached range is extended by the minutes read if they overlap or touch
+		long from = start;
+		long to = end;
+		if (cached != null && cached.start <= end && start <= cached.end()
+				&& Math.max(end, cached.end()) - Math.min(start, cached.start) <= MAX_MINUTES) {
+			from = Math.min(start, cached.start);
+			to = Math.max(end, cached.end());
+		}
+		final int firstSegment = (int) Math.floorDiv(from, QueryCommand.MINUTES_PER_FILE);
+		final byte values[] = new byte[(int) (to - from)];
+		final long crcs[] = new long[(int) Math.floorDiv(to - 1, QueryCommand.MINUTES_PER_FILE) - firstSegment + 1];
+		long reused = 0;
+		for (int i = 0; i < crcs.length; i++) {
+			final int s = firstSegment + i;
+			final long segmentMinute = (long) s * QueryCommand.MINUTES_PER_FILE;
+			final long a = Math.max(from, segmentMinute);
+			final long b = Math.min(to, segmentMinute + QueryCommand.MINUTES_PER_FILE);
+			crcs[i] = snapshot.crc(s);
+
+			// the minutes of the hour which are cached for this version of its segment
+			long c = a;
+			long d = a;
+			if (cached != null && a < cached.end() && cached.start < b && cached.crc(s) == crcs[i]) {
+				c = Math.max(a, cached.start);
+				d = Math.min(b, cached.end());
+				System.arraycopy(cached.usages, (int) (c - cached.start), values, (int) (c - from), (int) (d - c));
+				reused += Math.max(0, Math.min(d, end) - Math.max(c, start));
+			}
+			if (a < c || d < b) {
+				final SegmentStore segment = crcs[i] < 0 ? null : snapshot.segment(s);
+				read(segment, row, segmentMinute, a, c, values, from);
+				read(segment, row, segmentMinute, Math.max(a, d), b, values, from);
+			}
+		}
+		put(key, new Range(row, from, values, crcs), end - start, reused);
+
+		int present = 0;
+		final int offset = (int) (start - from);
+		for (int i = 0; i < end - start; i++) {
+			usages[i] = values[offset + i];
+			if (usages[i] != SegmentStore.MISSING) {
+				present++;
+			}
+		}
+		return present;
+	}
+
+	/**
+	 * Tells if the segments of the given minutes of a cached range are the
+	 * versions in a snapshot.
+	 *
+	 * @param snapshot snapshot of the store
+	 * @param range    the cached range
+	 * @param start    first minute
+	 * @param end      minute just after the last one
+	 * @return boolean true if every segment is the version in the snapshot
+	 */
+	static boolean current(final StoreSnapshot snapshot, final Range range, final long start, final long end) {
+		for (int s = (int) Math.floorDiv(start, QueryCommand.MINUTES_PER_FILE); s <= Math.floorDiv(end - 1,
+				QueryCommand.MINUTES_PER_FILE); s++) {
+			if (range.crc(s) != snapshot.crc(s)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the usage values of a row for some minutes of a segment.
+	 *
+	 * @param segment       the segment, null if it wasn't written or couldn't be
+	 *                      read
+	 * @param row           the row
+	 * @param segmentMinute first minute of the segment
+	 * @param from          first minute read
+	 * @param to            minute just after the last one read
+	 * @param values        receives the usage values
+	 * @param start         minute of the first value in values
+	 */
+	static void read(final SegmentStore segment, final int row, final long segmentMinute, final long from,
+			final long to, final byte values[], final long start) {
+		for (long minute = from; minute < to; minute++) {
+			values[(int) (minute - start)] = (byte) (segment == null || row >= segment.rows ? SegmentStore.MISSING
+					: QueryCommand.fetchFromCache(segment, row, (int) (minute - segmentMinute)));
+		}
+	}
+
+	/**
+	 * Gives the cached range of a server and CPU.
+	 *
+	 * @param key packed IP Address and CPU ID
+	 * @return Range the range, or null if none is cached
+	 */
+	synchronized Range get(final long key) {
+		return ranges.get(key);
+	}
+
+	/**
+	 * Counts a lookup whose minutes were all cached.
+	 *
+	 * @param looked number of minutes looked up
+	 */
+	synchronized void hit(final long looked) {
+		hits++;
+		minutes += looked;
+		reusedMinutes += looked;
+	}
+
+	/**
+	 * Puts the range of a server and CPU in the cache and counts the lookup.
+	 *
+	 * @param key    packed IP Address and CPU ID
+	 * @param range  the range
+	 * @param looked number of minutes looked up
+	 * @param reused number of the minutes looked up found in the cache
+	 */
+	synchronized void put(final long key, final Range range, final long looked, final long reused) {
+		if (reused == looked) {
+			hits++;
+		} else if (reused > 0) {
+			partialHits++;
+		} else {
+			misses++;
+		}
+		minutes += looked;
+		reusedMinutes += reused;
+
+		final Range old = ranges.put(key, range);
+		bytes += range.bytes() - (old == null ? 0 : old.bytes());
+
+		// evict the least recently used ranges, but never the one just put
+		final Iterator<Map.Entry<Long, Range>> it = ranges.entrySet().iterator();
+		while (bytes > budget && ranges.size() > 1) {
+			final Range evicted = it.next().getValue();
+			it.remove();
+			bytes -= evicted.bytes();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Gives the share of the minutes looked up which were found in the cache.
+	 *
+	 * @return double the hit ratio, 0 - 1
+	 */
+	public synchronized double hitRatio() {
+		return minutes > 0 ? (double) reusedMinutes / minutes : 0;
+	}
+
+	/**
+	 * Removes all the ranges from the cache.
+	 */
+	public synchronized void clear() {
+		ranges.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"Result cache: %d ranges, %,d of %,d bytes, %d hits, %d partial hits, %d misses, %d evictions, "
+						+ "hit ratio %.1f%% (%,d of %,d minutes)",
+				ranges.size(), bytes, budget, hits, partialHits, misses, evictions, hitRatio() * 100, reusedMinutes,
+				minutes);
+	}
+
+}
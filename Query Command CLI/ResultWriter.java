@@ -0,0 +1,570 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <h1>Writes the results of the commands</h1> Formats the results of a command
+ * straight into a byte buffer, which is written to the output stream in bulk
+ * when it is full and when the command is done. The usage values of QUERY are
+ * given as primitive bytes, one for every minute, and their time stamps are
+ * computed from the minute: the date is formatted once per day and the hour and
+ * minute by arithmetic, so printing a result of many servers over a day
+ * allocates nothing per value.
+ * <p>
+ * The results are written in one of four formats, chosen with --format:
+ * <ul>
+ * <li>text: the format of the question, (YYYY-MM-DD HH:MM, N%), ...</li>
+ * <li>csv: one line per usage value (ip,cpu_id,unix_time,time,usage), per
+ * bucket of a coarser resolution (ip,cpu_id,unix_time,time,minutes,count,avg,
+ * min,max), per aggregate (command,ip,cpu_id,start,end,value), per ranked
+ * server (rank,ip,score) or per run found by WHERE (ip,cpu_id,unix_time,start,
+ * end,minutes), after a header line</li>
+ * <li>ndjson: one JSON object per line with the same fields</li>
+ * <li>binary: big-endian records, each starting with its type: 'Q', the packed
+ * IP Address (int), the CPU ID (byte), the unix time of the first minute
+ * (long), the number of minutes (int) and a byte per minute, 0xFF for a
+ * missing minute; 'R', the packed IP Address (int), the CPU ID (byte), the
+ * unix time of the first bucket (long), the minutes per bucket (int), the
+ * number of buckets (int) and per bucket its count (short), sum (int), min and
+ * max (byte each, 0xFF if empty); 'A', the command (byte), count (long), sum
+ * (long), min and max (byte each); 'T', rank (int), packed IP Address (int), score (double);
+ * 'W', the packed IP Address (int), the CPU ID (byte), the unix time of the
+ * first minute (long) and the number of minutes (int) of a run;
+ * 'M', the length (short) and the ASCII bytes of a message</li>
+ * </ul>
+ * In the text format the outputs are exactly those of the console. In the other
+ * formats the empty results are left out and the errors are written as messages
+ * (lines starting with # in csv), and the program prints its own messages to
+ * stderr so that stdout only holds the results.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class ResultWriter {
+	// Formats
+	final static int TEXT = 0;
+	final static int CSV = 1;
+	final static int NDJSON = 2;
+	final static int BINARY = 3;
+
+	// Names of the formats, indexed by format
+	final static String NAMES[] = { "text", "csv", "ndjson", "binary" };
+
+	// Types of the binary records
+	final static byte SERIES_RECORD = 'Q';
+	final static byte BUCKETS_RECORD = 'R';
+	final static byte AGGREGATE_RECORD = 'A';
+	final static byte TOP_RECORD = 'T';
+	final static byte RUN_RECORD = 'W';
+	final static byte MESSAGE_RECORD = 'M';
+
+	// Size of the buffer when a writer is created; it doubles up to BUFFER_BYTES
+	final static int INITIAL_BUFFER_BYTES = 1 << 10;
+
+	// Largest size of the buffer, written to the output stream when it is full
+	final static int BUFFER_BYTES = 1 << 16;
+
+	// Format of the results, set by --format
+	static int format = TEXT;
+
+	// Stream to which the results are written
+	final OutputStream out;
+
+	// Format of this writer
+	final int writerFormat;
+
+	// The formatted bytes which are not written yet
+	byte buf[] = new byte[INITIAL_BUFFER_BYTES];
+	int size = 0;
+
+	// true once the CSV header is written
+	boolean header = false;
+
+	// Local day whose date is in date, and the date as YYYY-MM-DD
+	long day = Long.MIN_VALUE;
+	byte date[];
+
+	/**
+	 * Creates a writer of the results in the format given by --format.
+	 *
+	 * @param out stream to which the results are written
+	 */
+	public ResultWriter(final OutputStream out) {
+		this(out, format);
+	}
+
+	/**
+	 * Creates a writer of the results in the given format.
+	 *
+	 * @param out    stream to which the results are written
+	 * @param format the format
+	 */
+	public ResultWriter(final OutputStream out, final int format) {
+		this.out = out;
+		this.writerFormat = format;
+	}
+
+	/**
+	 * Gives the format of the given name.
+	 *
+	 * @param name name of the format
+	 * @return int the format, or -1 if there is no such format
+	 */
+	public static int format(final String name) {
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes a message, such as the reason a command is invalid.
+	 *
+	 * @param message the message
+	 */
+	public void message(final String message) {
+		switch (writerFormat) {
+		case TEXT:
+			ascii(message).put('\n');
+			break;
+		case CSV:
+			ascii("# ").ascii(message.replace("\n", "\n# ")).put('\n');
+			break;
+		case NDJSON:
+			ascii("{\"message\":").string(message).ascii("}\n");
+			break;
+		default:
+			final int length = Math.min(message.length(), Short.MAX_VALUE);
+			put(MESSAGE_RECORD).putShort(length).ascii(message.substring(0, length));
+			break;
+		}
+	}
+
+	/**
+	 * Writes a message which is only shown in the text format, such as the
+	 * heading of a result or the note that it is empty.
+	 *
+	 * @param message the message
+	 */
+	public void note(final String message) {
+		if (writerFormat == TEXT) {
+			message(message);
+		}
+	}
+
+	/**
+	 * Writes the usage values of a server and CPU for every minute of a time
+	 * range.
+	 *
+	 * @param ip        packed IP Address
+	 * @param cpuId     CPU ID
+	 * @param unixStart unix time of the first minute
+	 * @param usages    usage value of every minute, SegmentStore.MISSING for a
+	 *                  minute in which nothing was logged
+	 * @param count     number of minutes
+	 */
+	public void series(final int ip, final int cpuId, final long unixStart, final byte usages[], final int count) {
+		if (writerFormat == BINARY) {
+			put(SERIES_RECORD).putInt(ip).put(cpuId).putLong(unixStart).putInt(count);
+			for (int i = 0; i < count; i++) {
+				put(usages[i]);
+			}
+			return;
+		}
+
+		final String ipAddr = QueryCommand.ipToString(ip);
+		if (writerFormat == TEXT) {
+			ascii("CPU").number(cpuId).ascii(" usage on ").ascii(ipAddr).ascii(": \n");
+		} else if (writerFormat == CSV && !header) {
+			ascii("ip,cpu_id,unix_time,time,usage\n");
+			header = true;
+		}
+
+		for (int i = 0; i < count; i++) {
+			final long time = unixStart + i * 60L;
+			final int usage = usages[i];
+			switch (writerFormat) {
+			case TEXT:
+				put('(').time(time).ascii(", ");
+				if (usage == SegmentStore.MISSING) {
+					ascii(QueryCommand.MISSING_VALUE).put(')');
+				} else {
+					number(usage).ascii("%)");
+				}
+				if (i < count - 1) {
+					ascii(", ");
+				}
+				break;
+			case CSV:
+				ascii(ipAddr).put(',').number(cpuId).put(',').number(time).put(',').time(time).put(',');
+				if (usage != SegmentStore.MISSING) {
+					number(usage);
+				}
+				put('\n');
+				break;
+			default:
+				ascii("{\"ip\":\"").ascii(ipAddr).ascii("\",\"cpu_id\":").number(cpuId).ascii(",\"unix_time\":")
+						.number(time).ascii(",\"time\":\"").time(time).ascii("\",\"usage\":");
+				if (usage == SegmentStore.MISSING) {
+					ascii("null");
+				} else {
+					number(usage);
+				}
+				ascii("}\n");
+				break;
+			}
+		}
+		if (writerFormat == TEXT) {
+			put('\n');
+		}
+	}
+
+	/**
+	 * Writes the average, minimum and maximum usage values of a server and CPU
+	 * for every bucket of a time range at a resolution coarser than a minute.
+	 *
+	 * @param ip         packed IP Address
+	 * @param cpuId      CPU ID
+	 * @param unixStart  unix time of the first bucket
+	 * @param resolution number of minutes per bucket
+	 * @param buckets    aggregate of the usage values of every bucket
+	 * @param count      number of buckets
+	 */
+	public void buckets(final int ip, final int cpuId, final long unixStart, final int resolution,
+			final RangeIndex.Aggregate buckets[], final int count) {
+		if (writerFormat == BINARY) {
+			put(BUCKETS_RECORD).putInt(ip).put(cpuId).putLong(unixStart).putInt(resolution).putInt(count);
+			for (int i = 0; i < count; i++) {
+				final RangeIndex.Aggregate bucket = buckets[i];
+				putShort(bucket.count).putInt((int) bucket.sum)
+						.put(bucket.count == 0 ? SegmentStore.MISSING : bucket.min)
+						.put(bucket.count == 0 ? SegmentStore.MISSING : bucket.max);
+			}
+			return;
+		}
+
+		final String ipAddr = QueryCommand.ipToString(ip);
+		if (writerFormat == TEXT) {
+			ascii("CPU").number(cpuId).ascii(" usage on ").ascii(ipAddr).ascii(" per ")
+					.ascii(QueryPlan.resolution(resolution)).ascii(" (average, min, max): \n");
+		} else if (writerFormat == CSV && !header) {
+			ascii("ip,cpu_id,unix_time,time,minutes,count,avg,min,max\n");
+			header = true;
+		}
+
+		for (int i = 0; i < count; i++) {
+			final long time = unixStart + i * resolution * 60L;
+			final RangeIndex.Aggregate bucket = buckets[i];
+			switch (writerFormat) {
+			case TEXT:
+				put('(').time(time).ascii(", ");
+				if (bucket.count == 0) {
+					ascii(QueryCommand.MISSING_VALUE).put(')');
+				} else {
+					average(bucket).ascii("%, min ").number(bucket.min).ascii("%, max ").number(bucket.max)
+							.ascii("%)");
+				}
+				if (i < count - 1) {
+					ascii(", ");
+				}
+				break;
+			case CSV:
+				ascii(ipAddr).put(',').number(cpuId).put(',').number(time).put(',').time(time).put(',')
+						.number(resolution).put(',').number(bucket.count).put(',');
+				if (bucket.count > 0) {
+					average(bucket).put(',').number(bucket.min).put(',').number(bucket.max);
+				} else {
+					ascii(",,");
+				}
+				put('\n');
+				break;
+			default:
+				ascii("{\"ip\":\"").ascii(ipAddr).ascii("\",\"cpu_id\":").number(cpuId).ascii(",\"unix_time\":")
+						.number(time).ascii(",\"time\":\"").time(time).ascii("\",\"minutes\":").number(resolution)
+						.ascii(",\"count\":").number(bucket.count);
+				if (bucket.count > 0) {
+					ascii(",\"avg\":").average(bucket).ascii(",\"min\":").number(bucket.min).ascii(",\"max\":")
+							.number(bucket.max);
+				} else {
+					ascii(",\"avg\":null,\"min\":null,\"max\":null");
+				}
+				ascii("}\n");
+				break;
+			}
+		}
+		if (writerFormat == TEXT) {
+			put('\n');
+		}
+	}
+
+	/**
+	 * Writes the result of an aggregate command.
+	 *
+	 * @param command the aggregate command: AVG, MIN, MAX, SUM or COUNT
+	 * @param agg     the aggregate of the usage values
+	 * @param ip      IP Address, or network in CIDR notation
+	 * @param cpuId   CPU ID, or * for both CPUs
+	 * @param start   Starting time
+	 * @param end     Ending time
+	 */
+	public void aggregate(final int command, final RangeIndex.Aggregate agg, final String ip, final String cpuId,
+			final String start, final String end) {
+		final String value;
+		switch (command) {
+		case QueryPlan.AVG:
+			value = agg.count == 0 ? "" : String.format("%.2f", agg.avg());
+			break;
+		case QueryPlan.MIN:
+			value = agg.count == 0 ? "" : Integer.toString(agg.min);
+			break;
+		case QueryPlan.MAX:
+			value = agg.count == 0 ? "" : Integer.toString(agg.max);
+			break;
+		case QueryPlan.SUM:
+			value = Long.toString(agg.sum);
+			break;
+		default:
+			value = Long.toString(agg.count);
+			break;
+		}
+
+		final String name = QueryPlan.NAMES[command];
+		switch (writerFormat) {
+		case TEXT:
+			message(name + " of CPU" + cpuId + " usage on " + ip + " from " + start + " to " + end + ": ");
+			if (agg.count == 0) {
+				message("Log for this IP: " + ip + " and for this CPU ID: " + cpuId + " at this given time " + start
+						+ " doesn't exist!!");
+			} else {
+				ascii(value).ascii(command == QueryPlan.SUM ? "\n"
+						: command == QueryPlan.COUNT ? " logs\n" : "%\n");
+			}
+			break;
+		case CSV:
+			ascii("command,ip,cpu_id,start,end,value\n").ascii(name).put(',').ascii(ip).put(',').ascii(cpuId)
+					.put(',').ascii(start).put(',').ascii(end).put(',').ascii(value).put('\n');
+			break;
+		case NDJSON:
+			ascii("{\"command\":\"").ascii(name).ascii("\",\"ip\":\"").ascii(ip).ascii("\",\"cpu_id\":\"")
+					.ascii(cpuId).ascii("\",\"start\":\"").ascii(start).ascii("\",\"end\":\"").ascii(end)
+					.ascii("\",\"value\":").ascii(value.isEmpty() ? "null" : value).ascii("}\n");
+			break;
+		default:
+			put(AGGREGATE_RECORD).put(command).putLong(agg.count).putLong(agg.sum).put(agg.count == 0 ? 0 : agg.min)
+					.put(agg.count == 0 ? 0 : agg.max);
+			break;
+		}
+	}
+
+	/**
+	 * Writes a server ranked by the TOP command.
+	 *
+	 * @param rank  rank of the server, from 1 for the busiest
+	 * @param ip    packed IP Address
+	 * @param score mean or peak usage of the server
+	 */
+	public void top(final int rank, final int ip, final double score) {
+		switch (writerFormat) {
+		case TEXT:
+			message(String.format("%d. %s: %.2f%%", rank, QueryCommand.ipToString(ip), score));
+			break;
+		case CSV:
+			if (!header) {
+				ascii("rank,ip,score\n");
+				header = true;
+			}
+			number(rank).put(',').ascii(QueryCommand.ipToString(ip)).put(',')
+					.ascii(String.format("%.2f", score)).put('\n');
+			break;
+		case NDJSON:
+			ascii("{\"rank\":").number(rank).ascii(",\"ip\":\"").ascii(QueryCommand.ipToString(ip))
+					.ascii("\",\"score\":").ascii(String.format("%.2f", score)).ascii("}\n");
+			break;
+		default:
+			put(TOP_RECORD).putInt(rank).putInt(ip).putLong(Double.doubleToLongBits(score));
+			break;
+		}
+	}
+
+	/**
+	 * Writes a run of minutes found by the WHERE command.
+	 *
+	 * @param ip        packed IP Address
+	 * @param cpuId     CPU ID
+	 * @param unixStart unix time of the first minute of the run
+	 * @param minutes   number of minutes of the run
+	 */
+	public void run(final int ip, final int cpuId, final long unixStart, final int minutes) {
+		if (writerFormat == BINARY) {
+			put(RUN_RECORD).putInt(ip).put(cpuId).putLong(unixStart).putInt(minutes);
+			return;
+		}
+
+		final String ipAddr = QueryCommand.ipToString(ip);
+		final long unixEnd = unixStart + minutes * 60L;
+		switch (writerFormat) {
+		case TEXT:
+			ascii(ipAddr).ascii(" CPU").number(cpuId).ascii(": (").time(unixStart).ascii(" to ").time(unixEnd)
+					.ascii(", ").number(minutes).ascii(minutes == 1 ? " minute)\n" : " minutes)\n");
+			break;
+		case CSV:
+			if (!header) {
+				ascii("ip,cpu_id,unix_time,start,end,minutes\n");
+				header = true;
+			}
+			ascii(ipAddr).put(',').number(cpuId).put(',').number(unixStart).put(',').time(unixStart).put(',')
+					.time(unixEnd).put(',').number(minutes).put('\n');
+			break;
+		default:
+			ascii("{\"ip\":\"").ascii(ipAddr).ascii("\",\"cpu_id\":").number(cpuId).ascii(",\"unix_time\":")
+					.number(unixStart).ascii(",\"start\":\"").time(unixStart).ascii("\",\"end\":\"").time(unixEnd)
+					.ascii("\",\"minutes\":").number(minutes).ascii("}\n");
+			break;
+		}
+	}
+
+	/**
+	 * Writes the buffered results to the output stream.
+	 */
+	public void flush() {
+		if (size == 0) {
+			return;
+		}
+		try {
+			out.write(buf, 0, size);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		size = 0;
+	}
+
+	/**
+	 * Makes room for the given number of bytes in the buffer, growing it or
+	 * writing it to the output stream.
+	 */
+	void reserve(final int bytes) {
+		if (size + bytes <= buf.length) {
+			return;
+		}
+		if (buf.length < BUFFER_BYTES) {
+			buf = Arrays.copyOf(buf, Math.max(Math.min(buf.length * 2, BUFFER_BYTES), size + bytes));
+			return;
+		}
+		flush();
+		if (bytes > buf.length) {
+			buf = new byte[bytes];
+		}
+	}
+
+	ResultWriter put(final int b) {
+		reserve(1);
+		buf[size++] = (byte) b;
+		return this;
+	}
+
+	ResultWriter putShort(final int value) {
+		return put(value >>> 8).put(value);
+	}
+
+	ResultWriter putInt(final int value) {
+		return putShort(value >>> 16).putShort(value);
+	}
+
+	ResultWriter putLong(final long value) {
+		return putInt((int) (value >>> 32)).putInt((int) value);
+	}
+
+	/**
+	 * Writes the characters of an ASCII string.
+	 */
+	ResultWriter ascii(final String s) {
+		final int length = s.length();
+		reserve(length);
+		for (int i = 0; i < length; i++) {
+			buf[size++] = (byte) s.charAt(i);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a string as a JSON string.
+	 */
+	ResultWriter string(final String s) {
+		put('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				put('\\').put(c);
+			} else if (c == '\n') {
+				ascii("\\n");
+			} else {
+				put(c < ' ' ? ' ' : c);
+			}
+		}
+		return put('"');
+	}
+
+	/**
+	 * Writes the decimal digits of a number.
+	 */
+	ResultWriter number(long value) {
+		reserve(20);
+		if (value < 0) {
+			buf[size++] = '-';
+			if (value == Long.MIN_VALUE) {
+				return ascii("9223372036854775808");
+			}
+			value = -value;
+		}
+		int digits = 1;
+		for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+			digits++;
+		}
+		for (int i = size + digits - 1; i >= size; i--) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		size += digits;
+		return this;
+	}
+
+	/**
+	 * Writes the average of an aggregate which is not empty with two decimals,
+	 * rounded half up by integer arithmetic.
+	 */
+	ResultWriter average(final RangeIndex.Aggregate agg) {
+		final long hundredths = (agg.sum * 200 + agg.count) / (2L * agg.count);
+		number(hundredths / 100).put('.');
+		return put('0' + (int) (hundredths / 10 % 10)).put('0' + (int) (hundredths % 10));
+	}
+
+	/**
+	 * Writes a unix time as a local time stamp (YYYY-MM-DD HH:MM). The date is
+	 * only formatted when the day changes.
+	 */
+	ResultWriter time(final long unixTime) {
+		final long local = unixTime + QueryParser.offset(unixTime);
+		final long localDay = Math.floorDiv(local, 86400);
+		if (localDay != day) {
+			day = localDay;
+			date = QueryParser.formatDay(localDay).getBytes(StandardCharsets.US_ASCII);
+		}
+		final int minutes = Math.floorMod(local, 86400) / 60;
+		reserve(date.length + 6);
+		System.arraycopy(date, 0, buf, size, date.length);
+		size += date.length;
+		buf[size++] = ' ';
+		buf[size++] = (byte) ('0' + minutes / 600);
+		buf[size++] = (byte) ('0' + minutes / 60 % 10);
+		buf[size++] = ':';
+		buf[size++] = (byte) ('0' + minutes % 60 / 10);
+		buf[size++] = (byte) ('0' + minutes % 10);
+		return this;
+	}
+
+}
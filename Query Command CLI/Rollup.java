@@ -0,0 +1,406 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>Rollup tiers of the segment store</h1> Next to its segments, every
+ * partition holds the usage values of its day rolled up into buckets of 5
+ * minutes, 1 hour and 1 day, one file per tier (5m.rollup, 1h.rollup and
+ * 1d.rollup). A bucket holds the sum, count, minimum and maximum of the usage
+ * values of a server and CPU in its minutes, so the average, minimum and
+ * maximum of a bucket are read without looking at the usage values:
+ *
+ * <pre>
+ * int   magic        "ROLL"
+ * int   version
+ * int   day          (days since 1970-01-01)
+ * int   minutes      (minutes per bucket)
+ * int   rows
+ * int   sum          \
+ * short count         | per bucket, laid out as [row][bucket]
+ * byte  min, max     /
+ * </pre>
+ *
+ * The 1 hour tier of a day is 60 times and the 1 day tier 1440 times smaller
+ * than its segments, so QUERY at a coarse resolution and the aggregate
+ * commands over many days read a few KB per day instead of every segment of
+ * the day (see {@link QueryCommand#getAggregate}). The buckets are aligned to
+ * the UTC day.
+ * <p>
+ * The rollups of a partition are built by {@link Catalog#rollUp} once its
+ * segments are written, from the range aggregates of the segments, and their
+ * checksums are recorded in the partition catalog. A partition whose segments
+ * change again has no rollups until they are built again; its buckets are then
+ * aggregated from its segments, so a command always sees the usage values of
+ * its {@link StoreSnapshot}. A rollup file is replaced, never changed, and the
+ * rollups are cached by their day, tier and checksum like the segments.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class Rollup {
+	// Magic number at the start of every rollup file ("ROLL" in ASCII)
+	final static int MAGIC = 0x524F4C4C;
+
+	// Version of the rollup file format
+	final static int VERSION = 1;
+
+	// Size of the header of a rollup file in bytes
+	final static int HEADER_BYTES = 4 + 4 + 4 + 4 + 4;
+
+	// Number of minutes in a day
+	final static int DAY_MINUTES = 24 * 60;
+
+	// Number of minutes per bucket of each tier, from the finest
+	final static int TIER_MINUTES[] = { 5, 60, DAY_MINUTES };
+
+	// Names of the tiers, which also name their files
+	final static String TIER_NAMES[] = { "5m", "1h", "1d" };
+
+	// Extension of the rollup files
+	final static String FILE_SUFFIX = ".rollup";
+
+	// Size of a bucket: sum (int), count (short), min and max (byte each)
+	final static int BUCKET_BYTES = 8;
+
+	// Largest number of values QUERY shows per server and CPU when it picks the
+	// resolution itself: two days of minutes
+	final static int MAX_POINTS = 2 * DAY_MINUTES;
+
+	// Number of rollups kept in the cache
+	final static int CACHED_ROLLUPS = 256;
+
+	// Cached rollups by day, tier and checksum in least recently used order
+	static final LinkedHashMap<Long, Rollup> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	// Day of the rollup, counted from 1970-01-01
+	final int day;
+
+	// Tier of the rollup, an index into TIER_MINUTES
+	final int tier;
+
+	// Number of buckets per row
+	final int buckets;
+
+	// Number of rows
+	final int rows;
+
+	// Buckets laid out as [row][bucket]
+	final ByteBuffer data;
+
+	// Checksum of the rollup file, or -1 if the rollup wasn't written
+	long crc = -1;
+
+	/**
+	 * Wraps the buckets of a tier of a day.
+	 *
+	 * @param day  day of the rollup
+	 * @param tier tier of the rollup
+	 * @param rows number of rows
+	 * @param data buckets laid out as [row][bucket]
+	 */
+	Rollup(final int day, final int tier, final int rows, final ByteBuffer data) {
+		this.day = day;
+		this.tier = tier;
+		this.buckets = DAY_MINUTES / TIER_MINUTES[tier];
+		this.rows = rows;
+		this.data = data;
+	}
+
+	/**
+	 * Gives the tier whose buckets hold the given number of minutes.
+	 *
+	 * @param minutes number of minutes per bucket
+	 * @return int the tier, or -1 if there is no such tier
+	 */
+	static int tier(final int minutes) {
+		for (int tier = 0; tier < TIER_MINUTES.length; tier++) {
+			if (TIER_MINUTES[tier] == minutes) {
+				return tier;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gives the finest resolution of QUERY which shows at most MAX_POINTS values
+	 * for a time range of the given length.
+	 *
+	 * @param minutes length of the time range in minutes
+	 * @return int number of minutes per value
+	 */
+	static int resolution(final long minutes) {
+		for (int resolution : QueryPlan.RESOLUTION_MINUTES) {
+			if (minutes <= (long) MAX_POINTS * resolution) {
+				return resolution;
+			}
+		}
+		return QueryPlan.RESOLUTION_MINUTES[QueryPlan.RESOLUTION_MINUTES.length - 1];
+	}
+
+	/**
+	 * Gives the file of a tier of a partition.
+	 *
+	 * @param day  day of the partition
+	 * @param tier the tier
+	 * @return File the rollup file
+	 */
+	static File file(final int day, final int tier) {
+		return new File(Catalog.partitionDir(day), TIER_NAMES[tier] + FILE_SUFFIX);
+	}
+
+	/**
+	 * Stores the aggregate of a bucket.
+	 *
+	 * @param row    the row
+	 * @param bucket the bucket of the row
+	 * @param agg    the aggregate of the usage values of the bucket
+	 */
+	void put(final int row, final int bucket, final RangeIndex.Aggregate agg) {
+		final int offset = (row * buckets + bucket) * BUCKET_BYTES;
+		data.putInt(offset, (int) agg.sum).putShort(offset + 4, (short) agg.count);
+		data.put(offset + 6, agg.count == 0 ? SegmentStore.MISSING : (byte) agg.min);
+		data.put(offset + 7, agg.count == 0 ? SegmentStore.MISSING : (byte) agg.max);
+	}
+
+	/**
+	 * Adds a bucket to the aggregate.
+	 *
+	 * @param row    the row
+	 * @param bucket the bucket of the row
+	 * @param agg    the aggregate
+	 */
+	void add(final int row, final int bucket, final RangeIndex.Aggregate agg) {
+		if (row >= rows) {
+			return;
+		}
+		final int offset = (row * buckets + bucket) * BUCKET_BYTES;
+		final int count = data.getShort(offset + 4) & 0xFFFF;
+		if (count > 0) {
+			agg.sum += data.getInt(offset);
+			agg.count += count;
+			agg.min = Math.min(agg.min, data.get(offset + 6));
+			agg.max = Math.max(agg.max, data.get(offset + 7));
+		}
+	}
+
+	/**
+	 * Gives the bucket of this tier which starts at the given minute.
+	 *
+	 * @param minute first minute of the bucket, counted from 1970-01-01
+	 * @return int the bucket of the row
+	 */
+	int bucket(final long minute) {
+		return Math.floorMod(minute, DAY_MINUTES) / TIER_MINUTES[tier];
+	}
+
+	/**
+	 * Gives the rollup of the largest bucket which starts at the given minute and
+	 * ends by the given end of a time range, from the rollups of the given
+	 * snapshot.
+	 *
+	 * @param snapshot  snapshot of the store
+	 * @param minute    first minute of the bucket, counted from 1970-01-01
+	 * @param endMinute minute after the last minute of the time range
+	 * @param finest    finest tier which may be used
+	 * @return Rollup the rollup, or null if no bucket starts at the minute or the
+	 *         rollups of its day are not up to date
+	 */
+	static Rollup covering(final StoreSnapshot snapshot, final long minute, final long endMinute,
+			final int finest) {
+		for (int tier = TIER_MINUTES.length - 1; tier >= finest; tier--) {
+			final int minutes = TIER_MINUTES[tier];
+			if (Math.floorMod(minute, minutes) != 0 || minute + minutes > endMinute) {
+				continue;
+			}
+			return snapshot.rollup((int) Math.floorDiv(minute, DAY_MINUTES), tier);
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the largest bucket which starts at the given minute and ends by the
+	 * given end of a time range to the aggregate, from the rollups of the given
+	 * snapshot.
+	 *
+	 * @param snapshot  snapshot of the store
+	 * @param row       the row
+	 * @param minute    first minute of the bucket, counted from 1970-01-01
+	 * @param endMinute minute after the last minute of the time range
+	 * @param finest    finest tier which may be used
+	 * @param agg       the aggregate
+	 * @return int number of minutes added, or 0 if no bucket starts at the minute
+	 *         or the rollups of its day are not up to date
+	 */
+	static int aggregate(final StoreSnapshot snapshot, final int row, final long minute, final long endMinute,
+			final int finest, final RangeIndex.Aggregate agg) {
+		final Rollup rollup = covering(snapshot, minute, endMinute, finest);
+		if (rollup == null) {
+			return 0;
+		}
+		rollup.add(row, rollup.bucket(minute), agg);
+		return TIER_MINUTES[rollup.tier];
+	}
+
+	/**
+	 * Rolls up the segments of a day into the buckets of every tier. The buckets
+	 * of the finest tier are added up from the usage values of the segments, a
+	 * minute of all the rows at a time, by the scan kernels (see
+	 * {@link UsageKernels}), and every other tier from the tier below it.
+	 *
+	 * @param day      day of the partition
+	 * @param segments the segment of every hour of the day, null for an hour in
+	 *                 which nothing was logged
+	 * @param rows     number of rows
+	 * @return Rollup[] the rollup of every tier
+	 */
+	public static Rollup[] build(final int day, final SegmentStore segments[], final int rows) {
+		final Rollup tiers[] = new Rollup[TIER_MINUTES.length];
+		for (int tier = 0; tier < tiers.length; tier++) {
+			tiers[tier] = new Rollup(day, tier, rows,
+					ByteBuffer.allocateDirect(rows * (DAY_MINUTES / TIER_MINUTES[tier]) * BUCKET_BYTES));
+		}
+
+		final UsageKernels kernels = UsageKernels.kernels;
+		final byte usages[] = new byte[rows];
+		final int sums[] = new int[rows];
+		final int counts[] = new int[rows];
+		final byte mins[] = new byte[rows];
+		final byte maxs[] = new byte[rows];
+		final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+		for (int bucket = 0; bucket < tiers[0].buckets; bucket++) {
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			Arrays.fill(mins, RangeIndex.NO_MIN);
+			Arrays.fill(maxs, SegmentStore.MISSING);
+			final int minute = bucket * TIER_MINUTES[0];
+			final SegmentStore segment = segments[minute / QueryCommand.MINUTES_PER_FILE];
+			final int from = minute % QueryCommand.MINUTES_PER_FILE;
+			for (int m = from; segment != null && m < Math.min(from + TIER_MINUTES[0], segment.minutes); m++) {
+				kernels.accumulate(usages, segment.usages(m, usages), sums, counts, mins, maxs);
+			}
+			for (int row = 0; row < rows; row++) {
+				agg.sum = sums[row];
+				agg.count = counts[row];
+				agg.min = mins[row];
+				agg.max = maxs[row];
+				tiers[0].put(row, bucket, agg);
+			}
+		}
+
+		for (int row = 0; row < rows; row++) {
+			for (int tier = 1; tier < tiers.length; tier++) {
+				final int parts = TIER_MINUTES[tier] / TIER_MINUTES[tier - 1];
+				for (int bucket = 0; bucket < tiers[tier].buckets; bucket++) {
+					agg.clear();
+					for (int part = 0; part < parts; part++) {
+						tiers[tier - 1].add(row, bucket * parts + part, agg);
+					}
+					tiers[tier].put(row, bucket, agg);
+				}
+			}
+		}
+		return tiers;
+	}
+
+	/**
+	 * Writes the rollup to a temporary file which then replaces the given file,
+	 * so a rollup file which is read is never changed.
+	 *
+	 * @param file the rollup file
+	 * @return long checksum of the rollup file
+	 * @exception IOException
+	 */
+	long write(final File file) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(VERSION).putInt(day).putInt(TIER_MINUTES[tier]).putInt(rows);
+		header.flip();
+
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final CRC32 crc = new CRC32();
+			final ByteBuffer body = data.duplicate();
+			body.clear();
+			for (ByteBuffer part : new ByteBuffer[] { header, body }) {
+				crc.update(part.duplicate());
+				while (part.hasRemaining()) {
+					channel.write(part);
+				}
+			}
+			this.crc = crc.getValue();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return crc;
+	}
+
+	/**
+	 * Reads a rollup from the given file. The buckets are memory mapped read
+	 * only.
+	 *
+	 * @param file the rollup file
+	 * @param crc  expected checksum of the rollup file
+	 * @return Rollup the rollup read from the file
+	 * @exception IOException if the file is not a valid rollup file or doesn't
+	 *                        have the checksum
+	 */
+	static Rollup read(final File file, final long crc) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			final CRC32 actual = new CRC32();
+			actual.update(buf.duplicate());
+			if (actual.getValue() != crc) {
+				throw new IOException(file + " is not the rollup in the catalog");
+			}
+			if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+				throw new IOException(file + " is not a rollup file");
+			}
+			final int day = buf.getInt();
+			final int tier = tier(buf.getInt());
+			final int rows = buf.getInt();
+			if (tier < 0 || buf.remaining() != rows * (DAY_MINUTES / TIER_MINUTES[tier]) * BUCKET_BYTES) {
+				throw new IOException(file + " is truncated");
+			}
+			final Rollup rollup = new Rollup(day, tier, rows, buf.slice());
+			rollup.crc = crc;
+			return rollup;
+		}
+	}
+
+	/**
+	 * Gives the given version of a tier of a day, reading it from its file if it
+	 * is not cached.
+	 *
+	 * @param day  day of the partition
+	 * @param tier the tier
+	 * @param crc  checksum of the rollup file
+	 * @return Rollup the rollup
+	 * @exception IOException if the rollup file can't be read or isn't that
+	 *                        version of the rollup any more
+	 */
+	static synchronized Rollup get(final int day, final int tier, final long crc) throws IOException {
+		final long key = ((long) day * TIER_MINUTES.length + tier) << 32 | (crc & 0xFFFFFFFFL);
+		Rollup rollup = cache.get(key);
+		if (rollup == null) {
+			rollup = read(file(day, tier), crc);
+			Metrics.rollupLoaded(rollup.data.capacity());
+			cache.put(key, rollup);
+			final Iterator<Rollup> it = cache.values().iterator();
+			while (cache.size() > CACHED_ROLLUPS) {
+				it.next();
+				it.remove();
+			}
+		}
+		return rollup;
+	}
+
+}
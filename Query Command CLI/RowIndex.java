@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+/**
+ * <h1>Server dictionary</h1> Maps an IP Address and CPU ID to the dense row in
+ * which their usage values are stored in the segments. The IP Address and the
+ * CPU ID are packed into a single primitive key (IP Address &lt;&lt; 1 | CPU
+ * ID) and the keys are kept in an open addressing hash table, so neither adding
+ * a key nor looking one up creates any object.
+ * <p>
+ * Rows are given out in the order in which the keys are first added, so the
+ * row of a server doesn't depend on its IP Address, on the order of the lines
+ * in the log file or on the number of servers. The table doubles when it is
+ * full, so servers can join the fleet at any time. For every row the times of
+ * the first and the last log are kept, so the minutes in which a server was in
+ * the fleet but logged nothing can be told apart from the minutes before it
+ * joined or after it left.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class RowIndex {
+	// Marks an empty slot in the hash table. No packed key can be negative.
+	final static long EMPTY = -1L;
+
+	// Segments are given a number of rows which is a multiple of this number
+	final static int SEGMENT_ROWS_ALIGN = 64;
+
+	// Packed keys in hash order
+	long slots[];
+
+	// Row of the key in the same slot
+	int slotRows[];
+
+	// Packed keys in row order
+	long keys[];
+
+	// Unix time of the first log of each row
+	long firstTimes[];
+
+	// Unix time of the last log of each row
+	long lastTimes[];
+
+	// Mask to wrap a hash into the slots
+	int mask;
+
+	// Number of rows given out
+	int size = 0;
+
+	/**
+	 * Creates an index which can hold the given number of rows before it grows.
+	 *
+	 * @param capacity initial number of rows
+	 */
+	public RowIndex(final int capacity) {
+		keys = new long[Math.max(capacity, 1)];
+		firstTimes = new long[keys.length];
+		lastTimes = new long[keys.length];
+		Arrays.fill(firstTimes, Long.MAX_VALUE);
+		Arrays.fill(lastTimes, Long.MIN_VALUE);
+		rehash();
+	}
+
+	/**
+	 * Creates a copy of the given index, which is not changed when rows are added
+	 * to the given index or their times are extended.
+	 *
+	 * @param index the index to copy
+	 */
+	public RowIndex(final RowIndex index) {
+		slots = index.slots.clone();
+		slotRows = index.slotRows.clone();
+		keys = index.keys.clone();
+		firstTimes = index.firstTimes.clone();
+		lastTimes = index.lastTimes.clone();
+		mask = index.mask;
+		size = index.size;
+	}
+
+	/**
+	 * Gives the number of rows the index can hold before it grows.
+	 *
+	 * @return int the capacity
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Gives the number of rows with which a segment is started or grown: the
+	 * rows given out and a quarter more for the servers which join, rounded up
+	 * to SEGMENT_ROWS_ALIGN, so a segment holds little more than the fleet and
+	 * is grown a few times at most while the fleet joins.
+	 *
+	 * @return int the number of rows, more than the rows given out
+	 */
+	public int segmentRows() {
+		return (size + size / 4) / SEGMENT_ROWS_ALIGN * SEGMENT_ROWS_ALIGN + SEGMENT_ROWS_ALIGN;
+	}
+
+	/**
+	 * Rebuilds the hash table for the current capacity.
+	 */
+	void rehash() {
+		// keep the table at most half full so that probes stay short
+		final int slotCount = Integer.highestOneBit(keys.length * 2 - 1) << 1;
+		slots = new long[slotCount];
+		slotRows = new int[slotCount];
+		mask = slotCount - 1;
+		Arrays.fill(slots, EMPTY);
+		for (int row = 0; row < size; row++) {
+			final int slot = slot(keys[row]);
+			slots[slot] = keys[row];
+			slotRows[slot] = row;
+		}
+	}
+
+	/**
+	 * Packs the IP Address and CPU ID into a key.
+	 *
+	 * @param ip    IP Address packed as a 32 bit number
+	 * @param cpuId CPU ID
+	 * @return long the packed key
+	 */
+	public static long key(final int ip, final int cpuId) {
+		return (ip & 0xFFFFFFFFL) << 1 | cpuId;
+	}
+
+	/**
+	 * Gives the slot in which the key is, or the empty slot in which it should be
+	 * added.
+	 *
+	 * @param key the packed key
+	 * @return int the slot
+	 */
+	int slot(final long key) {
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (slots[slot] != EMPTY && slots[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Gives the row of the given key.
+	 *
+	 * @param key the packed key
+	 * @return int the row, or -1 if the key was never added
+	 */
+	public int get(final long key) {
+		final int slot = slot(key);
+		return slots[slot] == EMPTY ? -1 : slotRows[slot];
+	}
+
+	/**
+	 * Gives the row of the given key, adding the key as the next row if it wasn't
+	 * added before. The index doubles its capacity when it is full.
+	 *
+	 * @param key the packed key
+	 * @return int the row
+	 */
+	public int add(final long key) {
+		int slot = slot(key);
+		if (slots[slot] != EMPTY) {
+			return slotRows[slot];
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			firstTimes = Arrays.copyOf(firstTimes, size * 2);
+			lastTimes = Arrays.copyOf(lastTimes, size * 2);
+			Arrays.fill(firstTimes, size, size * 2, Long.MAX_VALUE);
+			Arrays.fill(lastTimes, size, size * 2, Long.MIN_VALUE);
+			rehash();
+			slot = slot(key);
+		}
+		slots[slot] = key;
+		slotRows[slot] = size;
+		keys[size] = key;
+		return size++;
+	}
+
+	/**
+	 * Records a log of the given row, extending the time range in which the
+	 * server logged.
+	 *
+	 * @param row  the row
+	 * @param time unix time of the log
+	 */
+	public void seen(final int row, final long time) {
+		if (time < firstTimes[row]) {
+			firstTimes[row] = time;
+		}
+		if (time > lastTimes[row]) {
+			lastTimes[row] = time;
+		}
+	}
+
+	/**
+	 * Gives the memory used by the index.
+	 *
+	 * @return long number of bytes
+	 */
+	public long bytes() {
+		return slots.length * (8L + 4L) + keys.length * (8L + 8L + 8L);
+	}
+
+}
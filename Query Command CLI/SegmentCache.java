@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>Cache of the segments</h1> Keeps as many segments in memory as fit in the
+ * given memory budget. When a segment is loaded and the budget is exceeded, the
+ * least recently used segments are evicted, so the segments used by the recent
+ * queries stay cached no matter in which order the queries visit them.
+ * <p>
+ * A segment which is written again by the {@link LogFollower} has a new
+ * checksum, so the segments are cached by their number and checksum: a command
+ * gets the version of the segment which is in its {@link StoreSnapshot}, and
+ * the new version is put in the cache in place of the old one once it is
+ * written.
+ * <p>
+ * The lock of the cache is only held to look up, put and evict segments. A
+ * segment is loaded, which maps its file and checks its checksum, outside the
+ * lock, so the commands running at the same time don't wait for each other's
+ * loads. A segment being loaded has a future in a separate map, so the commands
+ * which need it at the same time wait for that load rather than loading it
+ * again.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class SegmentCache {
+	// Cached segments by segment number and checksum in least recently used order
+	final LinkedHashMap<Long, SegmentStore> segments = new LinkedHashMap<>(16, 0.75f, true);
+
+	// Segments being loaded by segment number and checksum
+	final ConcurrentHashMap<Long, CompletableFuture<SegmentStore>> loading = new ConcurrentHashMap<>();
+
+	// Maximum number of bytes held by the cached segments
+	final long budget;
+
+	// Number of bytes held by the cached segments
+	long bytes = 0;
+
+	// Number of lookups which found the segment in the cache
+	long hits = 0;
+
+	// Number of lookups which didn't find the segment in the cache, and loaded it
+	// or waited for its load
+	long misses = 0;
+
+	// Number of segments evicted from the cache
+	long evictions = 0;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param budget maximum number of bytes held by the cached segments
+	 */
+	public SegmentCache(final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Gives the key of a version of a segment.
+	 *
+	 * @param id  number of the segment
+	 * @param crc checksum of the segment file
+	 * @return long the key
+	 */
+	static long key(final int id, final long crc) {
+		return (long) id << 32 | (crc & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Gives the given version of a segment, loading it from its file in the store
+	 * if it is not cached.
+	 *
+	 * @param id  number of the segment
+	 * @param crc checksum of the segment file
+	 * @return SegmentStore the segment
+	 * @exception IOException if the segment file can't be read or isn't that
+	 *                        version of the segment any more
+	 */
+	public SegmentStore get(final int id, final long crc) throws IOException {
+		final Long key = key(id, crc);
+		synchronized (this) {
+			final SegmentStore segment = segments.get(key);
+			if (segment != null) {
+				hits++;
+				return segment;
+			}
+			misses++;
+		}
+
+		final CompletableFuture<SegmentStore> load = new CompletableFuture<>();
+		final CompletableFuture<SegmentStore> other = loading.putIfAbsent(key, load);
+		if (other != null) {
+			return await(other);
+		}
+		try {
+			// the segment may have been put by a load which ended since the lookup
+			SegmentStore segment;
+			synchronized (this) {
+				segment = segments.get(key);
+			}
+			if (segment == null) {
+				final long begin = System.nanoTime();
+				segment = SegmentStore.read(Catalog.segmentFile(id), crc);
+				Metrics.segmentLoaded(segment.bytes(), System.nanoTime() - begin);
+				put(id, crc, segment);
+			}
+			load.complete(segment);
+			return segment;
+		} catch (IOException | RuntimeException e) {
+			load.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(key, load);
+		}
+	}
+
+	/**
+	 * Waits for the load of a segment by another command.
+	 *
+	 * @param load the load
+	 * @return SegmentStore the segment
+	 * @exception IOException if the segment couldn't be loaded
+	 */
+	static SegmentStore await(final CompletableFuture<SegmentStore> load) throws IOException {
+		try {
+			return load.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Puts a version of a segment in the cache.
+	 *
+	 * @param id      number of the segment
+	 * @param crc     checksum of the segment file
+	 * @param segment the segment
+	 */
+	public synchronized void put(final int id, final long crc, final SegmentStore segment) {
+		final SegmentStore old = segments.put(key(id, crc), segment);
+		bytes += segment.bytes() - (old == null ? 0 : old.bytes());
+
+		// evict the least recently used segments, but never the one just put
+		Iterator<Map.Entry<Long, SegmentStore>> it = segments.entrySet().iterator();
+		while (bytes > budget && segments.size() > 1) {
+			final SegmentStore evicted = it.next().getValue();
+			it.remove();
+			bytes -= evicted.bytes();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes a version of a segment from the cache.
+	 *
+	 * @param id  number of the segment
+	 * @param crc checksum of the segment file
+	 */
+	public synchronized void remove(final int id, final long crc) {
+		final SegmentStore segment = segments.remove(key(id, crc));
+		if (segment != null) {
+			bytes -= segment.bytes();
+		}
+	}
+
+	/**
+	 * Removes all the segments from the cache.
+	 */
+	public synchronized void clear() {
+		segments.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Segment cache: %d segments, %,d of %,d bytes, %d hits, %d misses, %d evictions",
+				segments.size(), bytes, budget, hits, misses, evictions);
+	}
+
+}
@@ -0,0 +1,416 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>Binary columnar segment store</h1> Every CPU usage value is in the range
+ * 0 - 99, so a single byte is enough to hold a sample. A segment stores a
+ * number of minutes of data for all the servers as a dense byte matrix laid out
+ * as [minute][server][cpu]. Given the minute and the row of a sample (see
+ * {@link RowIndex}), its position in the segment is found by offset
+ * arithmetic, so no parsing or searching is needed at query time.
+ * <p>
+ * The matrix is kept off the heap: a segment which is being written lives in a
+ * direct buffer and a segment which is read is memory mapped from its file. A
+ * segment file starts with a small header followed by the raw matrix:
+ *
+ * <pre>
+ * int  magic      "CPUS"
+ * int  version
+ * long start time (unix time of the first minute in the segment)
+ * int  minutes
+ * int  rows
+ * int  key count
+ * long keys[key count] (packed IP Address and CPU ID of each row)
+ * byte usage[minutes * rows]
+ * byte index[]          (range aggregates, see {@link RangeIndex})
+ * </pre>
+ * 
+ * A segment which is read from its file is never changed, so it can be read
+ * by any number of threads. To add logs to it, a copy is taken (see
+ * {@link #copy}), which is extended by {@link #update}, which stores a usage
+ * value, and {@link #refreshIndex}, which then updates the range aggregates,
+ * and is then written as the new version of the segment.
+ * <p>
+ * A segment can also be packed (see {@link #pack}): the usage values of each
+ * row are then bit packed into blocks with a frame of reference (see
+ * {@link BlockCodec}), which replace both the matrix and the range aggregates,
+ * and the segment file has the version PACKED_VERSION. A packed segment is
+ * read only.
+ * The key list in the header is not extended; the rows of a store are kept by
+ * the {@link Catalog}.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class SegmentStore {
+	// Magic number at the start of every segment file ("CPUS" in ASCII)
+	final static int MAGIC = 0x43505553;
+
+	// Version of the segment file format
+	final static int VERSION = 5;
+
+	// Version of the segment file format of a packed segment
+	final static int PACKED_VERSION = 6;
+
+	// Size of the fixed part of the segment header in bytes
+	final static int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+
+	// Number of CPUs in each server
+	final static int CPUS = 2;
+
+	// Value stored for a minute for which no log was recorded
+	final static byte MISSING = -1;
+
+	// Unix time of the first minute in the segment
+	final long startTime;
+
+	// Number of minutes of data in the segment
+	final int minutes;
+
+	// Number of rows (server and cpu combinations) per minute
+	final int rows;
+
+	// Packed IP Address and CPU ID of each row
+	final long keys[];
+
+	// Usage values laid out as [minute][row], or the blocks of every row if the
+	// segment is packed
+	final ByteBuffer data;
+
+	// true if the usage values are encoded in blocks
+	final boolean packed;
+
+	// Offset of the codes of every block if the segment is packed, else null
+	final int offsets[];
+
+	// Range aggregates of the usage values, built when the segment is written
+	RangeIndex index = null;
+
+	// The whole segment file if the segment is memory mapped, else null
+	ByteBuffer mapped = null;
+
+	// Checksum of the segment file, or -1 if the segment wasn't written
+	long crc = -1;
+
+	/**
+	 * Creates an empty segment in which every sample is marked as missing.
+	 *
+	 * @param startTime unix time of the first minute in the segment
+	 * @param minutes   number of minutes in the segment
+	 * @param rows      number of rows per minute
+	 */
+	public SegmentStore(final long startTime, final int minutes, final int rows) {
+		this(startTime, minutes, rows, new long[0], ByteBuffer.allocateDirect(minutes * rows));
+		for (int i = 0; i < data.capacity(); i++) {
+			data.put(i, MISSING);
+		}
+	}
+
+	/**
+	 * Wraps an existing usage matrix.
+	 *
+	 * @param startTime unix time of the first minute in the segment
+	 * @param minutes   number of minutes in the segment
+	 * @param rows      number of rows per minute
+	 * @param keys      packed IP Address and CPU ID of each row
+	 * @param data      usage values laid out as [minute][row]
+	 */
+	public SegmentStore(final long startTime, final int minutes, final int rows, final long keys[],
+			final ByteBuffer data) {
+		this(startTime, minutes, rows, keys, data, false);
+	}
+
+	/**
+	 * Wraps an existing usage matrix or encoded blocks.
+	 *
+	 * @param startTime unix time of the first minute in the segment
+	 * @param minutes   number of minutes in the segment
+	 * @param rows      number of rows per minute
+	 * @param keys      packed IP Address and CPU ID of each row
+	 * @param data      usage values laid out as [minute][row], or the blocks of
+	 *                  every row
+	 * @param packed    true if data holds the blocks of every row
+	 */
+	public SegmentStore(final long startTime, final int minutes, final int rows, final long keys[],
+			final ByteBuffer data, final boolean packed) {
+		this.startTime = startTime;
+		this.minutes = minutes;
+		this.rows = rows;
+		this.keys = keys;
+		this.data = data;
+		this.packed = packed;
+		this.offsets = packed ? BlockCodec.offsets(data, minutes, rows) : null;
+	}
+
+	/**
+	 * Stores the usage value for the given minute and row.
+	 *
+	 * @param minute minute offset from the start of the segment
+	 * @param row    row of the IP Address and CPU ID
+	 * @param usage  cpu usage
+	 */
+	public void put(final int minute, final int row, final int usage) {
+		data.put(minute * rows + row, (byte) usage);
+	}
+
+	/**
+	 * Gives the usage value for the given minute and row.
+	 *
+	 * @param minute minute offset from the start of the segment
+	 * @param row    row of the IP Address and CPU ID
+	 * @return int cpu usage, or -1 if no log was recorded for that minute
+	 */
+	public int usage(final int minute, final int row) {
+		if (packed) {
+			return BlockCodec.usage(data, offsets, minutes, row, minute);
+		}
+		return data.get(minute * rows + row);
+	}
+
+	/**
+	 * Copies the usage values of all the rows of a minute, for the scan kernels
+	 * (see {@link UsageKernels}). The values of a packed segment are decoded.
+	 *
+	 * @param minute minute of the segment
+	 * @param usages receives the usage value of every row, MISSING if missing
+	 * @return int number of rows copied: the rows of the segment, or fewer if
+	 *         the array is shorter
+	 */
+	public int usages(final int minute, final byte usages[]) {
+		final int count = Math.min(rows, usages.length);
+		if (packed) {
+			for (int row = 0; row < count; row++) {
+				usages[row] = (byte) BlockCodec.usage(data, offsets, minutes, row, minute);
+			}
+		} else {
+			data.get(minute * rows, usages, 0, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the usage values of the given row and range of minutes to the
+	 * aggregate, from the range aggregates of the segment or from the headers of
+	 * the blocks if the segment is packed.
+	 *
+	 * @param row  row of the IP Address and CPU ID
+	 * @param from first minute of the range
+	 * @param to   minute after the last minute of the range
+	 * @param agg  the aggregate
+	 */
+	public void aggregate(final int row, final int from, final int to, final RangeIndex.Aggregate agg) {
+		if (packed) {
+			BlockCodec.aggregate(data, offsets, minutes, row, from, to, agg);
+		} else {
+			index.aggregate(row, from, to, agg);
+		}
+	}
+
+	/**
+	 * Gives a packed copy of the segment.
+	 *
+	 * @return SegmentStore the copy, with its usage values encoded in blocks
+	 */
+	public SegmentStore pack() {
+		return new SegmentStore(startTime, minutes, rows, keys, BlockCodec.encode(this), true);
+	}
+
+	/**
+	 * Gives a copy of the segment with room for more rows, for servers which
+	 * joined after the segment was started. The rows which are new are marked as
+	 * missing and the range aggregates are built when the copy is written. The
+	 * copy of a packed segment is not packed. If the copy has fewer rows, the
+	 * rows after its last row are left out.
+	 *
+	 * @param rows number of rows per minute of the copy
+	 * @return SegmentStore the copy
+	 */
+	public SegmentStore grow(final int rows) {
+		final SegmentStore grown = new SegmentStore(startTime, minutes, rows);
+		final int copied = Math.min(rows, this.rows);
+		for (int minute = 0; minute < minutes; minute++) {
+			if (packed) {
+				for (int row = 0; row < copied; row++) {
+					grown.put(minute, row, usage(minute, row));
+				}
+			} else {
+				grown.data.put(minute * rows, data, minute * this.rows, copied);
+			}
+		}
+		return grown;
+	}
+
+	/**
+	 * Gives the segment without the rows after the given number of rows, which
+	 * were kept free for servers joining the fleet and are not written to the
+	 * segment file.
+	 *
+	 * @param rows number of rows in use
+	 * @return SegmentStore this segment if it has no more rows, else a copy with
+	 *         the given number of rows, whose range aggregates are built when it
+	 *         is written
+	 */
+	public SegmentStore trim(final int rows) {
+		return rows >= this.rows ? this : grow(rows);
+	}
+
+	/**
+	 * Gives a copy of the segment with its range aggregates, which can be
+	 * updated while the segment is read. The copy of a packed segment is not
+	 * packed.
+	 *
+	 * @return SegmentStore the copy
+	 */
+	public SegmentStore copy() {
+		if (packed || index == null) {
+			final SegmentStore copy = grow(rows);
+			copy.buildIndex();
+			return copy;
+		}
+		final ByteBuffer values = ByteBuffer.allocateDirect(data.capacity());
+		values.put(0, data, 0, data.capacity());
+		final ByteBuffer aggregates = ByteBuffer.allocateDirect(index.index.capacity());
+		aggregates.put(0, index.index, 0, index.index.capacity());
+		final SegmentStore copy = new SegmentStore(startTime, minutes, rows, keys, values);
+		copy.index = new RangeIndex(minutes, rows, values, aggregates);
+		return copy;
+	}
+
+	/**
+	 * Stores the usage value for the given minute and row in a segment whose index
+	 * is built. The index is updated by refreshIndex.
+	 *
+	 * @param minute minute offset from the start of the segment
+	 * @param row    row of the IP Address and CPU ID
+	 * @param usage  cpu usage
+	 */
+	public void update(final int minute, final int row, final int usage) {
+		put(minute, row, usage);
+		index.markChanged(row, minute);
+	}
+
+	/**
+	 * Updates the range aggregates of the rows changed by update.
+	 */
+	public void refreshIndex() {
+		index.refresh();
+	}
+
+	/**
+	 * Gives the number of bytes held by the segment off the heap.
+	 *
+	 * @return long number of bytes
+	 */
+	public long bytes() {
+		return data.capacity() + (index == null ? 0 : index.index.capacity());
+	}
+
+	/**
+	 * Builds the range aggregates of the segment. This should be called once all
+	 * the usage values are stored.
+	 */
+	public void buildIndex() {
+		index = RangeIndex.build(minutes, rows, data);
+	}
+
+	/**
+	 * Writes the segment and its range aggregates, or its blocks if it is packed,
+	 * to the given file.
+	 *
+	 * @param file     the segment file
+	 * @param rowIndex index of the rows of the segment
+	 * @return long checksum of the segment file
+	 * @exception IOException
+	 */
+	public long write(final File file, final RowIndex rowIndex) throws IOException {
+		if (index == null && !packed) {
+			buildIndex();
+		}
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + rowIndex.size * 8);
+		header.putInt(MAGIC).putInt(packed ? PACKED_VERSION : VERSION).putLong(startTime).putInt(minutes).putInt(rows)
+				.putInt(rowIndex.size);
+		for (int row = 0; row < rowIndex.size; row++) {
+			header.putLong(rowIndex.keys[row]);
+		}
+		header.flip();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final CRC32 crc = new CRC32();
+			final ByteBuffer body = data.duplicate();
+			body.clear();
+			final ByteBuffer aggregates = packed ? ByteBuffer.allocate(0) : index.index.duplicate();
+			aggregates.clear();
+			for (ByteBuffer part : new ByteBuffer[] { header, body, aggregates }) {
+				crc.update(part.duplicate());
+				while (part.hasRemaining()) {
+					channel.write(part);
+				}
+			}
+			this.crc = crc.getValue();
+			return this.crc;
+		}
+	}
+
+	/**
+	 * Reads a segment from the given file. The usage matrix is memory mapped read
+	 * only, so it is not copied onto the heap.
+	 *
+	 * @param file the segment file
+	 * @param crc  expected checksum of the segment file, or -1 to skip the check
+	 * @return SegmentStore the segment read from the file
+	 * @exception IOException if the file is not a valid segment file
+	 */
+	public static SegmentStore read(final File file, final long crc) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			final CRC32 actual = new CRC32();
+			actual.update(buf.duplicate());
+			if (crc >= 0 && actual.getValue() != crc) {
+				throw new IOException(file + " is corrupt, its checksum doesn't match the catalog");
+			}
+			if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) {
+				throw new IOException(file + " is not a segment file");
+			}
+			final int version = buf.getInt();
+			if (version != VERSION && version != PACKED_VERSION) {
+				throw new IOException(file + " is not a segment file");
+			}
+			final long startTime = buf.getLong();
+			final int minutes = buf.getInt();
+			final int rows = buf.getInt();
+			final long keys[] = new long[buf.getInt()];
+			for (int row = 0; row < keys.length; row++) {
+				keys[row] = buf.getLong();
+			}
+			if (version == PACKED_VERSION) {
+				if (buf.remaining() < (long) rows * BlockCodec.blocks(minutes) * BlockCodec.HEADER_BYTES) {
+					throw new IOException(file + " is truncated");
+				}
+				final SegmentStore segment = new SegmentStore(startTime, minutes, rows, keys, buf.slice(), true);
+				if (segment.offsets[segment.offsets.length - 1] != buf.remaining()) {
+					throw new IOException(file + " is truncated");
+				}
+				segment.mapped = buf.clear();
+				segment.crc = actual.getValue();
+				return segment;
+			}
+			if (buf.remaining() != minutes * rows + RangeIndex.bytes(minutes, rows)) {
+				throw new IOException(file + " is truncated");
+			}
+			final ByteBuffer data = buf.slice().limit(minutes * rows);
+			buf.position(buf.position() + minutes * rows);
+			final SegmentStore segment = new SegmentStore(startTime, minutes, rows, keys, data.slice());
+			segment.index = new RangeIndex(minutes, rows, segment.data, buf.slice());
+			segment.mapped = buf.clear();
+			segment.crc = actual.getValue();
+			return segment;
+		}
+	}
+
+}
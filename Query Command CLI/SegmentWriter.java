@@ -0,0 +1,174 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <h1>Writes the parsed logs into segments</h1> Receives the logs from the
+ * {@link LogParser} in the order of the log file and stores each usage value in
+ * the segment and at the minute and row given by its time stamp, IP Address and
+ * CPU ID. Each new IP Address and CPU ID is given the next row in
+ * QueryCommand.rowIndex. A segment is written to its file in the partition of
+ * its day as soon as a log of a later segment is received, so only one segment
+ * is held in memory however many days the log file covers. A segment is grown
+ * when servers join the fleet while it is being filled. A log recorded before
+ * the segment being filled is kept aside and stored in its segment in place
+ * once the log file is ingested (see {@link #storeLate}), so logs which are out
+ * of order are stored where they belong.
+ * <p>
+ * If the store is compressed, each segment is packed into blocks (see
+ * {@link BlockCodec}) before it is written, and all its blocks are decoded
+ * once to measure the decode throughput.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class SegmentWriter implements LogParser.Sink {
+	// Segment which is currently being filled
+	SegmentStore segment = null;
+
+	// Number of the segment which is currently being filled
+	int segmentId = Integer.MIN_VALUE;
+
+	// Number of segments that were started
+	int segmentCount = 0;
+
+	// Logs recorded before the segment being filled, stored by storeLate
+	final ParallelIngest.Chunk late = new ParallelIngest.Chunk(0, 0);
+
+	// Number of usage values stored in the segments
+	long samples = 0;
+
+	// Number of bytes held by the segments
+	long bytes = 0;
+
+	// Number of bytes the segments would take as dense usage matrices, and with
+	// their range aggregates, which the compression ratio is measured against
+	long matrixBytes = 0;
+	long denseBytes = 0;
+
+	// Unix time of the first stored log
+	long firstTime = Long.MAX_VALUE;
+
+	// Unix time of the last stored log
+	long lastTime = Long.MIN_VALUE;
+
+	// Number of logged usage values decoded from the packed segments
+	long decoded = 0;
+
+	// Time spent decoding the packed segments in nanoseconds
+	long decodeNanos = 0;
+
+	@Override
+	public void accept(final long time, final int ip, final int cpuId, final int usage) throws IOException {
+		if (cpuId >= SegmentStore.CPUS || usage > 100) {
+			return;
+		}
+		final int id = QueryCommand.getSegment(time);
+		if (id != segmentId) {
+			if (id < segmentId) {
+				// The segment of the log was already written.
+				late.accept(time, ip, cpuId, usage);
+				return;
+			}
+			flush();
+			segmentId = id;
+			segment = new SegmentStore(QueryCommand.segmentStart(id), QueryCommand.MINUTES_PER_FILE,
+					QueryCommand.rowIndex.segmentRows());
+			segmentCount++;
+		}
+
+		final int row = QueryCommand.rowIndex.add(RowIndex.key(ip, cpuId));
+		if (row >= segment.rows) {
+			segment = segment.grow(QueryCommand.rowIndex.segmentRows());
+		}
+		segment.put((int) (time - QueryCommand.segmentStart(id)) / 60, row, usage);
+		QueryCommand.rowIndex.seen(row, time);
+		firstTime = Math.min(firstTime, time);
+		lastTime = Math.max(lastTime, time);
+		samples++;
+	}
+
+	/**
+	 * Writes the segment which is currently being filled to its file and records
+	 * it in the {@link Catalog}.
+	 *
+	 * @exception IOException
+	 */
+	public void flush() throws IOException {
+		if (segment != null) {
+			final File file = Catalog.segmentFile(segmentId);
+			file.getParentFile().mkdirs();
+			final SegmentStore trimmed = segment.trim(QueryCommand.rowIndex.size);
+			final SegmentStore written = QueryCommand.compress ? trimmed.pack() : trimmed;
+			matrixBytes += (long) trimmed.minutes * trimmed.rows;
+			denseBytes += (long) trimmed.minutes * trimmed.rows + RangeIndex.bytes(trimmed.minutes, trimmed.rows);
+			Catalog.setCrc(segmentId, written.write(file, QueryCommand.rowIndex));
+			if (firstTime <= lastTime) {
+				Catalog.extend(firstTime);
+				Catalog.extend(lastTime);
+			}
+			if (written.packed) {
+				decode(written);
+			}
+			bytes += written.bytes();
+			segment = null;
+		}
+	}
+
+	/**
+	 * Decodes every block of the rows in use of a packed segment and adds the
+	 * time taken to decodeNanos.
+	 *
+	 * @param packed the packed segment
+	 */
+	void decode(final SegmentStore packed) {
+		final byte values[] = new byte[BlockCodec.BLOCK_MINUTES];
+		final int blocks = BlockCodec.blocks(packed.minutes) * Math.min(packed.rows, QueryCommand.rowIndex.size);
+		final long start = System.nanoTime();
+		long count = 0;
+		for (int block = 0; block < blocks; block++) {
+			count += BlockCodec.decode(packed.data, packed.offsets, packed.minutes, block, values);
+		}
+		decodeNanos += System.nanoTime() - start;
+		decoded += count;
+	}
+
+	/**
+	 * Stores the logs which were recorded before the segment being filled at
+	 * their time, in place in their segments. This should be called once the log
+	 * file is ingested and the last segment is written. The logs are grouped by
+	 * segment, keeping the order of the log file within a segment, so every
+	 * segment is copied and written again only once. The segments started for
+	 * these logs are counted, and the bytes of the new versions of the segments
+	 * take the place of the bytes of the versions they replace.
+	 *
+	 * @param follower updates the written segments in place
+	 * @exception IOException
+	 */
+	public void storeLate(final LogFollower follower) throws IOException {
+		int first = Integer.MAX_VALUE;
+		for (int i = 0; i < late.size; i++) {
+			first = Math.min(first, QueryCommand.getSegment(late.times[i]));
+		}
+		// the segment of each log in the high bits and its position in the low bits
+		final long order[] = new long[late.size];
+		for (int i = 0; i < late.size; i++) {
+			order[i] = (long) (QueryCommand.getSegment(late.times[i]) - first) << 32 | i;
+		}
+		Arrays.sort(order);
+		for (long entry : order) {
+			final int i = (int) entry;
+			follower.accept(late.times[i], late.ips[i], (late.cpuUsages[i] >>> 8) & 0xFF, late.cpuUsages[i] & 0xFF);
+		}
+		follower.flush();
+		samples += late.size;
+		segmentCount += follower.segmentsStarted;
+		bytes += follower.bytesWritten - follower.bytesReplaced;
+		final int rows = QueryCommand.rowIndex.size;
+		matrixBytes += (long) follower.segmentsStarted * QueryCommand.MINUTES_PER_FILE * rows;
+		denseBytes += follower.segmentsStarted
+				* ((long) QueryCommand.MINUTES_PER_FILE * rows + RangeIndex.bytes(QueryCommand.MINUTES_PER_FILE, rows));
+	}
+
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h1>Snapshot of the segment store</h1> Everything a command reads from the
+ * store: the time of the first and last log, the server dictionary and the
+ * checksum of every segment, rollup and bitmap index, that is their version.
+ * A snapshot is never changed once it is published, so a command takes the
+ * current snapshot once and reads it without any locking, while the ingest
+ * goes on and publishes the next snapshot. A command therefore never sees a
+ * part of a batch of logs, and two commands running at the same time can't
+ * disturb each other.
+ * <p>
+ * The ingest never changes a segment which was read: it updates a copy of the
+ * segment (see {@link SegmentStore#copy}), which is written to a temporary file
+ * and then moved in place of the segment file. The replaced version is first
+ * retired into the current snapshot, so a command which still reads an older
+ * snapshot finds it there, even if it was evicted from the segment cache. The
+ * retired versions of a snapshot are kept as long as the snapshot or an older
+ * one is held by a command; once no command holds them, the snapshots and
+ * their retired segments are reclaimed by the garbage collector, which also
+ * unmaps the replaced segment files.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class StoreSnapshot {
+	// The snapshot taken by the commands which start now
+	static final AtomicReference<StoreSnapshot> current = new AtomicReference<>(
+			new StoreSnapshot(0, Long.MAX_VALUE, Long.MIN_VALUE, new RowIndex(1), new TreeMap<>()));
+
+	// Number of the snapshot, counted from 0 when the program starts
+	final long generation;
+
+	// Unix time of the first log in the store
+	final long firstTime;
+
+	// Unix time of the last log in the store
+	final long lastTime;
+
+	// The server dictionary, a copy which is not changed by the ingest
+	final RowIndex rows;
+
+	// Partitions of the store by day, not changed once the snapshot is published
+	final TreeMap<Integer, Catalog.Partition> partitions;
+
+	// Versions of the segments replaced after this snapshot was published, by
+	// segment number and checksum
+	final ConcurrentHashMap<Long, SegmentStore> retired = new ConcurrentHashMap<>();
+
+	// The snapshot published after this one, or null if this one is current
+	volatile StoreSnapshot next = null;
+
+	/**
+	 * Creates a snapshot.
+	 *
+	 * @param generation number of the snapshot
+	 * @param firstTime  unix time of the first log in the store
+	 * @param lastTime   unix time of the last log in the store
+	 * @param rows       the server dictionary
+	 * @param partitions partitions of the store by day
+	 */
+	StoreSnapshot(final long generation, final long firstTime, final long lastTime, final RowIndex rows,
+			final TreeMap<Integer, Catalog.Partition> partitions) {
+		this.generation = generation;
+		this.firstTime = firstTime;
+		this.lastTime = lastTime;
+		this.rows = rows;
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Gives the current snapshot, which a command should take once and read until
+	 * it is done.
+	 *
+	 * @return StoreSnapshot the current snapshot
+	 */
+	public static StoreSnapshot current() {
+		return current.get();
+	}
+
+	/**
+	 * Publishes a snapshot of the {@link Catalog} and the server dictionary as
+	 * they are now. This is called by the ingest once a batch of logs is in the
+	 * store and its catalogs are written.
+	 *
+	 * @return StoreSnapshot the published snapshot
+	 */
+	public static StoreSnapshot publish() {
+		final StoreSnapshot snapshot;
+		synchronized (Catalog.class) {
+			final StoreSnapshot previous = current.get();
+			snapshot = new StoreSnapshot(previous.generation + 1, Catalog.firstTime, Catalog.lastTime,
+					new RowIndex(QueryCommand.rowIndex), new TreeMap<>(Catalog.partitions));
+			previous.next = snapshot;
+			current.set(snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Keeps a version of a segment which is about to be replaced for the
+	 * commands which read the current snapshot or an older one. A version which
+	 * is not in the current snapshot, because it was written by the initial
+	 * ingest or earlier in the same batch, is seen by no command and is not
+	 * kept; the versions in older snapshots were retired when they were
+	 * replaced.
+	 *
+	 * @param id      number of the segment
+	 * @param segment the replaced version
+	 */
+	public static void retire(final int id, final SegmentStore segment) {
+		final StoreSnapshot snapshot = current.get();
+		if (snapshot.crc(id) == segment.crc) {
+			snapshot.retired.put(SegmentCache.key(id, segment.crc), segment);
+		}
+	}
+
+	/**
+	 * Gives the checksum of the given segment.
+	 *
+	 * @param segment the segment
+	 * @return long the checksum, or -1 if the segment was not written
+	 */
+	public long crc(final int segment) {
+		return Catalog.crc(partitions, segment);
+	}
+
+	/**
+	 * Gives the first written segment at or after the given segment.
+	 *
+	 * @param segment the segment
+	 * @return int the first written segment, or Integer.MAX_VALUE if there is none
+	 */
+	public int nextSegment(final int segment) {
+		return Catalog.nextSegment(partitions, segment);
+	}
+
+	/**
+	 * Gives the version of the given segment which is in this snapshot, from the
+	 * segment cache or from the versions retired since.
+	 *
+	 * @param id number of the segment
+	 * @return SegmentStore the segment, or null if it wasn't written or couldn't
+	 *         be read
+	 */
+	public SegmentStore segment(final int id) {
+		final long crc = crc(id);
+		if (crc < 0) {
+			return null;
+		}
+		SegmentStore segment = next == null ? null : retired(id, crc);
+		if (segment != null) {
+			return segment;
+		}
+		try {
+			return QueryCommand.cache.get(id, crc);
+		} catch (IOException e) {
+			// the segment file was replaced by a newer version since
+			segment = retired(id, crc);
+			if (segment == null) {
+				e.printStackTrace();
+			}
+			return segment;
+		}
+	}
+
+	/**
+	 * Gives the rollup of the given tier of a day which is in this snapshot.
+	 *
+	 * @param day  day of the partition
+	 * @param tier the tier (see {@link Rollup#TIER_MINUTES})
+	 * @return Rollup the rollup, or null if the day has no up to date rollups in
+	 *         this snapshot, in which case its segments should be read
+	 */
+	public Rollup rollup(final int day, final int tier) {
+		final Catalog.Partition partition = partitions.get(day);
+		final long crc = partition == null ? -1 : partition.crcs()[Catalog.ROLLUPS + tier];
+		if (crc < 0) {
+			return null;
+		}
+		try {
+			return Rollup.get(day, tier, crc);
+		} catch (IOException e) {
+			// the day was rolled up again since, so its segments are read instead
+			return null;
+		}
+	}
+
+	/**
+	 * Gives the bitmap index of a day which is in this snapshot.
+	 *
+	 * @param day day of the partition
+	 * @return BitmapIndex the index, or null if the day has no up to date index
+	 *         in this snapshot, in which case its segments should be read
+	 */
+	public BitmapIndex bitmaps(final int day) {
+		final Catalog.Partition partition = partitions.get(day);
+		final long crc = partition == null ? -1 : partition.crcs()[Catalog.BITMAPS];
+		if (crc < 0) {
+			return null;
+		}
+		try {
+			return BitmapIndex.get(day, crc);
+		} catch (IOException e) {
+			// the index was built again since, so the segments are read instead
+			return null;
+		}
+	}
+
+	/**
+	 * Gives a version of a segment which was retired since this snapshot was
+	 * published.
+	 *
+	 * @param id  number of the segment
+	 * @param crc checksum of the version
+	 * @return SegmentStore the version, or null if it wasn't retired
+	 */
+	SegmentStore retired(final int id, final long crc) {
+		for (StoreSnapshot snapshot = this; snapshot != null; snapshot = snapshot.next) {
+			final SegmentStore segment = snapshot.retired.get(SegmentCache.key(id, crc));
+			if (segment != null) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+}
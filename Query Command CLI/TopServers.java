@@ -0,0 +1,278 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <h1>Implement the TOP command</h1> Finds the N busiest servers of the whole
+ * fleet in a time range. The rows of the segments are split among the threads
+ * of a fork-join pool. Each task takes the aggregate of every server in its
+ * rows from the 1 hour and 1 day rollups (see {@link Rollup}) for the whole
+ * hours and days in the time range, and from the range indexes of the segments
+ * for the partial hours at its edges and for the days whose rollups are not up
+ * to date, and keeps the N busiest servers it has seen in a bounded min-heap.
+ * The heaps of the tasks are then merged into the final N servers.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class TopServers {
+	// Number of rows a task aggregates without splitting further
+	final static int ROWS_PER_TASK = 128;
+
+	/**
+	 * Min-heap which keeps the N servers with the highest score. Servers with the
+	 * same score are ranked by their IP Address, so the result doesn't depend on
+	 * the order in which the servers are offered.
+	 */
+	static class Heap {
+		final double scores[];
+		final int ips[];
+		int size = 0;
+
+		Heap(final int capacity) {
+			scores = new double[capacity];
+			ips = new int[capacity];
+		}
+
+		/**
+		 * Checks if the first server ranks below the second one.
+		 */
+		static boolean below(final double score1, final int ip1, final double score2, final int ip2) {
+			return score1 < score2 || (score1 == score2 && Integer.compareUnsigned(ip1, ip2) > 0);
+		}
+
+		/**
+		 * Offers a server to the heap, which keeps it if it is among the N highest.
+		 *
+		 * @param score score of the server
+		 * @param ip    IP Address of the server
+		 */
+		void offer(final double score, final int ip) {
+			if (size < scores.length) {
+				int i = size++;
+				while (i > 0 && below(score, ip, scores[(i - 1) / 2], ips[(i - 1) / 2])) {
+					scores[i] = scores[(i - 1) / 2];
+					ips[i] = ips[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				scores[i] = score;
+				ips[i] = ip;
+			} else if (size > 0 && below(scores[0], ips[0], score, ip)) {
+				int i = 0;
+				while (2 * i + 1 < size) {
+					int child = 2 * i + 1;
+					if (child + 1 < size && below(scores[child + 1], ips[child + 1], scores[child], ips[child])) {
+						child++;
+					}
+					if (!below(scores[child], ips[child], score, ip)) {
+						break;
+					}
+					scores[i] = scores[child];
+					ips[i] = ips[child];
+					i = child;
+				}
+				scores[i] = score;
+				ips[i] = ip;
+			}
+		}
+	}
+
+	/**
+	 * Fork-join task which ranks the servers in a range of rows.
+	 */
+	static class TopTask extends RecursiveTask<Heap> {
+		private static final long serialVersionUID = 1L;
+
+		final RowIndex rows;
+		final Rollup rollups[];
+		final int buckets[];
+		final SegmentStore segments[];
+		final int from[];
+		final int to[];
+		final int n;
+		final int cpuId;
+		final boolean peak;
+		final int lo;
+		final int hi;
+
+		TopTask(final RowIndex rows, final Rollup rollups[], final int buckets[], final SegmentStore segments[],
+				final int from[], final int to[], final int n, final int cpuId, final boolean peak, final int lo,
+				final int hi) {
+			this.rows = rows;
+			this.rollups = rollups;
+			this.buckets = buckets;
+			this.segments = segments;
+			this.from = from;
+			this.to = to;
+			this.n = n;
+			this.cpuId = cpuId;
+			this.peak = peak;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected Heap compute() {
+			if (hi - lo > ROWS_PER_TASK) {
+				final int mid = (lo + hi) >>> 1;
+				final TopTask left = new TopTask(rows, rollups, buckets, segments, from, to, n, cpuId, peak, lo, mid);
+				left.fork();
+				final Heap right = new TopTask(rows, rollups, buckets, segments, from, to, n, cpuId, peak, mid, hi).compute();
+				final Heap heap = left.join();
+				for (int i = 0; i < right.size; i++) {
+					heap.offer(right.scores[i], right.ips[i]);
+				}
+				return heap;
+			}
+
+			final Heap heap = new Heap(n);
+			final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+			for (int row = lo; row < hi; row++) {
+				final long key = rows.keys[row];
+				final int cpu = (int) (key & 1);
+				final int ip = (int) (key >>> 1);
+
+				// A server is ranked from the row of its CPU 0 when both CPUs are ranked,
+				// unless it only logged CPU 1.
+				if (cpuId >= 0 ? cpu != cpuId
+						: cpu == 1 && rows.get(RowIndex.key(ip, 0)) >= 0) {
+					continue;
+				}
+
+				agg.clear();
+				aggregate(row, agg);
+				if (cpuId < 0 && cpu == 0) {
+					final int other = rows.get(RowIndex.key(ip, 1));
+					if (other >= 0) {
+						aggregate(other, agg);
+					}
+				}
+				if (agg.count > 0) {
+					heap.offer(peak ? agg.max : agg.avg(), ip);
+				}
+			}
+			return heap;
+		}
+
+		/**
+		 * Adds the aggregate of the row over the time range to the given aggregate.
+		 */
+		void aggregate(final int row, final RangeIndex.Aggregate agg) {
+			for (int i = 0; i < rollups.length; i++) {
+				rollups[i].add(row, buckets[i], agg);
+			}
+			for (int i = 0; i < segments.length; i++) {
+				if (row < segments[i].rows) {
+					segments[i].aggregate(row, from[i], to[i], agg);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the N busiest servers in the given time range.
+	 *
+	 * @param snapshot  snapshot of the store
+	 * @param n         number of servers
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param cpuId     CPU ID to rank, or -1 to rank both CPUs together
+	 * @param peak      true to rank by the peak usage, false to rank by the mean
+	 *                  usage
+	 * @return Heap the busiest servers in heap order
+	 */
+	public static Heap top(final StoreSnapshot snapshot, final int n, final long unixStart, final long unixEnd,
+			final int cpuId, final boolean peak) {
+		// the whole hours and days in the time range are taken from the rollups and
+		// the other minutes from the segments
+		final ArrayList<Rollup> rollups = new ArrayList<>();
+		final ArrayList<Integer> buckets = new ArrayList<>();
+		final ArrayList<SegmentStore> segments = new ArrayList<>();
+		final ArrayList<int[]> ranges = new ArrayList<>();
+		final int finest = Rollup.tier(QueryCommand.MINUTES_PER_FILE);
+		final long endMinute = Math.floorDiv(unixEnd, 60);
+		long minute = Math.floorDiv(unixStart, 60);
+		while (minute < endMinute) {
+			// the segments which were not written are skipped
+			final int s = snapshot.nextSegment((int) Math.floorDiv(minute, QueryCommand.MINUTES_PER_FILE));
+			if (s == Integer.MAX_VALUE) {
+				break;
+			}
+			final long segmentMinute = (long) s * QueryCommand.MINUTES_PER_FILE;
+			if (segmentMinute > minute) {
+				minute = segmentMinute;
+				continue;
+			}
+
+			final Rollup rollup = Rollup.covering(snapshot, minute, endMinute, finest);
+			if (rollup != null) {
+				rollups.add(rollup);
+				buckets.add(rollup.bucket(minute));
+				minute += Rollup.TIER_MINUTES[rollup.tier];
+				continue;
+			}
+			final SegmentStore segment = snapshot.segment(s);
+			final int from = (int) (minute - segmentMinute);
+			final int to = (int) Math.min(QueryCommand.MINUTES_PER_FILE, endMinute - segmentMinute);
+			if (segment != null) {
+				segments.add(segment);
+				ranges.add(new int[] { from, to });
+			}
+			minute = segmentMinute + to;
+		}
+
+		final int bucket[] = new int[buckets.size()];
+		for (int i = 0; i < buckets.size(); i++) {
+			bucket[i] = buckets.get(i);
+		}
+		final int from[] = new int[ranges.size()];
+		final int to[] = new int[ranges.size()];
+		for (int i = 0; i < ranges.size(); i++) {
+			from[i] = ranges.get(i)[0];
+			to[i] = ranges.get(i)[1];
+		}
+		return ForkJoinPool.commonPool().invoke(new TopTask(snapshot.rows, rollups.toArray(new Rollup[0]), bucket,
+				segments.toArray(new SegmentStore[0]), from, to, n, cpuId, peak, 0, snapshot.rows.size));
+	}
+
+	/**
+	 * Displays the N busiest servers in the given time range, busiest first.
+	 *
+	 * @param snapshot  snapshot of the store
+	 * @param n         number of servers
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param cpuId     CPU ID to rank, or -1 to rank both CPUs together
+	 * @param peak      true to rank by the peak usage, false to rank by the mean
+	 *                  usage
+	 * @param start     Starting time
+	 * @param end       Ending time
+	 * @param out       writer to which the result is written
+	 */
+	public static void display(final StoreSnapshot snapshot, final int n, final long unixStart,
+			final long unixEnd, final int cpuId, final boolean peak, final String start, final String end,
+			final ResultWriter out) {
+		final Heap heap = top(snapshot, n, unixStart, unixEnd, cpuId, peak);
+		out.note("Top " + n + " servers by " + (peak ? "peak" : "mean")
+				+ (cpuId < 0 ? " CPU" : " CPU" + cpuId) + " usage from " + start + " to " + end + ": ");
+		if (heap.size == 0) {
+			out.note("Logs at this given time " + start + " don't exist!!");
+			return;
+		}
+
+		// sort the heap, busiest first
+		final Integer order[] = new Integer[heap.size];
+		for (int i = 0; i < heap.size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Heap.below(heap.scores[a], heap.ips[a], heap.scores[b], heap.ips[b])
+				? 1 : Heap.below(heap.scores[b], heap.ips[b], heap.scores[a], heap.ips[a]) ? -1 : 0);
+
+		for (int i = 0; i < order.length; i++) {
+			out.top(i + 1, heap.ips[order[i]], heap.scores[order[i]]);
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+/**
+ * <h1>Scan kernels over the usage values</h1> The loops which read every usage
+ * value of many servers: the range indexes of the segments and the rollups are
+ * built with them, and WHERE scans the days without a bitmap index with them.
+ * The usage values of a minute are laid out row after row in a segment, so the
+ * kernels take the usage values of all the rows of a minute as a byte array and
+ * update one element per row of their outputs, which is the same operation for
+ * every row.
+ * <p>
+ * These kernels are the scalar ones. If the Java runtime has the Vector API
+ * (the jdk.incubator.vector module, added with --add-modules), the tool uses
+ * the kernels of {@link VectorKernels} instead, which handle 16 to 64 rows at
+ * a time with SIMD instructions. Until the JIT compiles them, the vector
+ * kernels are far slower than the scalar ones, so they are first run on a
+ * small array on a background thread and the tool uses the scalar kernels
+ * until they are compiled. Both give the same results, so the kernels can
+ * change while the tool runs. The kernels can also be chosen with --kernels.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class UsageKernels {
+	// Names of the kernels
+	final static String SCALAR = "scalar";
+	final static String VECTOR = "vector";
+
+	// Scalar kernels
+	final static UsageKernels SCALAR_KERNELS = new UsageKernels();
+
+	// Vector kernels, or null if the runtime has no Vector API
+	final static UsageKernels VECTOR_KERNELS = vectorKernels();
+
+	// Number of rows and of runs of the vector kernels which warm them up, so
+	// that the JIT compiles them
+	final static int WARM_UP_ROWS = 256;
+	final static int WARM_UP_RUNS = 10_000;
+
+	// Kernels used by the tool: the scalar kernels until the vector kernels are
+	// warmed up, or the kernels given by --kernels
+	static volatile UsageKernels kernels = SCALAR_KERNELS;
+
+	// true once the kernels are given by --kernels
+	static volatile boolean chosen = false;
+
+	// Thread warming up the vector kernels, or null if it was not started
+	static Thread warmer = null;
+
+	/**
+	 * Gives the vector kernels. They are loaded by reflection, so the tool still
+	 * runs on a Java runtime started without the jdk.incubator.vector module.
+	 *
+	 * @return UsageKernels the vector kernels, or null if the runtime has no
+	 *         Vector API or no SIMD instructions
+	 */
+	static UsageKernels vectorKernels() {
+		try {
+			return (UsageKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts warming up the vector kernels on a daemon thread, after which the
+	 * tool uses them unless other kernels were chosen.
+	 */
+	public static synchronized void warmUp() {
+		if (VECTOR_KERNELS == null || warmer != null) {
+			return;
+		}
+		warmer = new Thread(() -> {
+			final byte usages[] = new byte[WARM_UP_ROWS];
+			final int sums[] = new int[WARM_UP_ROWS];
+			final int counts[] = new int[WARM_UP_ROWS];
+			final byte mins[] = new byte[WARM_UP_ROWS];
+			final byte maxs[] = new byte[WARM_UP_ROWS];
+			final long words[] = new long[WARM_UP_ROWS];
+			for (int run = 0; run < WARM_UP_RUNS && !chosen; run++) {
+				usages[run % WARM_UP_ROWS] = (byte) (run % (QueryPlan.USAGE_MAX + 1));
+				VECTOR_KERNELS.accumulate(usages, WARM_UP_ROWS, sums, counts, mins, maxs);
+				VECTOR_KERNELS.match(usages, WARM_UP_ROWS, run % QueryPlan.USAGE_MAX, QueryPlan.USAGE_MAX, words,
+						1L << (run & 63));
+			}
+			if (!chosen) {
+				kernels = VECTOR_KERNELS;
+			}
+		}, "kernel-warm-up");
+		warmer.setDaemon(true);
+		warmer.start();
+	}
+
+	/**
+	 * Chooses the kernels used by the tool.
+	 *
+	 * @param name name of the kernels: scalar or vector
+	 * @return boolean true if the kernels are used, false if there are no such
+	 *         kernels in this runtime
+	 */
+	public static boolean use(final String name) {
+		if (name.equalsIgnoreCase(SCALAR)) {
+			kernels = SCALAR_KERNELS;
+		} else if (name.equalsIgnoreCase(VECTOR) && VECTOR_KERNELS != null) {
+			kernels = VECTOR_KERNELS;
+		} else {
+			return false;
+		}
+		chosen = true;
+		return true;
+	}
+
+	/**
+	 * Gives the kernels used by the tool.
+	 *
+	 * @return UsageKernels the kernels
+	 */
+	public static UsageKernels current() {
+		return kernels;
+	}
+
+	/**
+	 * Gives the name of the kernels as it is shown to the user.
+	 *
+	 * @return string the name
+	 */
+	public String name() {
+		return SCALAR;
+	}
+
+	/**
+	 * Adds the usage values of a minute to the aggregates of their rows. A
+	 * missing usage value is left out.
+	 *
+	 * @param usages usage value of every row, SegmentStore.MISSING if missing
+	 * @param count  number of rows
+	 * @param sums   sum of the usage values of every row
+	 * @param counts number of the usage values of every row
+	 * @param mins   minimum usage value of every row, RangeIndex.NO_MIN if none
+	 * @param maxs   maximum usage value of every row, SegmentStore.MISSING if
+	 *               none
+	 */
+	public void accumulate(final byte usages[], final int count, final int sums[], final int counts[],
+			final byte mins[], final byte maxs[]) {
+		accumulate(usages, 0, count, sums, counts, mins, maxs);
+	}
+
+	/**
+	 * Adds the usage values of the rows from the given row to the aggregates of
+	 * their rows.
+	 */
+	static void accumulate(final byte usages[], final int from, final int count, final int sums[],
+			final int counts[], final byte mins[], final byte maxs[]) {
+		for (int row = from; row < count; row++) {
+			final byte usage = usages[row];
+			if (usage != SegmentStore.MISSING) {
+				sums[row] += usage;
+				counts[row]++;
+				mins[row] = (byte) Math.min(mins[row], usage);
+				maxs[row] = (byte) Math.max(maxs[row], usage);
+			}
+		}
+	}
+
+	/**
+	 * Sets the given bit in the words of the rows whose usage value of a minute
+	 * is in a range.
+	 *
+	 * @param usages usage value of every row, SegmentStore.MISSING if missing
+	 * @param count  number of rows
+	 * @param low    lowest usage value of the range, at least 0
+	 * @param high   highest usage value of the range
+	 * @param words  word of every row
+	 * @param bit    the bit of the minute
+	 */
+	public void match(final byte usages[], final int count, final int low, final int high, final long words[],
+			final long bit) {
+		match(usages, 0, count, low, high, words, bit);
+	}
+
+	/**
+	 * Sets the given bit in the words of the rows from the given row whose usage
+	 * value of a minute is in a range.
+	 */
+	static void match(final byte usages[], final int from, final int count, final int low, final int high,
+			final long words[], final long bit) {
+		for (int row = from; row < count; row++) {
+			final int usage = usages[row];
+			if (usage >= low && usage <= high) {
+				words[row] |= bit;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+import java.util.Arrays;
+
+/**
+ * <h1>Implement the WHERE command</h1> Finds the minutes in which the usage
+ * values of the targeted servers and CPUs were in a range, and the runs of
+ * such minutes which lasted at least a given number of minutes, across the
+ * whole fleet. The search is answered from the bitmap indexes of the days (see
+ * {@link BitmapIndex}): for every hour of the time range the bitmaps of the
+ * buckets which are wholly in the range are ORed into one word per row, and
+ * only the minutes in the buckets cut by the ends of the range are checked
+ * against the usage values of their segment. The runs are then found in the
+ * words with bit arithmetic and carried from one hour to the next, so a run
+ * can span any number of hours. A day without an up to date index, because
+ * its segments were written since, is scanned from its segments instead, with
+ * the scan kernels (see {@link UsageKernels}).
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class UsageSearch {
+	// The usage range searched, inclusive
+	final int low;
+	final int high;
+
+	// Number of consecutive minutes a run needs to be found
+	final int sustained;
+
+	// Rows targeted, in the order of the results
+	final int rows[];
+
+	// Word of every row for the hour being searched: bit m is set if the usage
+	// value of minute m of the hour is in the range
+	final long words[];
+
+	// Words of the minutes in the buckets cut by the ends of the range, which
+	// are checked against the segment
+	final long candidates[];
+
+	// Usage values of every row for a minute of a scanned segment
+	final byte usages[];
+
+	// Start and end minute of the run of every targeted row, or -1 if it has
+	// none open
+	final long runStarts[];
+	final long runEnds[];
+
+	// Runs found: the targeted row (as its index in rows) and number of each run
+	// in the high and low bits, and the start minute and length of each run
+	long keys[] = new long[64];
+	long starts[] = new long[64];
+	int lengths[] = new int[64];
+	int runs = 0;
+
+	// Number of hours searched through the bitmap indexes and by a segment scan
+	int indexedHours = 0;
+	int scannedHours = 0;
+
+	/**
+	 * Creates a search of the given rows.
+	 *
+	 * @param rowCount  number of rows in the server dictionary
+	 * @param rows      the targeted rows
+	 * @param low       lowest usage value searched
+	 * @param high      highest usage value searched
+	 * @param sustained number of consecutive minutes a run needs
+	 */
+	UsageSearch(final int rowCount, final int rows[], final int low, final int high, final int sustained) {
+		this.low = low;
+		this.high = high;
+		this.sustained = sustained;
+		this.rows = rows;
+		words = new long[rowCount];
+		candidates = new long[rowCount];
+		usages = new byte[rowCount];
+		runStarts = new long[rows.length];
+		runEnds = new long[rows.length];
+		Arrays.fill(runStarts, -1);
+	}
+
+	/**
+	 * Searches the given minutes of an hour.
+	 *
+	 * @param snapshot snapshot of the store
+	 * @param s        the segment of the hour
+	 * @param from     first minute of the hour searched
+	 * @param to       minute of the hour just after the last one searched
+	 */
+	void search(final StoreSnapshot snapshot, final int s, final int from, final int to) {
+		final long mask = ((1L << to) - 1) & -(1L << from);
+		final int day = Math.floorDiv(s, Catalog.SEGMENTS_PER_PARTITION);
+		final int hour = Math.floorMod(s, Catalog.SEGMENTS_PER_PARTITION);
+		final BitmapIndex index = snapshot.bitmaps(day);
+		SegmentStore segment = null;
+		Arrays.fill(words, 0);
+		if (index != null) {
+			indexedHours++;
+			boolean cut = false;
+			Arrays.fill(candidates, 0);
+			for (int bucket = BitmapIndex.bucket(low); bucket <= BitmapIndex.bucket(high); bucket++) {
+				final int bucketLow = bucket * BitmapIndex.BUCKET_WIDTH;
+				final int bucketHigh = Math.min(bucketLow + BitmapIndex.BUCKET_WIDTH - 1, QueryPlan.USAGE_MAX);
+				if (low <= bucketLow && bucketHigh <= high) {
+					index.or(hour, bucket, words);
+				} else {
+					index.or(hour, bucket, candidates);
+					cut = true;
+				}
+			}
+			// only the candidates of the cut buckets are read from the segment
+			for (int t = 0; cut && t < rows.length; t++) {
+				final int row = rows[t];
+				long bits = candidates[row] & mask;
+				if (bits != 0 && segment == null && (segment = snapshot.segment(s)) == null) {
+					break;
+				}
+				while (bits != 0) {
+					final int minute = Long.numberOfTrailingZeros(bits);
+					final int usage = segment.usage(minute, row);
+					if (usage >= low && usage <= high) {
+						words[row] |= 1L << minute;
+					}
+					bits &= bits - 1;
+				}
+			}
+		} else {
+			// all the rows of a minute are matched at a time by the scan kernels
+			scannedHours++;
+			segment = snapshot.segment(s);
+			final UsageKernels kernels = UsageKernels.kernels;
+			for (int minute = from; segment != null && minute < Math.min(to, segment.minutes); minute++) {
+				kernels.match(usages, segment.usages(minute, usages), low, high, words, 1L << minute);
+			}
+		}
+
+		final long segmentMinute = (long) s * QueryCommand.MINUTES_PER_FILE;
+		for (int t = 0; t < rows.length; t++) {
+			long bits = words[rows[t]] & mask;
+			while (bits != 0) {
+				final int first = Long.numberOfTrailingZeros(bits);
+				final int last = first + Long.numberOfTrailingZeros(~(bits >>> first));
+				final long start = segmentMinute + first;
+				if (runStarts[t] >= 0 && runEnds[t] == start) {
+					runEnds[t] = segmentMinute + last;
+				} else {
+					close(t);
+					runStarts[t] = start;
+					runEnds[t] = segmentMinute + last;
+				}
+				bits &= -(1L << last);
+			}
+		}
+	}
+
+	/**
+	 * Closes the open run of a targeted row, keeping it if it lasted long enough.
+	 *
+	 * @param t index of the row in rows
+	 */
+	void close(final int t) {
+		if (runStarts[t] < 0) {
+			return;
+		}
+		final int length = (int) (runEnds[t] - runStarts[t]);
+		if (length >= sustained) {
+			if (runs == keys.length) {
+				keys = Arrays.copyOf(keys, runs * 2);
+				starts = Arrays.copyOf(starts, runs * 2);
+				lengths = Arrays.copyOf(lengths, runs * 2);
+			}
+			keys[runs] = (long) t << 32 | runs;
+			starts[runs] = runStarts[t];
+			lengths[runs] = length;
+			runs++;
+		}
+		runStarts[t] = -1;
+	}
+
+	/**
+	 * Finds the runs of the targeted rows in the given time range.
+	 *
+	 * @param snapshot  snapshot of the store
+	 * @param rows      the targeted rows
+	 * @param low       lowest usage value searched
+	 * @param high      highest usage value searched
+	 * @param sustained number of consecutive minutes a run needs
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @return UsageSearch the search, with its runs sorted by row and then by time
+	 */
+	public static UsageSearch search(final StoreSnapshot snapshot, final int rows[], final int low, final int high,
+			final int sustained, final long unixStart, final long unixEnd) {
+		final UsageSearch search = new UsageSearch(snapshot.rows.size, rows, low, high, sustained);
+		final long startMinute = Math.floorDiv(unixStart, 60);
+		final long endMinute = Math.floorDiv(unixEnd, 60);
+		for (int s = snapshot.nextSegment(QueryCommand.getSegment(unixStart)); rows.length > 0
+				&& s != Integer.MAX_VALUE && QueryCommand.segmentStart(s) < unixEnd; s = snapshot.nextSegment(s + 1)) {
+			final long segmentMinute = (long) s * QueryCommand.MINUTES_PER_FILE;
+			final int from = (int) Math.max(0, startMinute - segmentMinute);
+			final int to = (int) Math.min(QueryCommand.MINUTES_PER_FILE, endMinute - segmentMinute);
+			if (from < to) {
+				search.search(snapshot, s, from, to);
+			}
+		}
+		for (int t = 0; t < rows.length; t++) {
+			search.close(t);
+		}
+		Arrays.sort(search.keys, 0, search.runs);
+		return search;
+	}
+
+	/**
+	 * Displays the runs of the targeted servers and CPUs in the given time range,
+	 * by server and CPU and then by time.
+	 *
+	 * @param snapshot  snapshot of the store
+	 * @param plan      plan of the command
+	 * @param rows      the targeted rows
+	 * @param unixStart Starting unix time
+	 * @param unixEnd   Ending unix time
+	 * @param start     Starting time
+	 * @param end       Ending time
+	 * @param out       writer to which the result is written
+	 */
+	public static void display(final StoreSnapshot snapshot, final QueryPlan plan, final int rows[],
+			final long unixStart, final long unixEnd, final String start, final String end, final ResultWriter out) {
+		final UsageSearch search = search(snapshot, rows, plan.low, plan.high, plan.sustained, unixStart, unixEnd);
+		final String range = plan.low == plan.high ? plan.low + "%" : plan.low + "% to " + plan.high + "%";
+		out.note("CPU" + plan.cpu() + " usage of " + range + (plan.sustained > 1
+				? " for " + plan.sustained + " minutes or more" : "") + " on " + plan.target() + " from " + start
+				+ " to " + end + ": ");
+		if (search.runs == 0) {
+			out.note("No usage of " + range + " for this IP: " + plan.target() + " and for this CPU ID: "
+					+ plan.cpu() + " at this given time " + start + "!!");
+			return;
+		}
+
+		long minutes = 0;
+		for (int i = 0; i < search.runs; i++) {
+			final int run = (int) search.keys[i];
+			final long key = snapshot.rows.keys[rows[(int) (search.keys[i] >>> 32)]];
+			out.run((int) (key >>> 1), (int) (key & 1), search.starts[run] * 60, search.lengths[run]);
+			minutes += search.lengths[run];
+		}
+		out.note(String.format("%,d %s, %,d %s (%,d %s from the bitmap indexes, %,d scanned)", search.runs,
+				search.runs == 1 ? "run" : "runs", minutes, minutes == 1 ? "minute" : "minutes", search.indexedHours,
+				search.indexedHours == 1 ? "hour" : "hours", search.scannedHours));
+	}
+
+}
@@ -0,0 +1,110 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <h1>SIMD scan kernels</h1> The kernels of {@link UsageKernels} written with
+ * the Vector API, which the JIT compiles to the SIMD instructions of the
+ * machine: the usage values of as many rows as a vector register holds bytes
+ * are aggregated at once, and the sums and counts are widened from bytes to
+ * ints in four parts of a byte vector. The usage values matched against a range
+ * are widened to longs, as many as a vector register holds, so the bit of the
+ * minute is set in their words in the same registers. The rows left after the
+ * last full vector are handled by the scalar kernels.
+ * <p>
+ * This class is only loaded when the Java runtime is started with
+ * --add-modules jdk.incubator.vector; it refuses to be created on a machine
+ * whose vectors are narrower than 128 bits, where the Vector API falls back to
+ * plain Java code which is slower than the scalar kernels.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class VectorKernels extends UsageKernels {
+	// Narrowest vectors for which the vector kernels are used, in bits
+	final static int MIN_VECTOR_BITS = 128;
+
+	// Byte vectors of the widest shape of the machine
+	final static VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+	// Int vectors of the same shape, holding a quarter of a byte vector
+	final static VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED.withShape(BYTES.vectorShape());
+
+	// Number of int vectors per byte vector
+	final static int PARTS = BYTES.length() / INTS.length();
+
+	// Long vectors of the widest shape of the machine
+	final static VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+	// Byte vectors of 8 rows, widened to long vectors for the words of the rows
+	final static VectorSpecies<Byte> ROW_BYTES = ByteVector.SPECIES_64;
+
+	// Number of long vectors per 8 rows
+	final static int LONG_PARTS = ROW_BYTES.length() / LONGS.length();
+
+	/**
+	 * Creates the vector kernels.
+	 *
+	 * @exception UnsupportedOperationException if the vectors of the machine are
+	 *                                          too narrow
+	 */
+	public VectorKernels() {
+		if (BYTES.vectorBitSize() < MIN_VECTOR_BITS) {
+			throw new UnsupportedOperationException(BYTES.vectorBitSize() + " bit vectors");
+		}
+	}
+
+	@Override
+	public String name() {
+		return VECTOR + " (" + BYTES.vectorBitSize() + " bit)";
+	}
+
+	@Override
+	public void accumulate(final byte usages[], final int count, final int sums[], final int counts[],
+			final byte mins[], final byte maxs[]) {
+		final int bound = BYTES.loopBound(count);
+		for (int row = 0; row < bound; row += BYTES.length()) {
+			final ByteVector usage = ByteVector.fromArray(BYTES, usages, row);
+			final VectorMask<Byte> missing = usage.compare(VectorOperators.EQ, SegmentStore.MISSING);
+
+			// a missing value is -1, below any usage value, so it never is the maximum
+			ByteVector.fromArray(BYTES, maxs, row).max(usage).intoArray(maxs, row);
+			ByteVector.fromArray(BYTES, mins, row).min(usage.blend(RangeIndex.NO_MIN, missing)).intoArray(mins, row);
+
+			final ByteVector values = usage.blend((byte) 0, missing);
+			final ByteVector present = ByteVector.broadcast(BYTES, (byte) 1).blend((byte) 0, missing);
+			for (int part = 0; part < PARTS; part++) {
+				final int i = row + part * INTS.length();
+				IntVector.fromArray(INTS, sums, i)
+						.add((IntVector) values.convertShape(VectorOperators.B2I, INTS, part)).intoArray(sums, i);
+				IntVector.fromArray(INTS, counts, i)
+						.add((IntVector) present.convertShape(VectorOperators.B2I, INTS, part)).intoArray(counts, i);
+			}
+		}
+		accumulate(usages, bound, count, sums, counts, mins, maxs);
+	}
+
+	@Override
+	public void match(final byte usages[], final int count, final int low, final int high, final long words[],
+			final long bit) {
+		// the usage values are widened to the lanes of the words, so the bit is set
+		// by a masked OR without leaving the vector registers
+		final int bound = ROW_BYTES.loopBound(count);
+		for (int row = 0; row < bound; row += ROW_BYTES.length()) {
+			final ByteVector usage = ByteVector.fromArray(ROW_BYTES, usages, row);
+			for (int part = 0; part < LONG_PARTS; part++) {
+				final int i = row + part * LONGS.length();
+				final LongVector wide = (LongVector) usage.convertShape(VectorOperators.B2L, LONGS, part);
+				final VectorMask<Long> matches = wide.compare(VectorOperators.GE, low)
+						.and(wide.compare(VectorOperators.LE, high));
+				LongVector.fromArray(LONGS, words, i).lanewise(VectorOperators.OR, bit, matches).intoArray(words, i);
+			}
+		}
+		match(usages, bound, count, low, high, words, bit);
+	}
+
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmark of the ingest path</h1> Measures splitIntoFiles, that is
+ * parsing a generated log and writing its segments. The segments are written
+ * to a store in target/bench-stores (see {@link Stores}), whose catalog is
+ * removed before every call so that the log is ingested every time, and which
+ * is removed once the benchmark is done.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IngestBenchmark {
+	@Param({ "100", "1000" })
+	int servers;
+
+	@Param({ "1440" })
+	int minutes;
+
+	String logFile;
+
+	File store;
+
+	@Setup(Level.Trial)
+	public void generate() throws Throwable {
+		logFile = LogFiles.get(servers, minutes).getPath();
+		store = Stores.use("ingest-" + servers + "-" + minutes);
+	}
+
+	@Setup(Level.Invocation)
+	public void removeCatalog() throws Exception {
+		Files.deleteIfExists(new File(store, "store.catalog").toPath());
+	}
+
+	@TearDown(Level.Trial)
+	public void removeStore() throws Exception {
+		Stores.delete(store);
+	}
+
+	@Benchmark
+	public void splitIntoFiles() throws Throwable {
+		Targets.SPLIT_INTO_FILES.invokeExact(logFile);
+	}
+
+}
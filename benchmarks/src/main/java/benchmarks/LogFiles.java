@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * <h1>Generated logs for the benchmarks</h1> Writes log files in the format of
+ * the Log Generator for a given number of servers and minutes. The files are
+ * kept in target/bench-logs and reused by later runs.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+final class LogFiles {
+	// Unix time of 2014-10-31 00:00 UTC, the first minute of the generated logs
+	static final long START_TIME = 1414713600L;
+
+	// Directory of the generated logs
+	static final File DIR = new File("target/bench-logs");
+
+	private LogFiles() {
+	}
+
+	/**
+	 * Gives a log file with the given number of servers and minutes, writing it if
+	 * it doesn't exist yet.
+	 *
+	 * @param servers number of servers (at most 1000)
+	 * @param minutes number of minutes (at most 1440)
+	 * @return File the log file
+	 * @exception IOException
+	 */
+	static File get(final int servers, final int minutes) throws IOException {
+		final File file = new File(DIR, "logs-" + servers + "-" + minutes + ".txt").getAbsoluteFile();
+		if (file.exists()) {
+			return file;
+		}
+		DIR.mkdirs();
+
+		final File tmp = new File(file.getPath() + ".tmp");
+		final Random rand = new Random(42);
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(tmp), 1 << 16)) {
+			out.write("timestamp IP cpu_id usage");
+			out.newLine();
+			for (int minute = 0; minute < minutes; minute++) {
+				final long time = START_TIME + minute * 60L;
+				for (int server = 0; server < servers; server++) {
+					final String ip = "192.168." + (server / 255 + 1) + "." + (server % 255 + 1);
+					for (int cpu = 0; cpu < 2; cpu++) {
+						out.write(time + " " + ip + " " + cpu + " " + rand.nextInt(100));
+						out.newLine();
+					}
+				}
+			}
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Unable to create " + file);
+		}
+		return file;
+	}
+
+}
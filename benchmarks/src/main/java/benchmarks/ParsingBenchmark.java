@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmarks of the command front-end</h1> Measures parsing a command into
+ * a reused plan, the validation of a command and the conversion of a time
+ * stamp, which run for every command before any data is touched.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+	String query = "QUERY 192.168.1.12 0 2014-10-31 07:33 2014-10-31 08:55";
+	String timeStamp = "2014-10-31 07:33";
+	String cidrQuery = "AVG 192.168.3.0/24 * 2014-10-31T07:33 1414745700";
+	long unixTime = 1414745700;
+	Object plan;
+
+	@Setup
+	public void setup() throws Throwable {
+		plan = (Object) Targets.NEW_PLAN.invokeExact();
+	}
+
+	@Benchmark
+	public boolean parse() throws Throwable {
+		return (boolean) Targets.PARSE.invokeExact((CharSequence) query, plan);
+	}
+
+	@Benchmark
+	public boolean parseCidr() throws Throwable {
+		return (boolean) Targets.PARSE.invokeExact((CharSequence) cidrQuery, plan);
+	}
+
+	@Benchmark
+	public Object convertToUnix() throws Throwable {
+		return (String) Targets.CONVERT_TO_UNIX.invokeExact(timeStamp);
+	}
+
+	@Benchmark
+	public boolean commandValidator() throws Throwable {
+		return (boolean) Targets.COMMAND_VALIDATOR.invokeExact(query);
+	}
+
+	@Benchmark
+	public int getSegment() throws Throwable {
+		return (int) Targets.GET_SEGMENT.invokeExact(unixTime);
+	}
+
+}
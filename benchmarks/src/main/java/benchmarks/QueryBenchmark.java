@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmarks of the query path</h1> Opens the segment store of a generated
+ * log once and measures getting a segment from the cache, fetching a single
+ * usage value and the whole QUERY result for a short and a full day range,
+ * and for an hour window shifted by a minute on every call, as sent by a
+ * dashboard, whose other minutes are reused from the result cache.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+	@Param({ "1000" })
+	int servers;
+
+	@Param({ "1440" })
+	int minutes;
+
+	String ip = "192.168.1.12";
+	String cpuId = "0";
+	String hourStart;
+	String hourEnd;
+	String dayStart;
+	String dayEnd;
+	Object segment;
+	int row = 22;
+	int shift = 0;
+
+	@Setup
+	public void setup() throws Throwable {
+		Stores.use("query-" + servers + "-" + minutes);
+		Targets.OPEN_STORE.invokeExact(LogFiles.get(servers, minutes).getPath());
+		hourStart = Long.toString(LogFiles.START_TIME + 7 * 3600);
+		hourEnd = Long.toString(LogFiles.START_TIME + 8 * 3600);
+		dayStart = Long.toString(LogFiles.START_TIME);
+		dayEnd = Long.toString(LogFiles.START_TIME + minutes * 60L);
+		segment = (Object) Targets.CACHE_IT.invokeExact((int) (LogFiles.START_TIME / 3600));
+	}
+
+	@Benchmark
+	public Object cacheIt() throws Throwable {
+		return (Object) Targets.CACHE_IT.invokeExact((int) (LogFiles.START_TIME / 3600) + 1);
+	}
+
+	@Benchmark
+	public int fetchFromCache() throws Throwable {
+		return (int) Targets.FETCH_FROM_CACHE.invokeExact(segment, row, 100);
+	}
+
+	@Benchmark
+	public Object getResultHour() throws Throwable {
+		return (Object) Targets.GET_RESULT.invokeExact(ip, cpuId, hourStart, hourEnd);
+	}
+
+	@Benchmark
+	public Object getResultDay() throws Throwable {
+		return (Object) Targets.GET_RESULT.invokeExact(ip, cpuId, dayStart, dayEnd);
+	}
+
+	@Benchmark
+	public Object getResultShifted() throws Throwable {
+		shift = (shift + 1) % 600;
+		final long start = LogFiles.START_TIME + 7 * 3600 + shift * 60L;
+		return (Object) Targets.GET_RESULT.invokeExact(ip, cpuId, Long.toString(start), Long.toString(start + 3600));
+	}
+
+}
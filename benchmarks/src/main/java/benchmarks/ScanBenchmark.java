@@ -0,0 +1,114 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmarks of the fleet-wide scans</h1> Builds a day of segments in
+ * memory, with two CPUs per server and a few missing usage values, and
+ * measures the scan kernels alone over every minute of the day, as well as
+ * building the range indexes of the day and its rollups, with the scalar and
+ * the vector kernels. The benchmark JVM is started with the
+ * Vector API module so both kernels can be chosen.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class ScanBenchmark {
+	@Param({ "scalar", "vector" })
+	String kernels;
+
+	@Param({ "1000" })
+	int servers;
+
+	int rows;
+	ByteBuffer data[];
+	Object segments[];
+	Object scan;
+	byte usages[][];
+	int sums[];
+	int counts[];
+	byte mins[];
+	byte maxs[];
+	long words[];
+
+	@Setup
+	public void setup() throws Throwable {
+		if (!(boolean) Targets.USE_KERNELS.invokeExact(kernels)) {
+			throw new IllegalStateException("no " + kernels + " kernels in this runtime");
+		}
+		scan = (Object) Targets.CURRENT_KERNELS.invokeExact();
+		rows = servers * 2;
+		final SplittableRandom random = new SplittableRandom(42);
+		data = new ByteBuffer[24];
+		segments = (Object[]) Targets.SEGMENT_ARRAY.invokeExact(data.length);
+		for (int hour = 0; hour < data.length; hour++) {
+			data[hour] = ByteBuffer.allocateDirect(60 * rows);
+			for (int i = 0; i < data[hour].capacity(); i++) {
+				data[hour].put(i, (byte) (random.nextInt(100) == 0 ? -1 : random.nextInt(101)));
+			}
+			segments[hour] = (Object) Targets.NEW_SEGMENT.invokeExact(LogFiles.START_TIME + hour * 3600L, 60, rows,
+					new long[rows], data[hour]);
+		}
+		usages = new byte[24 * 60][rows];
+		for (int minute = 0; minute < usages.length; minute++) {
+			data[minute / 60].get(minute % 60 * rows, usages[minute]);
+		}
+		sums = new int[rows];
+		counts = new int[rows];
+		mins = new byte[rows];
+		maxs = new byte[rows];
+		words = new long[rows];
+	}
+
+	@Benchmark
+	public int[] accumulateDay() throws Throwable {
+		for (byte minute[] : usages) {
+			Targets.ACCUMULATE.invokeExact(scan, minute, rows, sums, counts, mins, maxs);
+		}
+		return sums;
+	}
+
+	@Benchmark
+	public long[] matchDay() throws Throwable {
+		for (int minute = 0; minute < usages.length; minute++) {
+			Targets.MATCH.invokeExact(scan, usages[minute], rows, 90, 100, words, 1L << (minute % 60));
+		}
+		return words;
+	}
+
+	@Benchmark
+	public Object buildRangeIndexes() throws Throwable {
+		Object index = null;
+		for (ByteBuffer hour : data) {
+			index = (Object) Targets.BUILD_RANGE_INDEX.invokeExact(60, rows, hour);
+		}
+		return index;
+	}
+
+	@Benchmark
+	public Object buildRollups() throws Throwable {
+		return (Object) Targets.BUILD_ROLLUPS.invokeExact((int) (LogFiles.START_TIME / 86400), segments, rows);
+	}
+
+}
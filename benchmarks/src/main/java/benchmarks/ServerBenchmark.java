@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmark of the network query server</h1> Serves the segment store of a
+ * generated log on a free port of the loopback address and runs commands
+ * against it from many client threads at once, each on its own connection. The
+ * sample time mode reports the throughput of the server along with the
+ * percentiles of the round trip latency of a command.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class ServerBenchmark {
+	@Param({ "1000" })
+	int servers;
+
+	@Param({ "1440" })
+	int minutes;
+
+	int port;
+
+	@Setup
+	public void setup() throws Throwable {
+		Stores.use("server-" + servers + "-" + minutes);
+		Targets.OPEN_STORE.invokeExact(LogFiles.get(servers, minutes).getPath());
+		port = (int) Targets.SERVER_PORT.invokeExact((Object) Targets.START_SERVER.invokeExact(0));
+	}
+
+	/**
+	 * A connection of a client thread and the commands it sends.
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		Socket socket;
+		OutputStream out;
+		BufferedReader in;
+		byte commands[][];
+		int next = 0;
+
+		@Setup
+		public void connect(final ServerBenchmark bench) throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), bench.port);
+			socket.setTcpNoDelay(true);
+			out = socket.getOutputStream();
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+
+			// one hour AVG and QUERY commands for random servers
+			final Random rand = new Random(socket.getLocalPort());
+			commands = new byte[256][];
+			for (int i = 0; i < commands.length; i++) {
+				final int server = rand.nextInt(bench.servers);
+				final long start = LogFiles.START_TIME + rand.nextInt(bench.minutes - 60) * 60L;
+				commands[i] = ((i % 2 == 0 ? "AVG" : "QUERY") + " 192.168." + (server / 255 + 1) + "."
+						+ (server % 255 + 1) + " " + rand.nextInt(2) + " " + start + " " + (start + 3600) + "\n")
+								.getBytes(StandardCharsets.US_ASCII);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	@Benchmark
+	public int command(final Client client) throws IOException {
+		client.out.write(client.commands[client.next++ & (client.commands.length - 1)]);
+		client.out.flush();
+		int lines = 0;
+		String line;
+		while ((line = client.in.readLine()) != null && !line.isEmpty()) {
+			lines++;
+		}
+		return lines;
+	}
+
+}
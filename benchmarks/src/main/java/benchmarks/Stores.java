@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * <h1>Segment stores of the benchmarks</h1> Points the tool at a store in
+ * target/bench-stores instead of the store directory of the working
+ * directory, so running the benchmarks from the root of the repository never
+ * rewrites or removes the store of the user.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+final class Stores {
+	// Directory of the stores of the benchmarks
+	static final File DIR = new File("target/bench-stores");
+
+	private Stores() {
+	}
+
+	/**
+	 * Makes the store with the given name the store of the tool.
+	 *
+	 * @param name name of the store
+	 * @return File the directory of the store
+	 * @exception Throwable
+	 */
+	static File use(final String name) throws Throwable {
+		final File dir = new File(DIR, name).getAbsoluteFile();
+		Targets.STORE_DIR.invokeExact(dir);
+		return dir;
+	}
+
+	/**
+	 * Removes the directory of a store of the benchmarks and all its files.
+	 *
+	 * @param dir the directory of the store
+	 * @exception IOException
+	 */
+	static void delete(final File dir) throws IOException {
+		if (!dir.getAbsoluteFile().toPath().startsWith(DIR.getAbsoluteFile().toPath()) || !dir.exists()) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir.toPath())) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+}
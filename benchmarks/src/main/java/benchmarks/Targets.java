@@ -0,0 +1,121 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * <h1>Handles to the benchmarked methods</h1> The classes of the tool are in
+ * the default package, which can't be imported from a named package, and JMH
+ * doesn't allow benchmarks in the default package. The benchmarks therefore
+ * call the tool through method handles. The handles are constants, so the JIT
+ * inlines the calls just like direct calls.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+final class Targets {
+	static final MethodHandle CONVERT_TO_UNIX;
+	static final MethodHandle NEW_PLAN;
+	static final MethodHandle PARSE;
+	static final MethodHandle COMMAND_VALIDATOR;
+	static final MethodHandle GET_SEGMENT;
+	static final MethodHandle OPEN_STORE;
+	static final MethodHandle SPLIT_INTO_FILES;
+	static final MethodHandle CACHE_IT;
+	static final MethodHandle FETCH_FROM_CACHE;
+	static final MethodHandle GET_RESULT;
+	static final MethodHandle START_SERVER;
+	static final MethodHandle SERVER_PORT;
+	static final MethodHandle USE_KERNELS;
+	static final MethodHandle CURRENT_KERNELS;
+	static final MethodHandle ACCUMULATE;
+	static final MethodHandle MATCH;
+	static final MethodHandle NEW_SEGMENT;
+	static final MethodHandle SEGMENT_ARRAY;
+	static final MethodHandle BUILD_RANGE_INDEX;
+	static final MethodHandle BUILD_ROLLUPS;
+	static final MethodHandle STORE_DIR;
+
+	static {
+		try {
+			final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			final Class<?> query = Class.forName("QueryCommand");
+			final Class<?> segment = Class.forName("SegmentStore");
+
+			CONVERT_TO_UNIX = lookup.findStatic(query, "convertToUnix", MethodType.methodType(String.class, String.class));
+			final Class<?> plan = Class.forName("QueryPlan");
+			NEW_PLAN = lookup.findConstructor(plan, MethodType.methodType(void.class))
+					.asType(MethodType.methodType(Object.class));
+			PARSE = lookup
+					.findStatic(Class.forName("QueryParser"), "parse",
+							MethodType.methodType(boolean.class, CharSequence.class, plan))
+					.asType(MethodType.methodType(boolean.class, CharSequence.class, Object.class));
+			COMMAND_VALIDATOR = lookup.findStatic(query, "commandValidator",
+					MethodType.methodType(boolean.class, String.class));
+			GET_SEGMENT = lookup.findStatic(query, "getSegment", MethodType.methodType(int.class, long.class));
+			OPEN_STORE = lookup.findStatic(query, "openStore", MethodType.methodType(void.class, String.class));
+			SPLIT_INTO_FILES = lookup.findStatic(query, "splitIntoFiles",
+					MethodType.methodType(void.class, String.class));
+			CACHE_IT = lookup.findStatic(query, "cacheIt", MethodType.methodType(segment, int.class))
+					.asType(MethodType.methodType(Object.class, int.class));
+			FETCH_FROM_CACHE = lookup
+					.findStatic(query, "fetchFromCache", MethodType.methodType(int.class, segment, int.class, int.class))
+					.asType(MethodType.methodType(int.class, Object.class, int.class, int.class));
+			GET_RESULT = lookup
+					.findStatic(query, "getResult", MethodType.methodType(java.util.ArrayList.class, String.class,
+							String.class, String.class, String.class))
+					.asType(MethodType.methodType(Object.class, String.class, String.class, String.class, String.class));
+			final Class<?> server = Class.forName("QueryServer");
+			START_SERVER = lookup.findStatic(server, "start", MethodType.methodType(server, int.class))
+					.asType(MethodType.methodType(Object.class, int.class));
+			SERVER_PORT = lookup.findVirtual(server, "port", MethodType.methodType(int.class))
+					.asType(MethodType.methodType(int.class, Object.class));
+			final Class<?> kernels = Class.forName("UsageKernels");
+			USE_KERNELS = lookup.findStatic(kernels, "use", MethodType.methodType(boolean.class, String.class));
+			CURRENT_KERNELS = lookup.findStatic(kernels, "current", MethodType.methodType(kernels))
+					.asType(MethodType.methodType(Object.class));
+			ACCUMULATE = lookup
+					.findVirtual(kernels, "accumulate",
+							MethodType.methodType(void.class, byte[].class, int.class, int[].class, int[].class,
+									byte[].class, byte[].class))
+					.asType(MethodType.methodType(void.class, Object.class, byte[].class, int.class, int[].class,
+							int[].class, byte[].class, byte[].class));
+			MATCH = lookup
+					.findVirtual(kernels, "match",
+							MethodType.methodType(void.class, byte[].class, int.class, int.class, int.class,
+									long[].class, long.class))
+					.asType(MethodType.methodType(void.class, Object.class, byte[].class, int.class, int.class,
+							int.class, long[].class, long.class));
+			NEW_SEGMENT = lookup
+					.findConstructor(segment,
+							MethodType.methodType(void.class, long.class, int.class, int.class, long[].class,
+									java.nio.ByteBuffer.class))
+					.asType(MethodType.methodType(Object.class, long.class, int.class, int.class, long[].class,
+							java.nio.ByteBuffer.class));
+			SEGMENT_ARRAY = MethodHandles.arrayConstructor(segment.arrayType())
+					.asType(MethodType.methodType(Object[].class, int.class));
+			final Class<?> rangeIndex = Class.forName("RangeIndex");
+			BUILD_RANGE_INDEX = lookup
+					.findStatic(rangeIndex, "build",
+							MethodType.methodType(rangeIndex, int.class, int.class, java.nio.ByteBuffer.class))
+					.asType(MethodType.methodType(Object.class, int.class, int.class, java.nio.ByteBuffer.class));
+			final Class<?> rollup = Class.forName("Rollup");
+			BUILD_ROLLUPS = lookup
+					.findStatic(rollup, "build",
+							MethodType.methodType(rollup.arrayType(), int.class, segment.arrayType(), int.class))
+					.asType(MethodType.methodType(Object.class, int.class, Object[].class, int.class));
+			// the directory of the store is a package private field of the catalog
+			final Class<?> catalog = Class.forName("Catalog");
+			STORE_DIR = MethodHandles.privateLookupIn(catalog, MethodHandles.lookup()).findStaticSetter(catalog,
+					"storeDir", java.io.File.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Targets() {
+	}
+
+}
@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * <h1>Tests of the bitmap index</h1> Builds the index of a day in which most
+ * rows stay in a few buckets, so the index has both dense containers, with a
+ * word for every row, and sparse containers, with the rows which have a bit
+ * set, and checks the words of every hour and bucket against the segments.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class BitmapIndexTest {
+	// Number of rows of the day
+	final static int ROWS = 40;
+
+	// Directory of the index file
+	@TempDir
+	File dir;
+
+	/**
+	 * Gives the segments of a day whose rows use 20 to 39 percent of their CPU,
+	 * apart from a few samples anywhere between 0 and 100.
+	 */
+	static SegmentStore[] day(final Random random) {
+		final SegmentStore segments[] = new SegmentStore[BitmapIndex.HOURS];
+		for (int hour = 0; hour < segments.length; hour++) {
+			if (hour == 5) {
+				continue;
+			}
+			final SegmentStore segment = new SegmentStore(hour * 3600L, QueryCommand.MINUTES_PER_FILE, ROWS);
+			for (int minute = 0; minute < segment.minutes; minute++) {
+				for (int row = 0; row < ROWS; row++) {
+					final int usage = random.nextInt(200) == 0 ? random.nextInt(101) : 20 + random.nextInt(20);
+					segment.put(minute, row, random.nextInt(10) == 0 ? SegmentStore.MISSING : usage);
+				}
+			}
+			segments[hour] = hour == 9 ? segment.pack() : segment;
+		}
+		return segments;
+	}
+
+	/**
+	 * Checks the words of every hour and bucket of the index against the
+	 * segments.
+	 */
+	static void assertWords(final BitmapIndex index, final SegmentStore segments[]) {
+		for (int hour = 0; hour < BitmapIndex.HOURS; hour++) {
+			for (int bucket = 0; bucket < BitmapIndex.BUCKETS; bucket++) {
+				final long expected[] = new long[ROWS];
+				for (int minute = 0; segments[hour] != null && minute < segments[hour].minutes; minute++) {
+					for (int row = 0; row < ROWS; row++) {
+						final int usage = segments[hour].usage(minute, row);
+						if (usage != SegmentStore.MISSING && BitmapIndex.bucket(usage) == bucket) {
+							expected[row] |= 1L << minute;
+						}
+					}
+				}
+				final long words[] = new long[ROWS];
+				index.or(hour, bucket, words);
+				assertArrayEquals(expected, words, "bucket " + bucket + " of hour " + hour);
+			}
+		}
+	}
+
+	@Test
+	void denseAndSparseContainers() {
+		final SegmentStore segments[] = day(new Random(1));
+		final BitmapIndex index = BitmapIndex.build(0, segments, ROWS);
+		int dense = 0;
+		int sparse = 0;
+		for (int container = 0; container < BitmapIndex.HOURS * BitmapIndex.BUCKETS; container++) {
+			final int bytes = index.offsets[container + 1] - index.offsets[container];
+			if (bytes == ROWS * 8) {
+				dense++;
+			} else if (bytes > 0) {
+				sparse++;
+			}
+		}
+		assertTrue(dense > 0, "no dense containers");
+		assertTrue(sparse > 0, "no sparse containers");
+		assertWords(index, segments);
+	}
+
+	@Test
+	void shorterWordsSkipRows() {
+		final SegmentStore segments[] = day(new Random(2));
+		final BitmapIndex index = BitmapIndex.build(0, segments, ROWS);
+		for (int bucket = 0; bucket < BitmapIndex.BUCKETS; bucket++) {
+			final long words[] = new long[ROWS];
+			final long half[] = new long[ROWS / 2];
+			index.or(0, bucket, words);
+			index.or(0, bucket, half);
+			assertArrayEquals(Arrays.copyOf(words, half.length), half, "bucket " + bucket);
+		}
+	}
+
+	@Test
+	void writeAndRead() throws IOException {
+		final SegmentStore segments[] = day(new Random(3));
+		final File file = new File(dir, BitmapIndex.FILE_NAME);
+		final long crc = BitmapIndex.build(0, segments, ROWS).write(file);
+		final BitmapIndex index = BitmapIndex.read(file, crc);
+		assertEquals(ROWS, index.rows);
+		assertWords(index, segments);
+	}
+
+}
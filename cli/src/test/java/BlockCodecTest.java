@@ -0,0 +1,146 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Tests of the compressed encoding</h1> Packs segments whose rows cover
+ * the kinds of blocks the encoding handles: wide and narrow ranges of usage
+ * values, constant blocks, blocks with missing minutes and blocks without any
+ * logs. Every usage value, every decoded block and the aggregates over ranges
+ * of minutes are checked against the dense segment.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class BlockCodecTest {
+	// Number of rows of the test segments
+	final static int ROWS = 7;
+
+	/**
+	 * Fills a segment with a different kind of block in every row.
+	 *
+	 * @param minutes number of minutes in the segment
+	 * @param seed    seed of the random usage values
+	 * @return SegmentStore the dense segment
+	 */
+	static SegmentStore segment(final int minutes, final long seed) {
+		final Random random = new Random(seed);
+		final SegmentStore segment = new SegmentStore(0, minutes, ROWS);
+		for (int minute = 0; minute < minutes; minute++) {
+			// row 0: any usage value, row 1: between 20 and 35, row 2: constant,
+			// row 3: constant with missing minutes, row 4: narrow with missing
+			// minutes, row 5: no logs, row 6: only 0 and 100
+			segment.put(minute, 0, random.nextInt(101));
+			segment.put(minute, 1, 20 + random.nextInt(16));
+			segment.put(minute, 2, 42);
+			segment.put(minute, 3, minute % 3 == 0 ? SegmentStore.MISSING : 7);
+			segment.put(minute, 4, random.nextInt(4) == 0 ? SegmentStore.MISSING : 50 + random.nextInt(3));
+			segment.put(minute, 6, random.nextBoolean() ? 0 : 100);
+		}
+		return segment;
+	}
+
+	/**
+	 * Adds the usage values of a range of minutes of a row one by one.
+	 */
+	static RangeIndex.Aggregate scan(final SegmentStore segment, final int row, final int from, final int to) {
+		final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+		for (int minute = from; minute < to; minute++) {
+			final int usage = segment.usage(minute, row);
+			if (usage != SegmentStore.MISSING) {
+				agg.sum += usage;
+				agg.count++;
+				agg.min = Math.min(agg.min, usage);
+				agg.max = Math.max(agg.max, usage);
+			}
+		}
+		return agg;
+	}
+
+	static void assertAggregate(final RangeIndex.Aggregate expected, final RangeIndex.Aggregate actual,
+			final String range) {
+		assertEquals(expected.sum, actual.sum, "sum of " + range);
+		assertEquals(expected.count, actual.count, "count of " + range);
+		assertEquals(expected.min, actual.min, "min of " + range);
+		assertEquals(expected.max, actual.max, "max of " + range);
+	}
+
+	@Test
+	void usageValuesRoundTrip() {
+		for (int minutes : new int[] { 1, 60, 90, 150 }) {
+			final SegmentStore dense = segment(minutes, minutes);
+			final SegmentStore packed = dense.pack();
+			assertTrue(packed.packed);
+			for (int row = 0; row < ROWS; row++) {
+				for (int minute = 0; minute < minutes; minute++) {
+					assertEquals(dense.usage(minute, row), packed.usage(minute, row),
+							"minute " + minute + " of row " + row + " of " + minutes);
+				}
+			}
+		}
+	}
+
+	@Test
+	void blocksDecode() {
+		final int minutes = 90;
+		final SegmentStore dense = segment(minutes, 1);
+		final SegmentStore packed = dense.pack();
+		final int blocks = BlockCodec.blocks(minutes);
+		final byte values[] = new byte[BlockCodec.BLOCK_MINUTES];
+		for (int row = 0; row < ROWS; row++) {
+			for (int block = 0; block < blocks; block++) {
+				final int count = BlockCodec.decode(packed.data, packed.offsets, minutes, row * blocks + block,
+						values);
+				final int first = block * BlockCodec.BLOCK_MINUTES;
+				final int length = BlockCodec.length(minutes, block);
+				assertEquals(scan(dense, row, first, first + length).count, count);
+				for (int i = 0; i < length; i++) {
+					assertEquals(dense.usage(first + i, row), values[i], "minute " + (first + i) + " of row " + row);
+				}
+			}
+		}
+	}
+
+	@Test
+	void aggregatesMatchScan() {
+		final int minutes = 150;
+		final SegmentStore dense = segment(minutes, 2);
+		final SegmentStore packed = dense.pack();
+		final Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			final int row = random.nextInt(ROWS);
+			final int from = random.nextInt(minutes);
+			final int to = from + 1 + random.nextInt(minutes - from);
+			final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+			BlockCodec.aggregate(packed.data, packed.offsets, minutes, row, from, to, agg);
+			assertAggregate(scan(dense, row, from, to), agg, "row " + row + " [" + from + ", " + to + ")");
+		}
+	}
+
+	@Test
+	void constantAndEmptyBlocksTakeNoCodes() {
+		final SegmentStore segment = new SegmentStore(0, BlockCodec.BLOCK_MINUTES, 2);
+		for (int minute = 0; minute < segment.minutes; minute++) {
+			segment.put(minute, 0, 42);
+		}
+		final SegmentStore packed = segment.pack();
+		assertEquals(2 * BlockCodec.HEADER_BYTES, packed.data.capacity());
+		assertEquals(42, packed.usage(17, 0));
+		assertEquals(SegmentStore.MISSING, packed.usage(17, 1));
+	}
+
+	@Test
+	void codesTakeTheBitsOfTheirSpread() {
+		final SegmentStore segment = new SegmentStore(0, BlockCodec.BLOCK_MINUTES, 1);
+		for (int minute = 0; minute < segment.minutes; minute++) {
+			segment.put(minute, 0, 20 + minute % 16);
+		}
+		final SegmentStore packed = segment.pack();
+		assertEquals(BlockCodec.HEADER_BYTES + BlockCodec.BLOCK_MINUTES * 4 / 8, packed.data.capacity());
+	}
+
+}
@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * <h1>Tests of the external merge sort</h1> Sorts logs in random order with
+ * many logs of the same time, IP Address and CPU ID, whose usage values tell
+ * them apart, and checks that they come out in the order of a stable sort of
+ * the input, whether the logs fit in a single run or are spilled to many runs.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class ExternalSortTest {
+	// Directory of the store
+	@TempDir
+	File dir;
+
+	/**
+	 * Gives logs in random order, each as its time, IP Address, CPU ID and usage
+	 * value. The IP Addresses include ones above 128.0.0.0, which are negative
+	 * as ints.
+	 */
+	static long[][] logs(final int count, final Random random) {
+		final int ips[] = { 0x0A000001, 0x0A000002, 0xC0A80001, 0xFFFFFFFE };
+		final long logs[][] = new long[count][];
+		for (int i = 0; i < count; i++) {
+			logs[i] = new long[] { 1_500_000_000L + 60 * random.nextInt(20), ips[random.nextInt(ips.length)],
+					random.nextInt(2), random.nextInt(101) };
+		}
+		return logs;
+	}
+
+	/**
+	 * Sorts the logs and gives them in the order in which the sink received
+	 * them.
+	 */
+	static long[][] sort(final ExternalSort sort, final long logs[][]) throws IOException {
+		for (long log[] : logs) {
+			sort.accept(log[0], (int) log[1], (int) log[2], (int) log[3]);
+		}
+		final ArrayList<long[]> sorted = new ArrayList<>();
+		sort.merge((time, ip, cpuId, usage) -> sorted.add(new long[] { time, ip, cpuId, usage }));
+		return sorted.toArray(new long[0][]);
+	}
+
+	/**
+	 * Gives the logs in the order of a stable sort by time, IP Address as an
+	 * unsigned number and CPU ID.
+	 */
+	static long[][] expected(final long logs[][]) {
+		final long expected[][] = logs.clone();
+		Arrays.sort(expected, Comparator.<long[]>comparingLong(log -> log[0])
+				.thenComparingLong(log -> log[1] & 0xFFFFFFFFL).thenComparingLong(log -> log[2]));
+		return expected;
+	}
+
+	@Test
+	void spilledRunsAreStable() throws IOException {
+		final long logs[][] = logs(5000, new Random(1));
+		final File spillDir = new File(dir, ExternalSort.SPILL_DIR);
+		final ExternalSort sort = new ExternalSort(ExternalSort.INSERTION_SORT_LOGS * 4 * ExternalSort.LOG_BYTES,
+				spillDir);
+		final long sorted[][] = sort(sort, logs);
+		assertTrue(sort.runs.size() > 1, "nothing was spilled");
+		assertEquals(logs.length, sort.logs);
+		assertArrayEquals(expected(logs), sorted);
+		assertFalse(spillDir.exists(), "the run files were not removed");
+	}
+
+	@Test
+	void singleRunIsStable() throws IOException {
+		final long logs[][] = logs(5000, new Random(2));
+		final ExternalSort sort = new ExternalSort(1 << 20, new File(dir, ExternalSort.SPILL_DIR));
+		final long sorted[][] = sort(sort, logs);
+		assertTrue(sort.runs.isEmpty());
+		assertArrayEquals(expected(logs), sorted);
+	}
+
+	@Test
+	void keysKeepTheirFields() {
+		final long key = ExternalSort.key(0xC0A80001, 1, 100);
+		assertTrue(ExternalSort.compare(5, ExternalSort.key(0x0A000001, 1, 0), 5, key) < 0);
+		assertEquals(0, ExternalSort.compare(5, ExternalSort.key(0xC0A80001, 1, 7), 5, key));
+		assertTrue(ExternalSort.compare(4, key, 5, ExternalSort.key(0, 0, 0)) < 0);
+	}
+
+}
@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Tests of the command parser</h1> Checks the targets, CPUs and time
+ * stamps the parser accepts, the local time stamps against the date classes
+ * and the commands it rejects.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class QueryParserTest {
+
+	/**
+	 * Parses a command which must be valid.
+	 */
+	static QueryPlan parse(final String query) {
+		final QueryPlan plan = new QueryPlan();
+		assertTrue(QueryParser.parse(query, plan), query);
+		return plan;
+	}
+
+	/**
+	 * Gives the unix time of a local time stamp from the date classes.
+	 */
+	static long local(final String timeStamp) {
+		return LocalDateTime.parse(timeStamp).atZone(ZoneId.systemDefault()).toEpochSecond();
+	}
+
+	@Test
+	void singleServer() {
+		final QueryPlan plan = parse("QUERY 192.168.1.10 1 2014-10-31 00:00 2014-10-31 00:05");
+		assertEquals(QueryPlan.QUERY, plan.command);
+		assertEquals(0xC0A8010A, plan.ip);
+		assertEquals(32, plan.prefixLength);
+		assertEquals(1, plan.cpuId);
+		assertTrue(plan.isSingleRow());
+		assertTrue(plan.matches(RowIndex.key(0xC0A8010A, 1)));
+		assertFalse(plan.matches(RowIndex.key(0xC0A8010A, 0)));
+	}
+
+	@Test
+	void networkAndBothCpus() {
+		final QueryPlan plan = parse("AVG 192.168.1.77/24 * 1414713600 1414717200");
+		assertEquals(QueryPlan.AVG, plan.command);
+		assertEquals(0xC0A80100, plan.ip);
+		assertEquals(24, plan.prefixLength);
+		assertEquals(QueryPlan.ALL_CPUS, plan.cpuId);
+		assertFalse(plan.isSingleRow());
+		assertEquals("192.168.1.0/24", plan.target());
+		assertTrue(plan.matches(RowIndex.key(0xC0A801FF, 0)));
+		assertTrue(plan.matches(RowIndex.key(0xC0A80100, 1)));
+		assertFalse(plan.matches(RowIndex.key(0xC0A80201, 0)));
+
+		final QueryPlan all = parse("COUNT 10.1.2.3/0 * 0 60");
+		assertEquals(0, all.ip);
+		assertTrue(all.matches(RowIndex.key(0xFFFFFFFF, 1)));
+	}
+
+	@Test
+	void timeStamps() {
+		assertEquals(1414713600, QueryParser.parseTime("1414713600"));
+		assertEquals(1414713600, QueryParser.parseTime("2014-10-31T00:00Z"));
+		assertEquals(1414713645, QueryParser.parseTime("2014-10-31T00:00:45Z"));
+		assertEquals(local("2014-10-31T00:00"), QueryParser.parseTime("2014-10-31 00:00"));
+		assertEquals(local("2014-10-31T23:59:30"), QueryParser.parseTime("2014-10-31T23:59:30"));
+		assertEquals(local("2016-02-29T12:00"), QueryParser.parseTime("2016-02-29 12:00"));
+		assertEquals(local("2021-03-28T03:30"), QueryParser.parseTime("2021-03-28 03:30"));
+		assertEquals(local("2021-10-31T01:30"), QueryParser.parseTime("2021-10-31 01:30"));
+
+		final QueryPlan plan = parse("MAX 10.0.0.1 0 2014-10-31T00:00Z 1414717200");
+		assertEquals(1414713600, plan.unixStart);
+		assertEquals(1414717200, plan.unixEnd);
+	}
+
+	@Test
+	void invalidTimeStamps() {
+		for (String timeStamp : new String[] { "", "2014-13-01 00:00", "2014-10-31 24:00", "2014-10-31 00:60",
+				"2014-10-31", "2014-10-31 0:00", "2014-10-31X00:00", "2014-10-31T00:00:61", "1234567890123",
+				"14147136OO" }) {
+			assertEquals(Long.MIN_VALUE, QueryParser.parseTime(timeStamp), timeStamp);
+		}
+	}
+
+	@Test
+	void invalidCommands() {
+		final QueryPlan plan = new QueryPlan();
+		for (String query : new String[] { "", "QUERY", "QUERY 192.168.1.10 2 0 60", "QUERY 192.168.1.256 0 0 60",
+				"QUERY 192.168.1.10/33 0 0 60", "QUERY 192.168.1.10/ 0 0 60", "QUERY 192.168.1 0 0 60",
+				"AVG 192.168.1.10 ** 0 60", "TOP 0 0 60", "TOP 10000 0 60", "QUERY 192.168.1.10 0 0 60 EXTRA",
+				"STATS now" }) {
+			assertFalse(QueryParser.parse(query, plan), query);
+		}
+	}
+
+	@Test
+	void optionalClauses() {
+		final QueryPlan top = parse("TOP 5 0 3600 * MAX");
+		assertEquals(5, top.topN);
+		assertEquals(QueryPlan.ALL_CPUS, top.cpuId);
+		assertTrue(top.peak);
+
+		final QueryPlan where = parse("WHERE 10.0.0.0/8 1 0 3600 USAGE BETWEEN 20 AND 30 FOR 15");
+		assertEquals(20, where.low);
+		assertEquals(30, where.high);
+		assertEquals(15, where.sustained);
+
+		assertEquals(60, parse("QUERY 10.0.0.1 0 0 3600 RESOLUTION 1h").resolution);
+		assertEquals(QueryPlan.STATS, parse("  STATS  ").command);
+	}
+
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Tests of the range aggregates</h1> Checks the aggregates of random
+ * ranges of minutes, including ranges within a block and ranges which start
+ * or end on the edge of a block, against a linear scan of the usage matrix,
+ * both when the index is built and after usage values are updated.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class RangeIndexTest {
+	// Number of minutes of the test segment, which ends with a partial block
+	final static int MINUTES = 4 * RangeIndex.BLOCK + 7;
+
+	// Number of rows of the test segment
+	final static int ROWS = 5;
+
+	/**
+	 * Fills a segment with random usage values, some of them missing, and
+	 * builds its index. The last row has no logs.
+	 */
+	static SegmentStore segment(final Random random) {
+		final SegmentStore segment = new SegmentStore(0, MINUTES, ROWS);
+		for (int minute = 0; minute < MINUTES; minute++) {
+			for (int row = 0; row < ROWS - 1; row++) {
+				segment.put(minute, row, random.nextInt(5) == 0 ? SegmentStore.MISSING : random.nextInt(101));
+			}
+		}
+		segment.buildIndex();
+		return segment;
+	}
+
+	/**
+	 * Checks every range of minutes of every row against a linear scan.
+	 */
+	static void assertAllRanges(final SegmentStore segment) {
+		for (int row = 0; row < ROWS; row++) {
+			for (int from = 0; from < MINUTES; from++) {
+				for (int to = from; to <= MINUTES; to++) {
+					final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+					segment.index.aggregate(row, from, to, agg);
+					BlockCodecTest.assertAggregate(BlockCodecTest.scan(segment, row, from, to), agg,
+							"row " + row + " [" + from + ", " + to + ")");
+				}
+			}
+		}
+	}
+
+	@Test
+	void aggregatesMatchScan() {
+		assertAllRanges(segment(new Random(1)));
+	}
+
+	@Test
+	void updatedRowsAreRefreshed() {
+		final Random random = new Random(2);
+		final SegmentStore segment = segment(random);
+		for (int i = 0; i < 40; i++) {
+			final int usage = random.nextInt(3) == 0 ? SegmentStore.MISSING : random.nextInt(101);
+			segment.update(random.nextInt(MINUTES), random.nextInt(ROWS), usage);
+		}
+		segment.refreshIndex();
+		assertAllRanges(segment);
+	}
+
+	@Test
+	void indexTakesItsBytes() {
+		final SegmentStore segment = segment(new Random(3));
+		assertEquals(RangeIndex.bytes(MINUTES, ROWS), segment.index.index.capacity());
+		assertEquals(5 * RangeIndex.BLOCK_BYTES * ROWS, RangeIndex.bytes(MINUTES, ROWS));
+	}
+
+	@Test
+	void emptyRangeLeavesAggregate() {
+		final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+		segment(new Random(4)).index.aggregate(0, 10, 10, agg);
+		assertEquals(0, agg.count);
+		assertEquals(Double.NaN, agg.avg());
+	}
+
+}
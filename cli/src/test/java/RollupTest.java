@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Tests of the rollups</h1> Rolls up a day whose hours include hours
+ * without logs, a packed segment and a segment started before some servers
+ * joined, and checks every bucket of every tier against a linear scan of the
+ * segments.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class RollupTest {
+	// Number of rows of the day
+	final static int ROWS = 4;
+
+	/**
+	 * Gives the segments of a day with random usage values.
+	 */
+	static SegmentStore[] day(final Random random) {
+		final SegmentStore segments[] = new SegmentStore[Catalog.SEGMENTS_PER_PARTITION];
+		for (int hour = 0; hour < segments.length; hour++) {
+			if (hour % 5 == 3) {
+				continue;
+			}
+			final int rows = hour < 2 ? ROWS - 1 : ROWS;
+			final SegmentStore segment = new SegmentStore(hour * 3600L, QueryCommand.MINUTES_PER_FILE, rows);
+			for (int minute = 0; minute < segment.minutes; minute++) {
+				for (int row = 0; row < rows; row++) {
+					segment.put(minute, row, random.nextInt(6) == 0 ? SegmentStore.MISSING : random.nextInt(101));
+				}
+			}
+			segments[hour] = hour == 7 ? segment.pack() : segment;
+		}
+		return segments;
+	}
+
+	@Test
+	void bucketsMatchScan() {
+		final SegmentStore segments[] = day(new Random(1));
+		final Rollup tiers[] = Rollup.build(0, segments, ROWS);
+		assertEquals(Rollup.TIER_MINUTES.length, tiers.length);
+		for (Rollup rollup : tiers) {
+			final int minutes = Rollup.TIER_MINUTES[rollup.tier];
+			assertEquals(Rollup.DAY_MINUTES / minutes, rollup.buckets);
+			for (int row = 0; row < ROWS; row++) {
+				for (int bucket = 0; bucket < rollup.buckets; bucket++) {
+					final RangeIndex.Aggregate expected = new RangeIndex.Aggregate();
+					for (int minute = bucket * minutes; minute < (bucket + 1) * minutes; minute++) {
+						final SegmentStore segment = segments[minute / QueryCommand.MINUTES_PER_FILE];
+						if (segment != null && row < segment.rows) {
+							final int usage = segment.usage(minute % QueryCommand.MINUTES_PER_FILE, row);
+							if (usage != SegmentStore.MISSING) {
+								expected.sum += usage;
+								expected.count++;
+								expected.min = Math.min(expected.min, usage);
+								expected.max = Math.max(expected.max, usage);
+							}
+						}
+					}
+					final RangeIndex.Aggregate agg = new RangeIndex.Aggregate();
+					rollup.add(row, bucket, agg);
+					BlockCodecTest.assertAggregate(expected, agg,
+							Rollup.TIER_NAMES[rollup.tier] + " bucket " + bucket + " of row " + row);
+				}
+			}
+		}
+	}
+
+	@Test
+	void tiersAndResolutions() {
+		assertEquals(0, Rollup.tier(5));
+		assertEquals(1, Rollup.tier(60));
+		assertEquals(2, Rollup.tier(Rollup.DAY_MINUTES));
+		assertEquals(-1, Rollup.tier(1));
+		final Rollup rollup = new Rollup(0, 1, ROWS, null);
+		assertEquals(0, rollup.bucket(0));
+		assertEquals(23, rollup.bucket(23 * 60 + 59));
+		assertEquals(2, rollup.bucket(Rollup.DAY_MINUTES + 2 * 60));
+	}
+
+}
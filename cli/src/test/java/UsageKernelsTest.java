@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Tests of the scan kernels</h1> Runs the vector kernels and the scalar
+ * kernels over the same usage values, for numbers of rows below, at and above
+ * the width of a vector, and checks that they give the same results. Skipped if
+ * the Java runtime has no Vector API.
+ *
+ * @author Aravind Vicinthangal Prathivaathi
+ * @version 1.0
+ * @since 2019-07-09
+ */
+public class UsageKernelsTest {
+	// Numbers of rows tried
+	final static int ROWS[] = { 0, 1, 15, 16, 17, 63, 64, 65, 200, 1001 };
+
+	/**
+	 * Gives random usage values, some of them missing.
+	 */
+	static byte[] usages(final int rows, final Random random) {
+		final byte usages[] = new byte[rows];
+		for (int row = 0; row < rows; row++) {
+			usages[row] = random.nextInt(5) == 0 ? SegmentStore.MISSING : (byte) random.nextInt(101);
+		}
+		return usages;
+	}
+
+	@Test
+	void accumulateMatchesScalar() {
+		assumeTrue(UsageKernels.VECTOR_KERNELS != null, "no Vector API");
+		final Random random = new Random(1);
+		for (int rows : ROWS) {
+			final int sums[][] = new int[2][rows];
+			final int counts[][] = new int[2][rows];
+			final byte mins[][] = new byte[2][rows];
+			final byte maxs[][] = new byte[2][rows];
+			for (int k = 0; k < 2; k++) {
+				Arrays.fill(mins[k], RangeIndex.NO_MIN);
+				Arrays.fill(maxs[k], SegmentStore.MISSING);
+			}
+			for (int minute = 0; minute < 60; minute++) {
+				final byte usages[] = usages(rows, random);
+				UsageKernels.SCALAR_KERNELS.accumulate(usages, rows, sums[0], counts[0], mins[0], maxs[0]);
+				UsageKernels.VECTOR_KERNELS.accumulate(usages, rows, sums[1], counts[1], mins[1], maxs[1]);
+			}
+			assertArrayEquals(sums[0], sums[1], "sums of " + rows + " rows");
+			assertArrayEquals(counts[0], counts[1], "counts of " + rows + " rows");
+			assertArrayEquals(mins[0], mins[1], "mins of " + rows + " rows");
+			assertArrayEquals(maxs[0], maxs[1], "maxs of " + rows + " rows");
+		}
+	}
+
+	@Test
+	void matchMatchesScalar() {
+		assumeTrue(UsageKernels.VECTOR_KERNELS != null, "no Vector API");
+		final Random random = new Random(2);
+		final int ranges[][] = { { 0, 100 }, { 20, 30 }, { 50, 50 }, { 81, 100 }, { 0, 0 } };
+		for (int rows : ROWS) {
+			for (int range[] : ranges) {
+				final long words[][] = new long[2][rows];
+				for (int minute = 0; minute < 60; minute++) {
+					final byte usages[] = usages(rows, random);
+					UsageKernels.SCALAR_KERNELS.match(usages, rows, range[0], range[1], words[0], 1L << minute);
+					UsageKernels.VECTOR_KERNELS.match(usages, rows, range[0], range[1], words[1], 1L << minute);
+				}
+				assertArrayEquals(words[0], words[1], range[0] + " to " + range[1] + " of " + rows + " rows");
+			}
+		}
+	}
+
+}